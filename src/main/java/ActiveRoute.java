@@ -0,0 +1,230 @@
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A route that a client is driving, kept so that it can be updated from the driver's
+ * position as they move instead of being found again from scratch.
+ *
+ * The route is held as its vertex indices with the cost from each to the end of the route.
+ * While the driver is still on the route, an update only drops the part of it that is
+ * behind them. Once they have left it, an update searches from their position only as far
+ * as the nearest vertex of the route still ahead, and keeps the rest of the route from
+ * there, so the search grows with the size of the detour rather than the length of the
+ * route. Only the vertices ahead of where the driver was last matched to the route count,
+ * so they are never sent back to a part of it they have already driven. The result is the
+ * best way back onto the route, which is not always the best route to the destination: a
+ * driver who has gone far astray should ask for a new route.
+ *
+ * An active route is immutable; reroute() returns the updated route.
+ */
+class ActiveRoute {
+    /** How far in miles a position may be from the route and still count as on it. */
+    static final double ON_ROUTE_MILES = 0.01;
+
+    /** The graph the route was found on. */
+    final GraphDB graph;
+    /** The metric the route was found under, which the costs to the end are in. */
+    final Router.Metric metric;
+    /** How the last update of the route ended. */
+    final Router.Status status;
+    private final int[] vertices;
+    /** The cost from each vertex of the route to the end of it. */
+    private final double[] remaining;
+    /** The index of the last route vertex the driver was matched past, or -1 for none. */
+    private final int passed;
+
+    private ActiveRoute(GraphDB graph, Router.Metric metric, Router.Status status,
+                        int[] vertices, double[] remaining, int passed) {
+        this.graph = graph;
+        this.metric = metric;
+        this.status = status;
+        this.vertices = vertices;
+        this.remaining = remaining;
+        this.passed = passed;
+    }
+
+    /**
+     * Starts tracking a route found by Router.findRoute().
+     * @param g The graph the route was found on.
+     * @param result The route.
+     * @param destlon The longitude of the destination the route was found to.
+     * @param destlat The latitude of the destination the route was found to.
+     * @param options The options the route was found with.
+     * @return The active route, or null if result has no route.
+     */
+    static ActiveRoute of(GraphDB g, Router.RouteResult result, double destlon,
+                          double destlat, Router.RouteOptions options) {
+        if (result.status != Router.Status.FOUND) {
+            return null;
+        }
+        int[] vertices = new int[result.route.size()];
+        int i = 0;
+        for (long id : result.route) {
+            vertices[i++] = g.indexOf(id);
+        }
+
+        /* the cost past the last vertex is the part-way segment to a snapped destination */
+        double[] remaining = new double[vertices.length];
+        Router.Endpoint dest = Router.endpoint(g, destlon, destlat, options);
+        int last = vertices.length - 1;
+        for (int k = 0; k < dest.vertices.length; k++) {
+            if (dest.vertices[k] == vertices[last]) {
+                remaining[last] = dest.costs[k];
+            }
+        }
+        for (int j = last - 1; j >= 0; j--) {
+            int e = g.edgeBetween(vertices[j], vertices[j + 1]);
+            remaining[j] = remaining[j + 1] + Router.edgeCost(g, options.traffic, e,
+                    options.metric);
+        }
+        return new ActiveRoute(g, options.metric, Router.Status.FOUND, vertices, remaining,
+                -1);
+    }
+
+    /**
+     * Returns the route from the driver's new position. If the position is within
+     * ON_ROUTE_MILES of a segment of the route, the route is trimmed to start at that
+     * segment. Otherwise the driver is attached to the graph as options say and a search
+     * finds the cheapest way back onto the rest of the route.
+     * @param lon The longitude of the driver.
+     * @param lat The latitude of the driver.
+     * @param options The options the route was found with, with the budget for the search.
+     * @return The updated route. If the search fails, its status says why and it keeps this
+     *         route's vertices, so it can still be updated from a later position.
+     */
+    ActiveRoute reroute(double lon, double lat, Router.RouteOptions options) {
+        int on = onRoute(lon, lat);
+        if (on >= 0) {
+            int n = vertices.length - on;
+            int[] trimmedVertices = new int[n];
+            double[] trimmedRemaining = new double[n];
+            System.arraycopy(vertices, on, trimmedVertices, 0, n);
+            System.arraycopy(remaining, on, trimmedRemaining, 0, n);
+            /* the driver is past the start of the trimmed route, unless it is all that is left */
+            return new ActiveRoute(graph, metric, Router.Status.FOUND, trimmedVertices,
+                    trimmedRemaining, n > 1 ? 0 : -1);
+        }
+        if (options.budget.isCancelled()) {
+            return withStatus(Router.Status.CANCELLED);
+        }
+        try {
+            return rejoin(Router.endpoint(graph, lon, lat, options), options.traffic,
+                    options.budget);
+        } catch (SearchBudget.Exhausted e) {
+            return withStatus(e.status);
+        }
+    }
+
+    /**
+     * Returns the index of the route vertex that starts the route segment within
+     * ON_ROUTE_MILES of a position, or the route vertex at the position, or -1 if the
+     * position is off the route.
+     */
+    private int onRoute(double lon, double lat) {
+        SegmentIndex.Snap snap = graph.snap(lon, lat);
+        if (snap.distance > ON_ROUTE_MILES) {
+            return -1;
+        }
+        for (int j = 0; j < vertices.length; j++) {
+            if (j + 1 < vertices.length
+                    && (vertices[j] == snap.from && vertices[j + 1] == snap.to
+                    || vertices[j] == snap.to && vertices[j + 1] == snap.from)) {
+                return j;
+            }
+            if (snap.fraction == 0 && vertices[j] == snap.from
+                    || snap.fraction == 1 && vertices[j] == snap.to) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Dijkstra's algorithm from the driver until it settles a vertex of the route ahead of
+     * the last one they passed, throwing SearchBudget.Exhausted when budget runs out. The new
+     * route is the way to that nearest route vertex followed by the rest of the route from
+     * there.
+     */
+    private ActiveRoute rejoin(Router.Endpoint start, TrafficOverlay.Snapshot traffic,
+                               SearchBudget budget) {
+        LongIntHashMap positions = new LongIntHashMap(vertices.length, -1);
+        for (int j = passed + 1; j < vertices.length; j++) {
+            positions.put(vertices[j], j);
+        }
+        SearchState state = SearchState.get(0, graph.size());
+        IndexedMinHeap fringe = state.fringe;
+        for (int i = 0; i < start.vertices.length; i++) {
+            int s = start.vertices[i];
+            if (start.costs[i] < state.distTo(s)) {
+                state.reach(s, start.costs[i], s, -1);
+                fringe.push(s, start.costs[i]);
+            }
+        }
+
+        int rejoined = -1;
+        int settledCount = 0;
+        while (!fringe.isEmpty() && rejoined < 0) {
+            int curr = fringe.poll();
+            state.settle(curr);
+            budget.check(++settledCount);
+            rejoined = positions.get(curr);
+            double distToCurr = state.distTo(curr);
+            for (int e = graph.edgeStart(curr); e < graph.edgeEnd(curr); e++) {
+                int v = graph.edgeTarget(e);
+                double newDistToV = distToCurr + Router.edgeCost(graph, traffic, e, metric);
+                if (!state.settled(v) && state.distTo(v) > newDistToV) {
+                    state.reach(v, newDistToV, curr, e);
+                    fringe.push(v, newDistToV);
+                }
+            }
+        }
+        if (rejoined < 0) {
+            return withStatus(Router.Status.NO_ROUTE);
+        }
+
+        /* the way back to the route, then the route from where it was rejoined */
+        LinkedList<Integer> detour = new LinkedList<>();
+        for (int v = vertices[rejoined]; ; v = state.edgeTo(v)) {
+            detour.addFirst(v);
+            if (state.edgeTo(v) == v) {
+                break;
+            }
+        }
+        double detourCost = state.distTo(vertices[rejoined]);
+        int n = detour.size() - 1 + vertices.length - rejoined;
+        int[] newVertices = new int[n];
+        double[] newRemaining = new double[n];
+        int i = 0;
+        for (int v : detour) {
+            newVertices[i] = v;
+            newRemaining[i] = detourCost - state.distTo(v) + remaining[rejoined];
+            i++;
+        }
+        System.arraycopy(vertices, rejoined + 1, newVertices, i,
+                vertices.length - rejoined - 1);
+        System.arraycopy(remaining, rejoined + 1, newRemaining, i,
+                vertices.length - rejoined - 1);
+        return new ActiveRoute(graph, metric, Router.Status.FOUND, newVertices, newRemaining,
+                -1);
+    }
+
+    private ActiveRoute withStatus(Router.Status newStatus) {
+        return new ActiveRoute(graph, metric, newStatus, vertices, remaining, passed);
+    }
+
+    /** Returns the route as Router.findRoute() would, empty unless the last update found it. */
+    Router.RouteResult result() {
+        List<Long> route = new LinkedList<>();
+        if (status == Router.Status.FOUND) {
+            for (int v : vertices) {
+                route.add(graph.idAt(v));
+            }
+        }
+        return new Router.RouteResult(route, status);
+    }
+
+    /** Returns the cost from the start of the route to its end. */
+    double cost() {
+        return remaining[0];
+    }
+}
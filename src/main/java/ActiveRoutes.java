@@ -0,0 +1,66 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded, thread-safe store of the routes clients are driving, under the handles /route
+ * gives out and /reroute takes back. When full it drops the route updated longest ago.
+ *
+ * Handles are random rather than sequential, so that a client holding a handle from before
+ * a restart gets told its route is gone instead of being handed someone else's, and are
+ * below 2^53 so that they survive a round trip through a JavaScript number.
+ */
+class ActiveRoutes {
+    private static final long MAX_HANDLE = 1L << 53;
+
+    private final LinkedHashMap<Long, ActiveRoute> routes;
+
+    /**
+     * Creates an empty store.
+     * @param capacity The most routes kept.
+     */
+    ActiveRoutes(int capacity) {
+        routes = new LinkedHashMap<Long, ActiveRoute>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ActiveRoute> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Stores a route under a new handle and returns the handle. */
+    synchronized long add(ActiveRoute route) {
+        long handle;
+        do {
+            handle = ThreadLocalRandom.current().nextLong(MAX_HANDLE);
+        } while (routes.containsKey(handle));
+        routes.put(handle, route);
+        return handle;
+    }
+
+    /**
+     * Returns the route stored under a handle.
+     * @param handle The handle add() returned.
+     * @param g The graph being routed on.
+     * @return The route, or null if there is none or it was found on a graph other than g.
+     */
+    synchronized ActiveRoute get(long handle, GraphDB g) {
+        ActiveRoute route = routes.get(handle);
+        return route != null && route.graph == g ? route : null;
+    }
+
+    /** Replaces the route stored under a handle with its update, unless it has been dropped. */
+    synchronized void update(long handle, ActiveRoute route) {
+        routes.replace(handle, route);
+    }
+
+    /** Removes every route. */
+    synchronized void clear() {
+        routes.clear();
+    }
+
+    /** Returns the number of routes stored. */
+    synchronized int size() {
+        return routes.size();
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Arc flags over a GraphDB, which let a search toward a target skip the edges that lead
+ * nowhere useful. The vertices are split into REGIONS regions by Partition, and every edge
+ * gets one flag per region, set if the edge starts a shortest route into that region. A
+ * search toward targets in a region only follows edges with that region's flag, which
+ * keeps A* from exploring the side streets that its heuristic alone finds promising.
+ *
+ * The flags for region R are found with one Dijkstra search from each boundary vertex of R,
+ * a vertex of R with an edge leaving it. Every vertex's edge toward its parent in such a
+ * search tree starts a shortest route to the boundary vertex and so into R, and every edge
+ * between two vertices of R is flagged for R. That leaves a shortest route of flagged edges
+ * from any vertex to any vertex of R: outside R, to the boundary vertex where the route
+ * first enters R, and inside R, along the route until it leaves R and then on to where it
+ * comes back. Regions are independent and are flagged in parallel.
+ *
+ * The flags of edge e are the WORDS longs starting at flags[e * WORDS], bit r of the whole
+ * for region r, so the memory they take is fixed at 8 * WORDS bytes per edge whatever the
+ * graph. Like the contraction hierarchy they are computed for one metric, and they are saved
+ * next to the graph's snapshot:
+ * <pre>
+ *   header   magic, version, source length, source last-modified, n, m, regions, metric
+ *   arrays   region int[n], flags long[m * WORDS]
+ *   trailer  CRC32 of everything before it, as a long
+ * </pre>
+ */
+class ArcFlags {
+    /** Suffix appended to the OSM XML path to name the saved flags. */
+    static final String SUFFIX = ".flags";
+    /** Number of regions, 2^REGION_BITS. */
+    private static final int REGION_BITS = 6;
+    static final int REGIONS = 1 << REGION_BITS;
+    /** Longs of flags per edge. */
+    private static final int WORDS = (REGIONS + 63) / 64;
+    private static final int VERSION = 1;
+    private static final int MAGIC = 0x41524346;
+
+    /** The metric whose shortest routes the flags follow. */
+    final Router.Metric metric;
+    private final int[] region;
+    private final long[] flags;
+
+    private ArcFlags(Router.Metric metric, int[] region, long[] flags) {
+        this.metric = metric;
+        this.region = region;
+        this.flags = flags;
+    }
+
+    /**
+     * Partitions g into regions and flags every edge. This runs a Dijkstra search from every
+     * boundary vertex of every region; use load() to reuse the result across server starts.
+     * @param g The graph to preprocess.
+     * @param metric Whether edges cost their length or their travel time.
+     * @return The flags.
+     */
+    static ArcFlags build(GraphDB g, Router.Metric metric) {
+        int[] region = Partition.bisect(g, REGION_BITS);
+        int m = g.edgeCount();
+        int[] reverse = reverseEdges(g);
+        long[] flags = new long[m * WORDS];
+        IntStream.range(0, REGIONS).parallel().forEach(r -> {
+            long[] bits = regionFlags(g, metric, region, reverse, r);
+            synchronized (flags) {
+                for (int e = 0; e < m; e++) {
+                    if ((bits[e >>> 6] & 1L << e) != 0) {
+                        flags[e * WORDS + (r >>> 6)] |= 1L << r;
+                    }
+                }
+            }
+        });
+        return new ArcFlags(metric, region, flags);
+    }
+
+    /** Returns, as a bitset over edges, the edges flagged for region r. */
+    private static long[] regionFlags(GraphDB g, Router.Metric metric, int[] region,
+                                      int[] reverse, int r) {
+        long[] bits = new long[(g.edgeCount() + 63) / 64];
+        for (int b = 0; b < g.size(); b++) {
+            if (region[b] != r) {
+                continue;
+            }
+            boolean isBoundary = false;
+            for (int e = g.edgeStart(b); e < g.edgeEnd(b); e++) {
+                if (region[g.edgeTarget(e)] == r) {
+                    bits[e >>> 6] |= 1L << e;
+                } else {
+                    isBoundary = true;
+                }
+            }
+            if (!isBoundary) {
+                continue;
+            }
+
+            /* the graph is undirected, so a search from b finds the routes into b */
+            SearchState state = SearchState.get(0, g.size());
+            state.reach(b, 0, b, -1);
+            state.fringe.push(b, 0);
+            while (!state.fringe.isEmpty()) {
+                int u = state.fringe.poll();
+                state.settle(u);
+                if (u != b) {
+                    /* the edge from u back toward its parent */
+                    int e = reverse[state.parentEdge(u)];
+                    bits[e >>> 6] |= 1L << e;
+                }
+                for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+                    int v = g.edgeTarget(e);
+                    double newDistToV = state.distTo(u) + g.edgeCost(e, metric);
+                    if (!state.settled(v) && state.distTo(v) > newDistToV) {
+                        state.reach(v, newDistToV, u, e);
+                        state.fringe.push(v, newDistToV);
+                    }
+                }
+            }
+        }
+        return bits;
+    }
+
+    /** Returns for every edge u-v the index of an edge v-u of the same length. */
+    private static int[] reverseEdges(GraphDB g) {
+        int[] reverse = new int[g.edgeCount()];
+        for (int u = 0; u < g.size(); u++) {
+            for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+                int v = g.edgeTarget(e);
+                reverse[e] = -1;
+                for (int f = g.edgeStart(v); f < g.edgeEnd(v) && reverse[e] < 0; f++) {
+                    if (g.edgeTarget(f) == u && g.edgeWeight(f) == g.edgeWeight(e)
+                            && g.edgeSpeed(f) == g.edgeSpeed(e)) {
+                        reverse[e] = f;
+                    }
+                }
+                if (reverse[e] < 0) {
+                    throw new IllegalStateException("Edge " + e + " has no reverse edge");
+                }
+            }
+        }
+        return reverse;
+    }
+
+    /** Returns the region of vertex v. */
+    int regionAt(int v) {
+        return region[v];
+    }
+
+    /**
+     * Returns the flags of the regions holding any of the given vertices, for passing to
+     * allows().
+     */
+    long[] targetMask(int[] targets) {
+        long[] mask = new long[WORDS];
+        for (int t : targets) {
+            mask[region[t] >>> 6] |= 1L << region[t];
+        }
+        return mask;
+    }
+
+    /**
+     * Returns whether edge e starts a shortest route into one of the regions in mask.
+     * @param e The edge.
+     * @param mask The regions, from targetMask().
+     */
+    boolean allows(int e, long[] mask) {
+        int base = e * WORDS;
+        for (int i = 0; i < WORDS; i++) {
+            if ((flags[base + i] & mask[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the suffix appended to the OSM XML path to name the flags for metric. */
+    static String suffix(Router.Metric metric) {
+        return metric == Router.Metric.DISTANCE ? SUFFIX
+                : "." + metric.name().toLowerCase(Locale.ROOT) + SUFFIX;
+    }
+
+    /**
+     * Returns the flags for the graph of an OSM XML file, reading them from the file next to
+     * the XML when that is present and up to date, and otherwise building them and saving
+     * them for the next start.
+     * @param g The graph loaded from dbPath.
+     * @param dbPath Path to the OSM XML file.
+     * @param metric Whether edges cost their length or their travel time.
+     * @return The flags.
+     */
+    static ArcFlags load(GraphDB g, String dbPath, Router.Metric metric) {
+        return GraphSnapshot.loadOrBuild(dbPath, suffix(metric),
+                (file, source) -> read(g, file, source), flags -> flags.metric == metric,
+                () -> build(g, metric), ArcFlags::write);
+    }
+
+    /**
+     * Writes the flags to file with GraphSnapshot.write().
+     * @param arcFlags The flags to save.
+     * @param file The file to write.
+     * @param source The OSM XML file the graph was built from, recorded to detect staleness.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(ArcFlags arcFlags, File file, File source) throws IOException {
+        GraphSnapshot.write(file, MAGIC, VERSION, source, out -> {
+            out.writeInt(arcFlags.region.length);
+            out.writeInt(arcFlags.flags.length / WORDS);
+            out.writeInt(REGIONS);
+            out.writeInt(arcFlags.metric.ordinal());
+
+            out.writeInts(arcFlags.region);
+            out.writeLongs(arcFlags.flags);
+        });
+    }
+
+    /**
+     * Reads saved flags for g.
+     * @param g The graph the flags were built for.
+     * @param file The file to read.
+     * @param source The OSM XML file g was built from.
+     * @return The flags, or null if the file is missing, stale, does not match the size of
+     *         g or the number of regions, or fails validation.
+     */
+    static ArcFlags read(GraphDB g, File file, File source) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            GraphSnapshot.Input in = new GraphSnapshot.Input(channel);
+            if (!GraphSnapshot.readHeader(in, MAGIC, VERSION, source)) {
+                return null;
+            }
+            int n = in.readInt();
+            int m = in.readInt();
+            int regions = in.readInt();
+            int metric = in.readInt();
+            if (n != g.size() || m != g.edgeCount() || regions != REGIONS || metric < 0
+                    || metric >= Router.Metric.values().length
+                    || 4L * n + 8L * m * WORDS > channel.size()) {
+                return null;
+            }
+
+            int[] region = in.readInts(n);
+            long[] flags = in.readLongs(m * WORDS);
+            if (!in.checksumMatches()) {
+                return null;
+            }
+            return new ArcFlags(Router.Metric.values()[metric], region, flags);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Routes many start/end pairs concurrently, for offline jobs such as route audits and
+ * replaying recorded requests, which would otherwise find one route at a time on one thread.
+ *
+ * Routes are found on a ForkJoinPool with a fixed number of workers. Each worker searches in
+ * its own pooled SearchState, so after its first route a worker allocates no more search
+ * arrays however many routes it finds. Results are handed to the caller in the order the
+ * pairs were given, as soon as each one and all before it are done. At most WINDOW routes per
+ * worker are in flight or waiting to be handed over, so a batch of any size needs memory for
+ * a bounded number of routes.
+ */
+class BatchRouter implements AutoCloseable {
+    /** Routes queued or waiting to be handed over, per worker. */
+    private static final int WINDOW = 4;
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    /**
+     * Creates a router with its own pool of workers.
+     * @param parallelism The number of routes found at once.
+     */
+    BatchRouter(int parallelism) {
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Finds the route between each pair of points, as Router.findRoute would, handing each
+     * to results in order. options.budget applies to each route, and cancelling it stops
+     * the rest of the batch.
+     * @param g The graph.
+     * @param stlons The longitudes of the starts.
+     * @param stlats The latitudes of the starts.
+     * @param destlons The longitudes of the destinations.
+     * @param destlats The latitudes of the destinations.
+     * @param options The routing options, used for every pair.
+     * @param results Called in the calling thread with the route of pair 0, then pair 1, and
+     *                so on.
+     */
+    void route(GraphDB g, double[] stlons, double[] stlats, double[] destlons,
+               double[] destlats, Router.RouteOptions options,
+               Consumer<Router.RouteResult> results) {
+        int n = stlons.length;
+        int window = parallelism * WINDOW;
+        Deque<CompletableFuture<Router.RouteResult>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < n || !pending.isEmpty()) {
+                while (next < n && pending.size() < window) {
+                    int i = next++;
+                    pending.add(CompletableFuture.supplyAsync(() -> Router.findRoute(g,
+                            stlons[i], stlats[i], destlons[i], destlats[i], options), pool));
+                }
+                results.accept(pending.poll().join());
+            }
+        } finally {
+            /* after a failure, don't leave the rest of the window running */
+            for (CompletableFuture<Router.RouteResult> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /** Like route(g, stlons, stlats, destlons, destlats, options, results), collecting them. */
+    List<Router.RouteResult> route(GraphDB g, double[] stlons, double[] stlats,
+                                   double[] destlons, double[] destlats,
+                                   Router.RouteOptions options) {
+        List<Router.RouteResult> routes = new ArrayList<>(stlons.length);
+        route(g, stlons, stlats, destlons, destlats, options, routes::add);
+        return routes;
+    }
+
+    /** Stops the workers once the routes already queued are found. */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Bidirectional A* between a set of sources and a set of targets, searching forward from the
+ * sources and backward from the targets at the same time. Both searches use the average
+ * potential pf(v) = (ht(v) - hs(v)) / 2 and pr(v) = -pf(v), where hs and ht are the
+ * great-circle distances from v to the start and end points. Both potentials are consistent
+ * and sum to zero, so each search is Dijkstra's algorithm on the same reduced graph, and the
+ * searches can stop as soon as the sum of their smallest keys reaches the best route found.
+ * For fastest routes the potentials are divided by the highest speed limit, which keeps them
+ * consistent with travel times. The graph is undirected, so the backward search follows the
+ * same edges as the forward one.
+ */
+class BidirectionalAStar {
+    private final GraphDB g;
+    private final Router.Metric metric;
+    private final TrafficOverlay.Snapshot traffic;
+    private final double perMile;
+    private final double sLon;
+    private final double sLat;
+    private final double tLon;
+    private final double tLat;
+    private final Side forward;
+    private final Side backward;
+    private final SearchBudget budget;
+    private int settledCount = 0;
+
+    /** Cost of the best route found so far, and the vertex where its two halves meet. */
+    private double bestCost = Double.MAX_VALUE;
+    private int meeting = -1;
+
+    private BidirectionalAStar(GraphDB g, Router.Metric metric,
+                               TrafficOverlay.Snapshot traffic, double sLon, double sLat,
+                               double tLon, double tLat, SearchBudget budget) {
+        this.g = g;
+        this.metric = metric;
+        this.traffic = traffic;
+        this.perMile = Router.costPerMile(g, metric);
+        this.sLon = sLon;
+        this.sLat = sLat;
+        this.tLon = tLon;
+        this.tLat = tLat;
+        this.budget = budget;
+        this.forward = new Side(SearchState.get(0, g.size()), 1);
+        this.backward = new Side(SearchState.get(1, g.size()), -1);
+    }
+
+    /**
+     * Same contract as the unidirectional search in Router: each source starts with the given
+     * cost, and reaching a target completes the route at that target's extra cost.
+     * @param metric Whether edges cost their length or their travel time.
+     * @param traffic The speeds to route with, or null for the speed limits.
+     * @param sLon The longitude of the start point the sources were chosen for.
+     * @param sLat The latitude of the start point.
+     * @param tLon The longitude of the end point the targets were chosen for.
+     * @param tLat The latitude of the end point.
+     * @param budget The limits on the vertices both searches settle between them and on
+     *               their time; SearchBudget.Exhausted is thrown when they run out.
+     * @return The node ids of the best route, or an empty list if no target is reachable.
+     */
+    static List<Long> search(GraphDB g, Router.Metric metric,
+                             TrafficOverlay.Snapshot traffic, int[] sources,
+                             double[] sourceCosts, int[] targets, double[] targetCosts,
+                             double sLon, double sLat, double tLon, double tLat,
+                             SearchBudget budget) {
+        BidirectionalAStar search = new BidirectionalAStar(g, metric, traffic, sLon, sLat,
+                tLon, tLat, budget);
+        for (int i = 0; i < sources.length; i++) {
+            search.seed(search.forward, search.backward, sources[i], sourceCosts[i]);
+        }
+        for (int i = 0; i < targets.length; i++) {
+            search.seed(search.backward, search.forward, targets[i], targetCosts[i]);
+        }
+        search.run();
+        return search.route();
+    }
+
+    private void seed(Side side, Side other, int v, double cost) {
+        if (cost < side.state.distTo(v)) {
+            side.state.reach(v, cost, v, -1);
+            side.fringe.push(v, cost + side.sign * potential(v));
+            meet(v, cost + other.state.distTo(v));
+        }
+    }
+
+    private void run() {
+        while (!forward.fringe.isEmpty() && !backward.fringe.isEmpty()) {
+            if (forward.fringe.peekKey() + backward.fringe.peekKey() >= bestCost) {
+                return;
+            }
+            if (forward.fringe.peekKey() <= backward.fringe.peekKey()) {
+                settleNext(forward, backward);
+            } else {
+                settleNext(backward, forward);
+            }
+        }
+    }
+
+    /** Settles the vertex at the top of side's fringe and relaxes its edges. */
+    private void settleNext(Side side, Side other) {
+        int u = side.fringe.poll();
+        if (side.state.settled(u)) {
+            return;
+        }
+        side.state.settle(u);
+        budget.check(++settledCount);
+        double distToU = side.state.distTo(u);
+        for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+            int v = g.edgeTarget(e);
+            double newDistToV = distToU + Router.edgeCost(g, traffic, e, metric);
+            if (side.state.distTo(v) > newDistToV) {
+                side.state.reach(v, newDistToV, u, e);
+                side.fringe.push(v, newDistToV + side.sign * potential(v));
+                meet(v, newDistToV + other.state.distTo(v));
+            }
+        }
+    }
+
+    private void meet(int v, double cost) {
+        if (cost < bestCost) {
+            bestCost = cost;
+            meeting = v;
+        }
+    }
+
+    /** Returns pf(v), cached in the forward workspace the first time either side needs it. */
+    private double potential(int v) {
+        if (!forward.state.cached(v)) {
+            double lon = g.lonAt(v);
+            double lat = g.latAt(v);
+            forward.state.setCache(v, (GraphDB.distance(lon, lat, tLon, tLat)
+                    - GraphDB.distance(lon, lat, sLon, sLat)) / 2 * perMile);
+        }
+        return forward.state.cache(v);
+    }
+
+    /** Joins the forward half ending at the meeting vertex to the backward half leaving it. */
+    private List<Long> route() {
+        LinkedList<Long> route = new LinkedList<>();
+        if (meeting == -1) {
+            return route;
+        }
+        int v = meeting;
+        while (forward.state.edgeTo(v) != v) {
+            route.addFirst(g.idAt(v));
+            v = forward.state.edgeTo(v);
+        }
+        route.addFirst(g.idAt(v));
+        v = meeting;
+        while (backward.state.edgeTo(v) != v) {
+            v = backward.state.edgeTo(v);
+            route.addLast(g.idAt(v));
+        }
+        return route;
+    }
+
+    /** One of the two searches, running in its own pooled workspace. */
+    private static class Side {
+        private final SearchState state;
+        private final IndexedMinHeap fringe;
+        /** +1 if this side's potential is pf, -1 if it is pr. */
+        private final int sign;
+
+        Side(SearchState state, int sign) {
+            this.state = state;
+            this.fringe = state.fringe;
+            this.sign = sign;
+        }
+    }
+}
@@ -0,0 +1,647 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction hierarchy over a GraphDB. Preprocessing contracts the vertices one at a time in
+ * order of importance; contracting v removes it from the remaining graph and adds a shortcut
+ * u-w for every pair of its neighbors whose only shortest connection ran through v. The
+ * rank of a vertex is its position in that order.
+ *
+ * Every shortest path then has a counterpart of equal length that only climbs in rank and
+ * then only descends, so a query is two small Dijkstra searches over the upward edges, one
+ * from each end, meeting at the highest vertex of the route. Shortcuts remember the vertex
+ * they bypass and are unpacked back into the original vertex sequence, so routes look
+ * exactly like those of the other searches.
+ *
+ * The graph is undirected, so one upward adjacency in CSR form serves both searches: the
+ * upward edges of v are upTargets[upOffsets[v]] .. upTargets[upOffsets[v + 1] - 1], with
+ * lengths upWeights and bypassed vertices upMiddles (-1 for an original road segment).
+ * A hierarchy is built for one metric: upWeights are lengths for shortest routes and travel
+ * times for fastest ones.
+ *
+ * The hierarchy is saved next to the graph's snapshot, so it is only built once:
+ * <pre>
+ *   header   magic, version, source length, source last-modified, n, m, u, metric ordinal
+ *   arrays   rank int[n], upOffsets int[n + 1], upTargets int[u], upWeights double[u],
+ *            upMiddles int[u]
+ *   trailer  CRC32 of everything before it, as a long
+ * </pre>
+ */
+class ContractionHierarchy {
+    /** Suffix appended to the OSM XML path to name the saved hierarchy. */
+    static final String SUFFIX = ".ch";
+    private static final int VERSION = 1;
+    private static final int MAGIC = 0x43484945;
+    /** Witness searches give up after settling this many vertices and add the shortcut. */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final GraphDB g;
+    /** The metric whose edge costs the hierarchy was contracted with. */
+    final Router.Metric metric;
+    final int[] rank;
+    final int[] upOffsets;
+    final int[] upTargets;
+    final double[] upWeights;
+    final int[] upMiddles;
+
+    private ContractionHierarchy(GraphDB g, Router.Metric metric, int[] rank, int[] upOffsets,
+                                 int[] upTargets, double[] upWeights, int[] upMiddles) {
+        this.g = g;
+        this.metric = metric;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+    }
+
+    /**
+     * Contracts every vertex of g. This takes a while on a large graph; use load() to reuse
+     * the result across server starts.
+     * @param g The graph to preprocess.
+     * @param metric Whether edges cost their length or their travel time.
+     * @return The hierarchy.
+     */
+    static ContractionHierarchy build(GraphDB g, Router.Metric metric) {
+        return new Builder(g, metric).contract();
+    }
+
+    /** Returns the suffix appended to the OSM XML path to name the hierarchy for metric. */
+    static String suffix(Router.Metric metric) {
+        return metric == Router.Metric.DISTANCE ? SUFFIX
+                : "." + metric.name().toLowerCase(Locale.ROOT) + SUFFIX;
+    }
+
+    /**
+     * Returns the hierarchy for the graph of an OSM XML file, reading it from the file next
+     * to the XML when that is present and up to date, and otherwise building it and saving
+     * it for the next start.
+     * @param g The graph loaded from dbPath.
+     * @param dbPath Path to the OSM XML file.
+     * @param metric Whether edges cost their length or their travel time.
+     * @return The hierarchy.
+     */
+    static ContractionHierarchy load(GraphDB g, String dbPath, Router.Metric metric) {
+        return GraphSnapshot.loadOrBuild(dbPath, suffix(metric),
+                (file, source) -> read(g, file, source), ch -> ch.metric == metric,
+                () -> build(g, metric), ContractionHierarchy::write);
+    }
+
+    /**
+     * Writes the hierarchy to file with GraphSnapshot.write().
+     * @param ch The hierarchy to save.
+     * @param file The file to write.
+     * @param source The OSM XML file the graph was built from, recorded to detect staleness.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(ContractionHierarchy ch, File file, File source) throws IOException {
+        GraphSnapshot.write(file, MAGIC, VERSION, source, out -> {
+            out.writeInt(ch.rank.length);
+            out.writeInt(ch.g.edgeCount());
+            out.writeInt(ch.upTargets.length);
+            out.writeInt(ch.metric.ordinal());
+
+            out.writeInts(ch.rank);
+            out.writeInts(ch.upOffsets);
+            out.writeInts(ch.upTargets);
+            out.writeDoubles(ch.upWeights);
+            out.writeInts(ch.upMiddles);
+        });
+    }
+
+    /**
+     * Reads a saved hierarchy for g.
+     * @param g The graph the hierarchy was built for.
+     * @param file The file to read.
+     * @param source The OSM XML file g was built from.
+     * @return The hierarchy, or null if the file is missing, stale, does not match the size
+     *         of g, or fails validation.
+     */
+    static ContractionHierarchy read(GraphDB g, File file, File source) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            GraphSnapshot.Input in = new GraphSnapshot.Input(channel);
+            if (!GraphSnapshot.readHeader(in, MAGIC, VERSION, source)) {
+                return null;
+            }
+            int n = in.readInt();
+            int m = in.readInt();
+            int u = in.readInt();
+            int metric = in.readInt();
+            if (n != g.size() || m != g.edgeCount() || u < 0 || metric < 0
+                    || metric >= Router.Metric.values().length
+                    || 8L * n + 16L * u > channel.size()) {
+                return null;
+            }
+
+            int[] rank = in.readInts(n);
+            int[] upOffsets = in.readInts(n + 1);
+            int[] upTargets = in.readInts(u);
+            double[] upWeights = in.readDoubles(u);
+            int[] upMiddles = in.readInts(u);
+            if (!in.checksumMatches()) {
+                return null;
+            }
+            return new ContractionHierarchy(g, Router.Metric.values()[metric], rank, upOffsets,
+                    upTargets, upWeights, upMiddles);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Finds a shortest route from a set of sources to a set of targets, with the same
+     * contract as the searches in Router: each source starts with the given cost, and
+     * reaching a target completes the route at that target's extra cost. Throws
+     * SearchBudget.Exhausted if the two upward searches run out of budget between them.
+     * @return The node ids of the best route, or an empty list if no target is reachable.
+     */
+    List<Long> search(int[] sources, double[] sourceCosts, int[] targets,
+                      double[] targetCosts, SearchBudget budget) {
+        Side forward = new Side(SearchState.get(0, rank.length));
+        Side backward = new Side(SearchState.get(1, rank.length));
+        forward.seed(sources, sourceCosts);
+        backward.seed(targets, targetCosts);
+
+        int meeting = -1;
+        double bestCost = Double.MAX_VALUE;
+        int settledCount = 0;
+        while (!forward.done || !backward.done) {
+            Side side = backward.done || !forward.done
+                    && forward.topValue() <= backward.topValue() ? forward : backward;
+            Side other = side == forward ? backward : forward;
+            if (side.topValue() >= bestCost) {
+                side.done = true;
+                continue;
+            }
+            int u = side.fringe.poll();
+            budget.check(++settledCount);
+            double distToU = side.state.distTo(u);
+            if (distToU + other.state.distTo(u) < bestCost) {
+                bestCost = distToU + other.state.distTo(u);
+                meeting = u;
+            }
+            if (stalled(side, u)) {
+                continue;
+            }
+            for (int e = upOffsets[u]; e < upOffsets[u + 1]; e++) {
+                int v = upTargets[e];
+                double newDistToV = distToU + upWeights[e];
+                if (side.state.distTo(v) > newDistToV) {
+                    side.state.reach(v, newDistToV, u, e);
+                    side.fringe.push(v, newDistToV);
+                }
+            }
+        }
+
+        LinkedList<Long> route = new LinkedList<>();
+        if (meeting == -1) {
+            return route;
+        }
+        /* the vertices of the upward route, and the upward edge between each pair */
+        LinkedList<Integer> path = new LinkedList<>();
+        LinkedList<Integer> edges = new LinkedList<>();
+        int v = meeting;
+        while (forward.state.edgeTo(v) != v) {
+            path.addFirst(v);
+            edges.addFirst(forward.state.parentEdge(v));
+            v = forward.state.edgeTo(v);
+        }
+        path.addFirst(v);
+        v = meeting;
+        while (backward.state.edgeTo(v) != v) {
+            edges.addLast(backward.state.parentEdge(v));
+            v = backward.state.edgeTo(v);
+            path.addLast(v);
+        }
+
+        int from = path.removeFirst();
+        route.add(g.idAt(from));
+        for (int e : edges) {
+            int to = path.removeFirst();
+            unpack(from, to, e, route);
+            from = to;
+        }
+        return route;
+    }
+
+    /**
+     * Returns the cost from each origin to each destination, with a bucket search: the upward
+     * search space of every destination is stored in buckets at the vertices it settles, and
+     * the upward search from each origin combines its own distances with the buckets of the
+     * vertices it settles. Both kinds of search run in parallel, and each checks budget as it
+     * settles vertices.
+     * @return The cost from origin i to destination j at [i][j], or
+     *         Double.POSITIVE_INFINITY if there is no route.
+     * @throws SearchBudget.Exhausted If any search runs out of budget.
+     */
+    double[][] matrix(Router.Endpoint[] origins, Router.Endpoint[] dests,
+                      SearchBudget budget) {
+        int n = rank.length;
+        SearchSpace[] destSpaces = new SearchSpace[dests.length];
+        IntStream.range(0, dests.length).parallel().forEach(j ->
+                destSpaces[j] = searchSpace(dests[j].vertices, dests[j].costs, budget));
+
+        /* the buckets in CSR form: entries for vertex v at bucketStart[v] .. [v + 1] - 1 */
+        int[] bucketStart = new int[n + 1];
+        for (SearchSpace space : destSpaces) {
+            for (int k = 0; k < space.size; k++) {
+                bucketStart[space.vertices[k] + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            bucketStart[v + 1] += bucketStart[v];
+        }
+        int[] bucketDests = new int[bucketStart[n]];
+        double[] bucketCosts = new double[bucketStart[n]];
+        int[] fill = Arrays.copyOf(bucketStart, n);
+        for (int j = 0; j < destSpaces.length; j++) {
+            SearchSpace space = destSpaces[j];
+            for (int k = 0; k < space.size; k++) {
+                int entry = fill[space.vertices[k]]++;
+                bucketDests[entry] = j;
+                bucketCosts[entry] = space.costs[k];
+            }
+        }
+
+        double[][] matrix = new double[origins.length][];
+        IntStream.range(0, origins.length).parallel().forEach(i -> {
+            double[] row = new double[dests.length];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            SearchSpace space = searchSpace(origins[i].vertices, origins[i].costs, budget);
+            for (int k = 0; k < space.size; k++) {
+                int v = space.vertices[k];
+                for (int entry = bucketStart[v]; entry < bucketStart[v + 1]; entry++) {
+                    int j = bucketDests[entry];
+                    row[j] = Math.min(row[j], space.costs[k] + bucketCosts[entry]);
+                }
+            }
+            matrix[i] = row;
+        });
+        return matrix;
+    }
+
+    /**
+     * Runs an upward search from the given vertices to exhaustion and returns the vertices
+     * it settles, with their distances. Stalled vertices are left out: their distances are
+     * too long, so no shortest route meets there. Throws SearchBudget.Exhausted if the search
+     * runs out of budget.
+     */
+    private SearchSpace searchSpace(int[] vertices, double[] costs, SearchBudget budget) {
+        Side side = new Side(SearchState.get(0, rank.length));
+        side.seed(vertices, costs);
+        SearchSpace space = new SearchSpace();
+        int settledCount = 0;
+        while (!side.fringe.isEmpty()) {
+            int u = side.fringe.poll();
+            budget.check(++settledCount);
+            if (stalled(side, u)) {
+                continue;
+            }
+            double distToU = side.state.distTo(u);
+            space.add(u, distToU);
+            for (int e = upOffsets[u]; e < upOffsets[u + 1]; e++) {
+                int v = upTargets[e];
+                double newDistToV = distToU + upWeights[e];
+                if (side.state.distTo(v) > newDistToV) {
+                    side.state.reach(v, newDistToV, u, e);
+                    side.fringe.push(v, newDistToV);
+                }
+            }
+        }
+        return space;
+    }
+
+    /**
+     * Stall-on-demand: whether a higher neighbor of u already offers a shorter way to u than
+     * the upward search found. Then u lies on no shortest upward path and its edges need not
+     * be relaxed. Edges are undirected, so the higher neighbors are the upward edges of u.
+     */
+    private boolean stalled(Side side, int u) {
+        for (int e = upOffsets[u]; e < upOffsets[u + 1]; e++) {
+            if (side.state.distTo(upTargets[e]) + upWeights[e] < side.state.distTo(u)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends to route the original vertices after from up to and including to, where e is
+     * the upward edge joining from and to.
+     */
+    private void unpack(int from, int to, int e, LinkedList<Long> route) {
+        int middle = upMiddles[e];
+        if (middle == -1) {
+            route.addLast(g.idAt(to));
+            return;
+        }
+        /* the bypassed vertex was contracted before both ends, so it owns both halves */
+        unpack(from, middle, upEdge(middle, from), route);
+        unpack(middle, to, upEdge(middle, to), route);
+    }
+
+    /** Returns the upward edge from v to w. */
+    private int upEdge(int v, int w) {
+        for (int e = upOffsets[v]; e < upOffsets[v + 1]; e++) {
+            if (upTargets[e] == w) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("No upward edge from " + v + " to " + w);
+    }
+
+    /** The vertices settled by an upward search and their distances, in settling order. */
+    private static class SearchSpace {
+        private int[] vertices = new int[16];
+        private double[] costs = new double[16];
+        private int size;
+
+        void add(int v, double cost) {
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                costs = Arrays.copyOf(costs, size * 2);
+            }
+            vertices[size] = v;
+            costs[size] = cost;
+            size++;
+        }
+    }
+
+    /** One of the two upward searches, running in its own pooled workspace. */
+    private static class Side {
+        private final SearchState state;
+        private final IndexedMinHeap fringe;
+        private boolean done;
+
+        Side(SearchState state) {
+            this.state = state;
+            this.fringe = state.fringe;
+        }
+
+        void seed(int[] vertices, double[] costs) {
+            for (int i = 0; i < vertices.length; i++) {
+                int v = vertices[i];
+                if (costs[i] < state.distTo(v)) {
+                    state.reach(v, costs[i], v, -1);
+                    fringe.push(v, costs[i]);
+                }
+            }
+            done = fringe.isEmpty();
+        }
+
+        double topValue() {
+            return fringe.isEmpty() ? Double.MAX_VALUE : fringe.peekKey();
+        }
+    }
+
+    /**
+     * Contracts the vertices in order of importance, lazily updated: the vertex at the top
+     * of the queue has its importance recomputed and is only contracted if it is unchanged.
+     * The importance of v is twice its edge difference (the shortcuts contracting it would
+     * add, minus the edges it would remove), plus its number of already contracted
+     * neighbors and its depth in the hierarchy, which spread contraction evenly over the map.
+     */
+    private static class Builder {
+        private final GraphDB g;
+        private final Router.Metric metric;
+        private final int n;
+        /** Remaining graph: neighbors, edge costs and bypassed vertices of each vertex. */
+        private final int[][] neighbors;
+        private final double[][] lengths;
+        private final int[][] middles;
+        private final int[] degree;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        private final int[] depth;
+        private final int[] importance;
+
+        /** Witness search scratch space, reset after each search. */
+        private final double[] witnessDist;
+        private final int[] touched;
+        private int touchedCount;
+        private final IndexedMinHeap witnessFringe;
+        /** The neighbors a witness search still has to settle carry the current stamp. */
+        private final int[] witnessTarget;
+        private int witnessStamp;
+
+        /** Upward edges of each vertex, fixed when it is contracted. */
+        private final int[][] upNeighbors;
+        private final double[][] upLengths;
+        private final int[][] upMiddles;
+
+        Builder(GraphDB g, Router.Metric metric) {
+            this.g = g;
+            this.metric = metric;
+            this.n = g.size();
+            neighbors = new int[n][];
+            lengths = new double[n][];
+            middles = new int[n][];
+            degree = new int[n];
+            for (int v = 0; v < n; v++) {
+                int size = g.edgeEnd(v) - g.edgeStart(v);
+                neighbors[v] = new int[Math.max(size, 1)];
+                lengths[v] = new double[Math.max(size, 1)];
+                middles[v] = new int[Math.max(size, 1)];
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                    addEdge(v, g.edgeTarget(e), g.edgeCost(e, metric), -1);
+                }
+            }
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            depth = new int[n];
+            importance = new int[n];
+            witnessDist = new double[n];
+            Arrays.fill(witnessDist, Double.MAX_VALUE);
+            touched = new int[n];
+            witnessFringe = new IndexedMinHeap(n);
+            witnessTarget = new int[n];
+            upNeighbors = new int[n][];
+            upLengths = new double[n][];
+            upMiddles = new int[n][];
+        }
+
+        ContractionHierarchy contract() {
+            IndexedMinHeap queue = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                importance[v] = importance(v);
+                queue.push(v, importance[v]);
+            }
+
+            int[] rank = new int[n];
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.peek();
+                int current = importance(v);
+                if (current != importance[v]) {
+                    importance[v] = current;
+                    queue.push(v, current);
+                    continue;
+                }
+                queue.poll();
+
+                /* the remaining neighbors of v are exactly its upward edges */
+                compact(v);
+                upNeighbors[v] = Arrays.copyOf(neighbors[v], degree[v]);
+                upLengths[v] = Arrays.copyOf(lengths[v], degree[v]);
+                upMiddles[v] = Arrays.copyOf(middles[v], degree[v]);
+                shortcuts(v, true);
+                contracted[v] = true;
+                rank[v] = next++;
+
+                for (int u : upNeighbors[v]) {
+                    contractedNeighbors[u]++;
+                    depth[u] = Math.max(depth[u], depth[v] + 1);
+                }
+                neighbors[v] = null;
+                lengths[v] = null;
+                middles[v] = null;
+            }
+            return toHierarchy(rank);
+        }
+
+        private ContractionHierarchy toHierarchy(int[] rank) {
+            int[] upOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                upOffsets[v + 1] = upOffsets[v] + upNeighbors[v].length;
+            }
+            int[] targets = new int[upOffsets[n]];
+            double[] weights = new double[upOffsets[n]];
+            int[] bypassed = new int[upOffsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upNeighbors[v], 0, targets, upOffsets[v], upNeighbors[v].length);
+                System.arraycopy(upLengths[v], 0, weights, upOffsets[v], upLengths[v].length);
+                System.arraycopy(upMiddles[v], 0, bypassed, upOffsets[v], upMiddles[v].length);
+            }
+            return new ContractionHierarchy(g, metric, rank, upOffsets, targets, weights,
+                    bypassed);
+        }
+
+        private int importance(int v) {
+            compact(v);
+            int edgeDifference = shortcuts(v, false) - degree[v];
+            return 2 * edgeDifference + contractedNeighbors[v] + depth[v];
+        }
+
+        /**
+         * Counts the shortcuts needed to contract v, adding them to the remaining graph if
+         * apply is set. A shortcut u-w is needed unless a witness search from u, avoiding v,
+         * reaches w at most as far as the route through v.
+         */
+        private int shortcuts(int v, boolean apply) {
+            int count = 0;
+            int k = degree[v];
+            for (int i = 0; i < k - 1; i++) {
+                int u = neighbors[v][i];
+                double maxCost = 0;
+                int remaining = 0;
+                witnessStamp++;
+                for (int j = i + 1; j < k; j++) {
+                    maxCost = Math.max(maxCost, lengths[v][i] + lengths[v][j]);
+                    if (witnessTarget[neighbors[v][j]] != witnessStamp) {
+                        witnessTarget[neighbors[v][j]] = witnessStamp;
+                        remaining++;
+                    }
+                }
+                witness(u, v, maxCost, remaining);
+                for (int j = i + 1; j < k; j++) {
+                    int w = neighbors[v][j];
+                    double cost = lengths[v][i] + lengths[v][j];
+                    if (witnessDist[w] > cost) {
+                        count++;
+                        if (apply) {
+                            addEdge(u, w, cost, v);
+                            addEdge(w, u, cost, v);
+                        }
+                    }
+                }
+                for (int t = 0; t < touchedCount; t++) {
+                    witnessDist[touched[t]] = Double.MAX_VALUE;
+                }
+                touchedCount = 0;
+            }
+            return count;
+        }
+
+        /**
+         * Dijkstra from source over the remaining graph without avoid, up to maxCost or until
+         * the remaining vertices marked with the current witnessStamp are all settled.
+         */
+        private void witness(int source, int avoid, double maxCost, int remaining) {
+            witnessDist[source] = 0;
+            touched[touchedCount++] = source;
+            witnessFringe.push(source, 0);
+            int settled = 0;
+            while (!witnessFringe.isEmpty()) {
+                int u = witnessFringe.poll();
+                if (witnessDist[u] > maxCost || ++settled > WITNESS_SETTLE_LIMIT) {
+                    break;
+                }
+                if (witnessTarget[u] == witnessStamp && --remaining == 0) {
+                    break;
+                }
+                for (int i = 0; i < degree[u]; i++) {
+                    int w = neighbors[u][i];
+                    if (w == avoid || contracted[w]) {
+                        continue;
+                    }
+                    double newDist = witnessDist[u] + lengths[u][i];
+                    if (newDist < witnessDist[w]) {
+                        if (witnessDist[w] == Double.MAX_VALUE) {
+                            touched[touchedCount++] = w;
+                        }
+                        witnessDist[w] = newDist;
+                        witnessFringe.push(w, newDist);
+                    }
+                }
+            }
+            witnessFringe.clear();
+        }
+
+        /** Adds the edge v-w, or shortens the existing one if the new length is smaller. */
+        private void addEdge(int v, int w, double length, int middle) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (neighbors[v][i] == w) {
+                    if (length < lengths[v][i]) {
+                        lengths[v][i] = length;
+                        middles[v][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[v] == neighbors[v].length) {
+                neighbors[v] = Arrays.copyOf(neighbors[v], 2 * degree[v]);
+                lengths[v] = Arrays.copyOf(lengths[v], 2 * degree[v]);
+                middles[v] = Arrays.copyOf(middles[v], 2 * degree[v]);
+            }
+            neighbors[v][degree[v]] = w;
+            lengths[v][degree[v]] = length;
+            middles[v][degree[v]] = middle;
+            degree[v]++;
+        }
+
+        /** Drops the edges from v to contracted vertices. */
+        private void compact(int v) {
+            int kept = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                if (!contracted[neighbors[v][i]]) {
+                    neighbors[v][kept] = neighbors[v][i];
+                    lengths[v][kept] = lengths[v][i];
+                    middles[v][kept] = middles[v][i];
+                    kept++;
+                }
+            }
+            degree[v] = kept;
+        }
+    }
+}
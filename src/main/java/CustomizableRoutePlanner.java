@@ -0,0 +1,508 @@
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Customizable route planning over a GraphDB: a multi-level overlay whose preprocessing is
+ * split into a part that depends only on the road network and a fast part that depends on
+ * the edge costs, so closures and changing speeds can be applied in seconds.
+ *
+ * The metric-independent part partitions the vertices into nested cells. Recursive median
+ * bisection along the wider side of each part gives level-1 cells of about CELL_SIZE
+ * vertices, and each level above merges 2^LEVEL_BITS cells of the level below. A vertex is
+ * a boundary vertex of level l if one of its road segments leads into another level-l cell;
+ * boundaries are nested, since a segment between two cells of level l also joins two cells
+ * of every level below.
+ *
+ * Customization computes, for every cell of every level, the clique of shortest costs
+ * between its boundary vertices that stay inside the cell. Level 1 is searched on the road
+ * graph, and level l on the overlay of level l - 1 (the cliques of the cells inside, joined
+ * by the segments between them), so each level is cheap once the one below is done. Cells
+ * are independent and are customized in parallel; update() redoes only the cells that
+ * contain changed edges.
+ *
+ * A query is bidirectional Dijkstra on a graph that depends on the two ends: at a vertex
+ * whose level-l cell holds neither end, but whose level-(l + 1) cell does, the search takes
+ * the clique of that level-l cell and the segments leaving it instead of the road segments
+ * inside. Routes are unpacked back into road vertices by searching each clique hop's cell
+ * one level down.
+ */
+class CustomizableRoutePlanner {
+    /** Most vertices in a level-1 cell. */
+    static final int CELL_SIZE = 128;
+    /** Each level's cells are made of 2^LEVEL_BITS cells of the level below. */
+    private static final int LEVEL_BITS = 3;
+    /** Most overlay levels above the road graph. */
+    private static final int MAX_LEVELS = 4;
+
+    private final GraphDB g;
+    /** Number of overlay levels; level 0 is the road graph itself. */
+    final int levels;
+    /** The bisection path of each vertex; its level-l cell is code >>> (l - 1) * LEVEL_BITS. */
+    private final int[] code;
+    /**
+     * The boundary vertices of level l grouped by cell: those of cell c are
+     * boundary[l][cellStart[l][c]] .. boundary[l][cellStart[l][c + 1] - 1].
+     */
+    private final int[][] cellStart;
+    private final int[][] boundary;
+    /** Position of each vertex among its level-l cell's boundary vertices, or -1. */
+    private final int[][] boundaryPos;
+    /** Offset of each level-l cell's clique, a k * k row-major matrix, in the clique array. */
+    private final int[][] cliqueStart;
+    /** The vertex each edge leaves, for finding the cells a changed edge lies in. */
+    private final int[] edgeSources;
+    /** Customizations for Router metrics, indexed by ordinal. */
+    private final Customization[] customizations =
+            new Customization[Router.Metric.values().length];
+    /** The customization for the newest traffic snapshot asked for, or null. */
+    private volatile TrafficCustomization trafficCustomization;
+    private final Object trafficLock = new Object();
+
+    private CustomizableRoutePlanner(GraphDB g, int levels, int[] code) {
+        this.g = g;
+        this.levels = levels;
+        this.code = code;
+        cellStart = new int[levels + 1][];
+        boundary = new int[levels + 1][];
+        boundaryPos = new int[levels + 1][];
+        cliqueStart = new int[levels + 1][];
+        for (int l = 1; l <= levels; l++) {
+            findBoundary(l);
+        }
+        edgeSources = new int[g.edgeCount()];
+        for (int v = 0; v < g.size(); v++) {
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                edgeSources[e] = v;
+            }
+        }
+    }
+
+    /**
+     * Partitions g and finds the boundary vertices of every cell, which is all the
+     * preprocessing that does not depend on edge costs.
+     */
+    static CustomizableRoutePlanner build(GraphDB g) {
+        int n = g.size();
+        int depth = 0;
+        while (depth < 30 && (long) CELL_SIZE << depth < n) {
+            depth++;
+        }
+        int levels = 0;
+        while (levels < MAX_LEVELS && depth - levels * LEVEL_BITS >= 1) {
+            levels++;
+        }
+        int[] code = Partition.bisect(g, depth);
+        return new CustomizableRoutePlanner(g, levels, code);
+    }
+
+    /** Returns the level-l cell of v, for l >= 1. */
+    private int cell(int v, int l) {
+        return code[v] >>> (l - 1) * LEVEL_BITS;
+    }
+
+    private int cellCount(int l) {
+        return cellStart[l].length - 1;
+    }
+
+    private void findBoundary(int l) {
+        int n = g.size();
+        int cells = 0;
+        for (int v = 0; v < n; v++) {
+            cells = Math.max(cells, cell(v, l) + 1);
+        }
+        int[] start = new int[cells + 1];
+        boolean[] isBoundary = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                if (cell(g.edgeTarget(e), l) != cell(v, l)) {
+                    isBoundary[v] = true;
+                    start[cell(v, l) + 1]++;
+                    break;
+                }
+            }
+        }
+        for (int c = 0; c < cells; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] vertices = new int[start[cells]];
+        int[] pos = new int[n];
+        Arrays.fill(pos, -1);
+        int[] next = Arrays.copyOf(start, cells);
+        for (int v = 0; v < n; v++) {
+            if (isBoundary[v]) {
+                int c = cell(v, l);
+                pos[v] = next[c] - start[c];
+                vertices[next[c]++] = v;
+            }
+        }
+        int[] cliques = new int[cells + 1];
+        for (int c = 0; c < cells; c++) {
+            int k = start[c + 1] - start[c];
+            cliques[c + 1] = cliques[c] + k * k;
+        }
+        cellStart[l] = start;
+        boundary[l] = vertices;
+        boundaryPos[l] = pos;
+        cliqueStart[l] = cliques;
+    }
+
+    /**
+     * Returns the customization for a Router metric, customizing it on first use.
+     */
+    synchronized Customization customization(Router.Metric metric) {
+        if (customizations[metric.ordinal()] == null) {
+            customizations[metric.ordinal()] = customize(e -> g.edgeCost(e, metric));
+        }
+        return customizations[metric.ordinal()];
+    }
+
+    /**
+     * Returns the customization for a Router metric at the speeds of a traffic snapshot, or
+     * at the speed limits if traffic is null. The one for the newest snapshot is kept; a
+     * newer one is updated from the speed-limit customization, redoing only the cells that
+     * hold an edge the traffic has slowed. Queries on an older snapshot keep using theirs
+     * while that runs.
+     */
+    Customization customization(Router.Metric metric, TrafficOverlay.Snapshot traffic) {
+        if (traffic == null || metric != Router.Metric.TIME) {
+            return customization(metric);
+        }
+        TrafficCustomization last = trafficCustomization;
+        if (last != null && last.traffic == traffic) {
+            return last.customization;
+        }
+        int[] changed = traffic.changed();
+        if (changed.length == 0) {
+            return customization(metric);
+        }
+        synchronized (trafficLock) {
+            last = trafficCustomization;
+            if (last != null && last.traffic == traffic) {
+                return last.customization;
+            }
+            Customization customization = update(customization(metric),
+                    e -> traffic.edgeCost(e, metric), changed);
+            if (last == null || last.traffic.epoch < traffic.epoch) {
+                trafficCustomization = new TrafficCustomization(traffic, customization);
+            }
+            return customization;
+        }
+    }
+
+    /**
+     * Computes every clique for new edge costs. The graph is undirected, so an edge and its
+     * reverse must cost the same.
+     * @param edgeCost The cost of each edge, non-negative; Double.POSITIVE_INFINITY closes it.
+     * @return The customization, which answers queries under those costs.
+     */
+    Customization customize(IntToDoubleFunction edgeCost) {
+        int m = g.edgeCount();
+        double[] edgeCosts = new double[m];
+        for (int e = 0; e < m; e++) {
+            edgeCosts[e] = edgeCost.applyAsDouble(e);
+        }
+        double[][] cliques = new double[levels + 1][];
+        for (int l = 1; l <= levels; l++) {
+            cliques[l] = new double[cliqueStart[l][cellCount(l)]];
+        }
+        Customization customization = new Customization(edgeCosts, cliques);
+        for (int l = 1; l <= levels; l++) {
+            int level = l;
+            IntStream.range(0, cellCount(l)).parallel().forEach(c ->
+                    customizeCell(customization, level, c));
+        }
+        return customization;
+    }
+
+    /**
+     * Computes a customization that differs from base only in the costs of some edges,
+     * redoing only the cells that contain one of them.
+     * @param base The customization to start from.
+     * @param edgeCost The new cost of each edge.
+     * @param changed The edges whose cost may differ from base.
+     * @return The new customization; base is not changed.
+     */
+    Customization update(Customization base, IntToDoubleFunction edgeCost, int[] changed) {
+        double[] edgeCosts = base.edgeCosts.clone();
+        for (int e : changed) {
+            edgeCosts[e] = edgeCost.applyAsDouble(e);
+        }
+        double[][] cliques = new double[levels + 1][];
+        for (int l = 1; l <= levels; l++) {
+            cliques[l] = base.cliques[l].clone();
+        }
+        Customization customization = new Customization(edgeCosts, cliques);
+        for (int l = 1; l <= levels; l++) {
+            int level = l;
+            /* a cell's clique depends on the edges with both ends inside it */
+            IntStream.range(0, changed.length)
+                    .filter(i -> cell(edgeSources[changed[i]], level)
+                            == cell(g.edgeTarget(changed[i]), level))
+                    .map(i -> cell(edgeSources[changed[i]], level))
+                    .distinct()
+                    .parallel()
+                    .forEach(c -> customizeCell(customization, level, c));
+        }
+        return customization;
+    }
+
+    /**
+     * Fills in the clique of one level-l cell with a search from each of its boundary
+     * vertices over the level-(l - 1) overlay inside the cell.
+     */
+    private void customizeCell(Customization m, int l, int c) {
+        int from = cellStart[l][c];
+        int k = cellStart[l][c + 1] - from;
+        double[] clique = m.cliques[l];
+        int base = cliqueStart[l][c];
+        for (int i = 0; i < k; i++) {
+            SearchState state = SearchState.get(0, g.size());
+            int b = boundary[l][from + i];
+            state.reach(b, 0, b, -1);
+            state.fringe.push(b, 0);
+            int found = 0;
+            while (found < k && !state.fringe.isEmpty()) {
+                int u = state.fringe.poll();
+                state.settle(u);
+                if (boundaryPos[l][u] >= 0) {
+                    found++;
+                }
+                relax(m, state, u, l - 1, l, null);
+            }
+            for (int j = 0; j < k; j++) {
+                int t = boundary[l][from + j];
+                clique[base + i * k + j] = state.settled(t) ? state.distTo(t)
+                        : Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * Relaxes the edges leaving u in the overlay of the given level: its road segments for
+     * level 0, and otherwise the clique of its cell at that level and the road segments
+     * leaving that cell. With within > 0, only vertices in u's level-within cell are reached.
+     * Clique hops are recorded with the parent edge -1 - level. If meeting is not null, every
+     * vertex reached is offered to it as a meeting point with the opposite search.
+     */
+    private void relax(Customization m, SearchState state, int u, int level, int within,
+                       Meeting meeting) {
+        double distToU = state.distTo(u);
+        if (level > 0) {
+            int c = cell(u, level);
+            int from = cellStart[level][c];
+            int k = cellStart[level][c + 1] - from;
+            int row = cliqueStart[level][c] + boundaryPos[level][u] * k;
+            double[] clique = m.cliques[level];
+            for (int j = 0; j < k; j++) {
+                reach(state, boundary[level][from + j], distToU + clique[row + j], u,
+                        -1 - level, meeting);
+            }
+        }
+        for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+            int w = g.edgeTarget(e);
+            if (level > 0 && cell(w, level) == cell(u, level)
+                    || within > 0 && cell(w, within) != cell(u, within)) {
+                continue;
+            }
+            reach(state, w, distToU + m.edgeCosts[e], u, e, meeting);
+        }
+    }
+
+    private static void reach(SearchState state, int v, double dist, int parent, int edge,
+                              Meeting meeting) {
+        if (!state.settled(v) && state.distTo(v) > dist) {
+            state.reach(v, dist, parent, edge);
+            state.fringe.push(v, dist);
+            if (meeting != null) {
+                meeting.offer(v, dist + meeting.other(state).distTo(v));
+            }
+        }
+    }
+
+    /** A customization and the traffic snapshot it was made for. */
+    private static class TrafficCustomization {
+        final TrafficOverlay.Snapshot traffic;
+        final Customization customization;
+
+        TrafficCustomization(TrafficOverlay.Snapshot traffic, Customization customization) {
+            this.traffic = traffic;
+            this.customization = customization;
+        }
+    }
+
+    /** The best meeting point found so far of the two searches of a query. */
+    private static class Meeting {
+        private final SearchState forward;
+        private final SearchState backward;
+        private double cost = Double.MAX_VALUE;
+        private int vertex = -1;
+
+        Meeting(SearchState forward, SearchState backward) {
+            this.forward = forward;
+            this.backward = backward;
+        }
+
+        SearchState other(SearchState side) {
+            return side == forward ? backward : forward;
+        }
+
+        void offer(int v, double throughV) {
+            if (throughV < cost) {
+                cost = throughV;
+                vertex = v;
+            }
+        }
+    }
+
+    /**
+     * Edge costs and the cliques computed from them. Queries and updates read it but never
+     * change it, so one customization can serve any number of threads.
+     */
+    class Customization {
+        final double[] edgeCosts;
+        /** The clique costs of every cell of level l, laid out by cliqueStart[l]. */
+        private final double[][] cliques;
+
+        private Customization(double[] edgeCosts, double[][] cliques) {
+            this.edgeCosts = edgeCosts;
+            this.cliques = cliques;
+        }
+
+        /**
+         * Finds a shortest route from a set of sources to a set of targets under these
+         * costs, with the same contract as the searches in Router: each source starts with
+         * the given cost, and reaching a target completes the route at that target's extra
+         * cost. Throws SearchBudget.Exhausted if the two searches run out of budget between
+         * them.
+         * @return The node ids of the best route, or an empty list if no target is reachable.
+         */
+        List<Long> search(int[] sources, double[] sourceCosts, int[] targets,
+                          double[] targetCosts, SearchBudget budget) {
+            int[][] endCells = endCells(sources, targets);
+            SearchState forward = SearchState.get(0, g.size());
+            SearchState backward = SearchState.get(1, g.size());
+            Meeting best = new Meeting(forward, backward);
+            for (int i = 0; i < sources.length; i++) {
+                reach(forward, sources[i], sourceCosts[i], sources[i], -1, best);
+            }
+            for (int i = 0; i < targets.length; i++) {
+                reach(backward, targets[i], targetCosts[i], targets[i], -1, best);
+            }
+
+            /* the query graph is undirected, so this is plain bidirectional Dijkstra */
+            int settledCount = 0;
+            while (!forward.fringe.isEmpty() && !backward.fringe.isEmpty()
+                    && forward.fringe.peekKey() + backward.fringe.peekKey() < best.cost) {
+                SearchState side = forward.fringe.peekKey() <= backward.fringe.peekKey()
+                        ? forward : backward;
+                int u = side.fringe.poll();
+                side.settle(u);
+                budget.check(++settledCount);
+                relax(this, side, u, queryLevel(u, endCells), 0, best);
+            }
+
+            LinkedList<Long> route = new LinkedList<>();
+            int meeting = best.vertex;
+            if (meeting == -1) {
+                return route;
+            }
+            /* the vertices of the overlay route, and the hop into each after the first */
+            LinkedList<Integer> path = new LinkedList<>();
+            LinkedList<Integer> hops = new LinkedList<>();
+            int v = meeting;
+            while (forward.edgeTo(v) != v) {
+                path.addFirst(v);
+                hops.addFirst(forward.parentEdge(v));
+                v = forward.edgeTo(v);
+            }
+            path.addFirst(v);
+            v = meeting;
+            while (backward.edgeTo(v) != v) {
+                hops.addLast(backward.parentEdge(v));
+                v = backward.edgeTo(v);
+                path.addLast(v);
+            }
+            appendPath(path, hops, route);
+            return route;
+        }
+
+        /** Returns the cells of every level that hold one of the sources or targets. */
+        private int[][] endCells(int[] sources, int[] targets) {
+            int[][] cells = new int[levels + 1][];
+            for (int l = 1; l <= levels; l++) {
+                cells[l] = new int[sources.length + targets.length];
+                for (int i = 0; i < sources.length; i++) {
+                    cells[l][i] = cell(sources[i], l);
+                }
+                for (int i = 0; i < targets.length; i++) {
+                    cells[l][sources.length + i] = cell(targets[i], l);
+                }
+            }
+            return cells;
+        }
+
+        /** Returns the highest level whose cell around v holds no end of the route. */
+        private int queryLevel(int v, int[][] endCells) {
+            for (int l = levels; l >= 1; l--) {
+                boolean holdsEnd = false;
+                for (int c : endCells[l]) {
+                    holdsEnd |= c == cell(v, l);
+                }
+                if (!holdsEnd) {
+                    return l;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Appends the road vertices of an overlay path after its first vertex, unpacking
+         * each clique hop. The first vertex is appended too if the route is empty.
+         */
+        private void appendPath(List<Integer> path, List<Integer> hops,
+                                LinkedList<Long> route) {
+            int from = path.get(0);
+            if (route.isEmpty()) {
+                route.add(g.idAt(from));
+            }
+            int i = 1;
+            for (int hop : hops) {
+                int to = path.get(i++);
+                if (hop < -1) {
+                    unpack(from, to, -1 - hop, route);
+                } else {
+                    route.add(g.idAt(to));
+                }
+                from = to;
+            }
+        }
+
+        /**
+         * Appends the road vertices after u of the clique hop from u to x at the given level,
+         * found again by searching their cell one level down.
+         */
+        private void unpack(int u, int x, int level, LinkedList<Long> route) {
+            SearchState state = SearchState.get(0, g.size());
+            reach(state, u, 0, u, -1, null);
+            while (!state.settled(x) && !state.fringe.isEmpty()) {
+                int v = state.fringe.poll();
+                state.settle(v);
+                relax(this, state, v, level - 1, level, null);
+            }
+            /* read the whole path out before the workspace is reused below */
+            LinkedList<Integer> path = new LinkedList<>();
+            LinkedList<Integer> hops = new LinkedList<>();
+            int v = x;
+            while (state.edgeTo(v) != v) {
+                path.addFirst(v);
+                hops.addFirst(state.parentEdge(v));
+                v = state.edgeTo(v);
+            }
+            path.addFirst(v);
+            appendPath(path, hops, route);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Origin-by-destination matrices of route costs, for callers such as dispatch that need the
+ * cost between every pickup and every drop-off. Routing each pair separately repeats the same
+ * search from an origin once per destination; here each origin is searched once.
+ *
+ * Without a contraction hierarchy, each row is one Dijkstra search from the origin that stops
+ * as soon as every destination vertex it can reach is settled. With one, the matrix is
+ * computed with buckets: an upward search from every destination leaves (destination, cost)
+ * entries in a bucket at each vertex it settles, and an upward search from each origin then
+ * reads the buckets of the vertices it settles, so every pair meets at its highest vertex
+ * without a search of its own. Rows are independent and are computed in parallel; each
+ * thread searches in its own pooled SearchState.
+ *
+ * Every search checks options.budget as it settles vertices, like a route search, so one
+ * budget bounds each search of the matrix and gives the whole matrix one deadline.
+ */
+class DistanceMatrix {
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Returns the cost from each origin to each destination.
+     * @param g The graph.
+     * @param origins The origins, attached to g.
+     * @param dests The destinations, attached to g.
+     * @param options The routing options the endpoints were attached with.
+     * @return The cost from origin i to destination j at [i][j], or
+     *         Double.POSITIVE_INFINITY if there is no route.
+     * @throws SearchBudget.Exhausted If any search runs out of options.budget.
+     */
+    static double[][] compute(GraphDB g, Router.Endpoint[] origins, Router.Endpoint[] dests,
+                              Router.RouteOptions options) {
+        double[][] matrix;
+        if (options.algorithm == Router.Algorithm.CONTRACTION_HIERARCHY) {
+            matrix = g.hierarchy(options.metric).matrix(origins, dests, options.budget);
+        } else {
+            matrix = new double[origins.length][];
+            IntStream.range(0, origins.length).parallel().forEach(i -> matrix[i] = row(g,
+                    options.metric, options.traffic, origins[i], dests, options.budget));
+        }
+
+        /* no search finds the stretch between two points on the same road segment */
+        for (int i = 0; i < origins.length; i++) {
+            for (int j = 0; j < dests.length; j++) {
+                matrix[i][j] = Math.min(matrix[i][j], Router.directCost(origins[i], dests[j]));
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Dijkstra's algorithm from one origin until every destination vertex in the origin's
+     * component is settled. The workspace's cache marks the destination vertices not yet
+     * settled.
+     */
+    private static double[] row(GraphDB g, Router.Metric metric,
+                                TrafficOverlay.Snapshot traffic, Router.Endpoint origin,
+                                Router.Endpoint[] dests, SearchBudget budget) {
+        SearchState state = SearchState.get(0, g.size());
+        IndexedMinHeap fringe = state.fringe;
+        for (int k = 0; k < origin.vertices.length; k++) {
+            int s = origin.vertices[k];
+            if (origin.costs[k] < state.distTo(s)) {
+                state.reach(s, origin.costs[k], s, -1);
+                fringe.push(s, origin.costs[k]);
+            }
+        }
+
+        int component = g.componentAt(origin.vertices[0]);
+        int remaining = 0;
+        for (Router.Endpoint dest : dests) {
+            for (int t : dest.vertices) {
+                if (g.componentAt(t) == component && !state.cached(t)) {
+                    state.setCache(t, 0);
+                    remaining++;
+                }
+            }
+        }
+
+        int settledCount = 0;
+        while (remaining > 0 && !fringe.isEmpty()) {
+            int u = fringe.poll();
+            budget.check(++settledCount);
+            state.settle(u);
+            if (state.cached(u)) {
+                remaining--;
+            }
+            double distToU = state.distTo(u);
+            for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+                int v = g.edgeTarget(e);
+                double newDistToV = distToU + Router.edgeCost(g, traffic, e, metric);
+                if (!state.settled(v) && state.distTo(v) > newDistToV) {
+                    state.reach(v, newDistToV, u, e);
+                    fringe.push(v, newDistToV);
+                }
+            }
+        }
+
+        double[] row = new double[dests.length];
+        Arrays.fill(row, Double.POSITIVE_INFINITY);
+        for (int j = 0; j < dests.length; j++) {
+            Router.Endpoint dest = dests[j];
+            for (int k = 0; k < dest.vertices.length; k++) {
+                int t = dest.vertices[k];
+                if (state.settled(t)) {
+                    row[j] = Math.min(row[j], state.distTo(t) + dest.costs[k]);
+                }
+            }
+        }
+        return row;
+    }
+}
@@ -119,6 +119,7 @@ public class GraphBuildingHandler extends DefaultHandler {
                 /* TODO Figure out whether this way and its connections are valid. */
                 /* Hint: Setting a "flag" is good enough! */
                 g.setFlag(lastWayID, ALLOWED_HIGHWAY_TYPES.contains(v));
+                g.setHighway(lastWayID, v);
             } else if (k.equals("name")) {
 //                System.out.println("Way Name: " + v);
                 g.setWayName(lastWayID, attributes.getValue("v"));
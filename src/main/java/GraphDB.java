@@ -23,6 +23,50 @@ public class GraphDB {
     private HashMap<Long, Node> nodeMap = new HashMap<>();
     private HashMap<Long, Way> connectedNodeMap = new HashMap<>();
 
+    /**
+     * Read-only compressed sparse row (CSR) form of the cleaned graph, built by freeze() once
+     * parsing is done. Vertices are numbered 0..n-1 in increasing OSM id order; the neighbors
+     * of vertex i are targets[offsets[i]] .. targets[offsets[i + 1] - 1], and weights[e] is
+     * the great-circle length in miles of edge e, computed once here instead of on every
+     * relaxation. speeds[e] is the speed limit of edge e in mph, from its way's maxspeed tag
+     * or highway class, and maxSpeed the largest of them. These are package-private so that
+     * GraphSnapshot can save and restore them in bulk.
+     */
+    long[] ids;
+    double[] lons;
+    double[] lats;
+    int[] offsets;
+    int[] targets;
+    double[] weights;
+    float[] speeds;
+    double maxSpeed;
+    private LongIntHashMap index;
+    /**
+     * The spatial indexes and component labels, package-private like the arrays above so
+     * that GraphSnapshot can save them and restore them without rebuilding.
+     */
+    KdTree kdTree;
+    SegmentIndex segmentIndex;
+    /** Connected component of each vertex, numbered in order of their smallest vertex. */
+    int[] components;
+    int largestComponent;
+    /** Contraction hierarchy for each metric, indexed by Router.Metric ordinal. */
+    private final ContractionHierarchy[] hierarchies =
+            new ContractionHierarchy[Router.Metric.values().length];
+    private Landmarks landmarks;
+    /** Hub labels for each metric, indexed by Router.Metric ordinal. */
+    private final HubLabels[] hubLabels = new HubLabels[Router.Metric.values().length];
+    /** Arc flags for each metric, indexed by Router.Metric ordinal. */
+    private final ArcFlags[] arcFlags = new ArcFlags[Router.Metric.values().length];
+    private CustomizableRoutePlanner routePlanner;
+    private TrafficOverlay traffic;
+
+    /** The way each edge belongs to, as an index into the way arrays below. */
+    int[] edgeWays;
+    long[] wayIds;
+    String[] wayNames;
+    String[] wayMaxSpeeds;
+
     /**
      * Example constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
@@ -42,6 +86,39 @@ public class GraphDB {
             e.printStackTrace();
         }
         clean();
+        freeze();
+    }
+
+    /**
+     * Creates an empty graph whose arrays, spatial indexes and component labels are filled in
+     * by GraphSnapshot, which must call buildIndex() once they are in place.
+     */
+    GraphDB() {
+        nodeMap = null;
+        connectedNodeMap = null;
+    }
+
+    /**
+     * Returns the graph for an OSM XML file, loading it from the binary snapshot next to the
+     * file when that snapshot is present and up to date. Otherwise the XML is parsed as usual
+     * and a fresh snapshot is written for the next start.
+     * @param dbPath Path to the XML file to be parsed.
+     * @return The graph.
+     */
+    public static GraphDB load(String dbPath) {
+        File source = new File(dbPath);
+        File snapshot = new File(dbPath + GraphSnapshot.SUFFIX);
+        GraphDB g = GraphSnapshot.read(snapshot, source);
+        if (g != null) {
+            return g;
+        }
+        g = new GraphDB(dbPath);
+        try {
+            GraphSnapshot.write(g, snapshot, source);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return g;
     }
 
     /**
@@ -73,13 +150,392 @@ public class GraphDB {
         }
     }
 
+    /**
+     * Packs the cleaned graph into the CSR arrays and drops the parse-time Node and Way
+     * objects. Neighbor lists are de-duplicated and sorted so iteration order is stable.
+     */
+    private void freeze() {
+        int n = nodeMap.size();
+        ids = new long[n];
+        int i = 0;
+        for (long id : nodeMap.keySet()) {
+            ids[i++] = id;
+        }
+        Arrays.sort(ids);
+        buildIndex();
+
+        ArrayList<Way> validWays = new ArrayList<>();
+        for (Way way : connectedNodeMap.values()) {
+            if (way.isValidWay) {
+                validWays.add(way);
+            }
+        }
+        validWays.sort(Comparator.comparingLong(w -> w.id));
+        wayIds = new long[validWays.size()];
+        wayNames = new String[validWays.size()];
+        wayMaxSpeeds = new String[validWays.size()];
+        float[] waySpeeds = new float[validWays.size()];
+        for (int k = 0; k < validWays.size(); k++) {
+            Way way = validWays.get(k);
+            wayIds[k] = way.id;
+            wayNames[k] = way.name;
+            wayMaxSpeeds[k] = way.maxSpeed;
+            waySpeeds[k] = (float) SpeedLimits.speed(way.maxSpeed, way.highway);
+        }
+
+        lons = new double[n];
+        lats = new double[n];
+        offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            Node node = nodeMap.get(ids[v]);
+            lons[v] = node.lon;
+            lats[v] = node.lat;
+            offsets[v + 1] = offsets[v] + node.adj.size();
+        }
+
+        targets = new int[offsets[n]];
+        weights = new double[offsets[n]];
+        edgeWays = new int[offsets[n]];
+        speeds = new float[offsets[n]];
+        for (int v = 0; v < n; v++) {
+            Node node = nodeMap.get(ids[v]);
+            int e = offsets[v];
+            for (long w : node.adj.keySet()) {
+                targets[e++] = indexOf(w);
+            }
+            Arrays.sort(targets, offsets[v], offsets[v + 1]);
+            for (e = offsets[v]; e < offsets[v + 1]; e++) {
+                weights[e] = distance(lons[v], lats[v], lons[targets[e]], lats[targets[e]]);
+                edgeWays[e] = Arrays.binarySearch(wayIds, node.adj.get(ids[targets[e]]));
+                speeds[e] = waySpeeds[edgeWays[e]];
+                maxSpeed = Math.max(maxSpeed, speeds[e]);
+            }
+        }
+
+        nodeMap = null;
+        connectedNodeMap = null;
+        buildComponents();
+        buildSpatialIndex();
+    }
+
+    /**
+     * Like load(), but memory-maps the snapshot instead of copying it onto the heap, so the
+     * vertex and edge arrays live outside the Java heap and are shared, through the page
+     * cache, by every process that maps the same file. If no valid snapshot exists one is
+     * built from the XML first.
+     * @param dbPath Path to the XML file to be parsed.
+     * @return The graph, backed by the mapped snapshot when possible.
+     */
+    public static GraphDB loadMapped(String dbPath) {
+        File source = new File(dbPath);
+        File snapshot = new File(dbPath + GraphSnapshot.SUFFIX);
+        GraphDB g = GraphSnapshot.map(snapshot, source);
+        if (g != null) {
+            return g;
+        }
+        g = new GraphDB(dbPath);
+        try {
+            GraphSnapshot.write(g, snapshot, source);
+            GraphDB mapped = GraphSnapshot.map(snapshot, source);
+            if (mapped != null) {
+                return mapped;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return g;
+    }
+
+    /** Builds the OSM id to vertex index table from the ids array. */
+    void buildIndex() {
+        index = new LongIntHashMap(ids.length, -1);
+        for (int v = 0; v < ids.length; v++) {
+            index.put(ids[v], v);
+        }
+    }
+
+    /**
+     * Labels the connected components of the graph with a breadth-first search from each
+     * unlabeled vertex, in O(V + E). Roads are undirected, so two vertices are connected
+     * exactly when they have the same label, and Router can turn away a route between
+     * components without searching.
+     */
+    void buildComponents() {
+        int n = size();
+        components = new int[n];
+        Arrays.fill(components, -1);
+        int[] queue = new int[n];
+        int count = 0;
+        int largestSize = 0;
+        for (int s = 0; s < n; s++) {
+            if (components[s] >= 0) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            components[s] = count;
+            queue[tail++] = s;
+            while (head < tail) {
+                int u = queue[head++];
+                for (int e = edgeStart(u); e < edgeEnd(u); e++) {
+                    int v = edgeTarget(e);
+                    if (components[v] < 0) {
+                        components[v] = count;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+            if (tail > largestSize) {
+                largestSize = tail;
+                largestComponent = count;
+            }
+            count++;
+        }
+    }
+
+    /**
+     * Builds the k-d tree that closest() and its k-nearest and radius variants use, and the
+     * R-tree over road segments behind snap().
+     */
+    void buildSpatialIndex() {
+        kdTree = new KdTree(this);
+        segmentIndex = new SegmentIndex(this);
+    }
+
+    /**
+     * Returns the contraction hierarchy used for CONTRACTION_HIERARCHY routing under the
+     * given metric, building it on first use unless one was attached with setHierarchy().
+     */
+    synchronized ContractionHierarchy hierarchy(Router.Metric metric) {
+        if (hierarchies[metric.ordinal()] == null) {
+            hierarchies[metric.ordinal()] = ContractionHierarchy.build(this, metric);
+        }
+        return hierarchies[metric.ordinal()];
+    }
+
+    /**
+     * Attaches a prebuilt contraction hierarchy for its metric, typically from
+     * ContractionHierarchy.load().
+     */
+    synchronized void setHierarchy(ContractionHierarchy hierarchy) {
+        hierarchies[hierarchy.metric.ordinal()] = hierarchy;
+    }
+
+    /**
+     * Returns the landmark tables used for ALT routing, building them with the default number
+     * of landmarks on first use unless some were attached with setLandmarks().
+     */
+    synchronized Landmarks landmarks() {
+        if (landmarks == null) {
+            landmarks = Landmarks.build(this, Landmarks.DEFAULT_COUNT);
+        }
+        return landmarks;
+    }
+
+    /** Attaches prebuilt landmark tables, typically from Landmarks.load(). */
+    synchronized void setLandmarks(Landmarks landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    /**
+     * Returns the hub labels Router.distance() answers from under the given metric, building
+     * them on first use unless some were attached with setHubLabels().
+     */
+    synchronized HubLabels hubLabels(Router.Metric metric) {
+        if (hubLabels[metric.ordinal()] == null) {
+            hubLabels[metric.ordinal()] = HubLabels.build(this, metric);
+        }
+        return hubLabels[metric.ordinal()];
+    }
+
+    /** Attaches prebuilt hub labels for their metric, typically from HubLabels.load(). */
+    synchronized void setHubLabels(HubLabels labels) {
+        hubLabels[labels.metric.ordinal()] = labels;
+    }
+
+    /**
+     * Returns the arc flags that prune A* and ALT routing under the given metric, building
+     * them on first use unless some were attached with setArcFlags().
+     */
+    synchronized ArcFlags arcFlags(Router.Metric metric) {
+        if (arcFlags[metric.ordinal()] == null) {
+            arcFlags[metric.ordinal()] = ArcFlags.build(this, metric);
+        }
+        return arcFlags[metric.ordinal()];
+    }
+
+    /** Attaches prebuilt arc flags for their metric, typically from ArcFlags.load(). */
+    synchronized void setArcFlags(ArcFlags flags) {
+        arcFlags[flags.metric.ordinal()] = flags;
+    }
+
+    /** Returns the live traffic speeds over this graph, at the speed limits until updated. */
+    synchronized TrafficOverlay traffic() {
+        if (traffic == null) {
+            traffic = new TrafficOverlay(this);
+        }
+        return traffic;
+    }
+
+    /** Returns the partitioned overlay used for CRP routing, building it on first use. */
+    synchronized CustomizableRoutePlanner routePlanner() {
+        if (routePlanner == null) {
+            routePlanner = CustomizableRoutePlanner.build(this);
+        }
+        return routePlanner;
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given OSM id. This is the translation
+     * point between the OSM ids used at the API boundary and the vertex indices used by the
+     * primitive arrays here and in Router.
+     * @param id The OSM id of the vertex.
+     * @return The index of the vertex, in [0, size()).
+     * @throws NoSuchElementException If the graph has no such vertex.
+     */
+    int indexOf(long id) {
+        int v = index.get(id);
+        if (v < 0) {
+            throw new NoSuchElementException("No vertex with id " + id);
+        }
+        return v;
+    }
+
+    /** Returns the connected component of vertex index v. */
+    int componentAt(int v) {
+        return components[v];
+    }
+
+    /** Returns the component with the most vertices, the first one found on ties. */
+    int largestComponent() {
+        return largestComponent;
+    }
+
+    /** Returns the number of vertices in the graph. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the number of edges in the graph, one per direction a road can be driven. */
+    int edgeCount() {
+        return size() == 0 ? 0 : edgeEnd(size() - 1);
+    }
+
+    /** Returns the OSM id of vertex index v. */
+    long idAt(int v) {
+        return ids[v];
+    }
+
+    /** Returns the longitude of vertex index v. */
+    double lonAt(int v) {
+        return lons[v];
+    }
+
+    /** Returns the latitude of vertex index v. */
+    double latAt(int v) {
+        return lats[v];
+    }
+
+    /**
+     * Returns the first edge of vertex index v. The edges of v are edgeStart(v) inclusive to
+     * edgeEnd(v) exclusive; edgeTarget(e) gives the neighbor each one leads to and
+     * edgeWeight(e) its length, so callers can walk a neighbor list without allocating.
+     */
+    int edgeStart(int v) {
+        return offsets[v];
+    }
+
+    /** Returns one past the last edge of vertex index v. */
+    int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    /** Returns the vertex index edge e leads to. */
+    int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    /** Returns the length of edge e in miles. */
+    double edgeWeight(int e) {
+        return weights[e];
+    }
+
+    /** Returns the speed limit of edge e in miles per hour. */
+    double edgeSpeed(int e) {
+        return speeds[e];
+    }
+
+    /** Returns the time in hours to drive edge e at its speed limit. */
+    double edgeTime(int e) {
+        return edgeWeight(e) / edgeSpeed(e);
+    }
+
+    /** Returns the cost of edge e under a metric: its length or its travel time. */
+    double edgeCost(int e, Router.Metric metric) {
+        return metric == Router.Metric.TIME ? edgeTime(e) : edgeWeight(e);
+    }
+
+    /**
+     * Returns the highest speed limit of any edge, so that a great-circle distance divided by
+     * it is a lower bound on travel time.
+     */
+    double maxSpeed() {
+        return maxSpeed;
+    }
+
+    /** Returns the index of the way edge e belongs to. */
+    int edgeWay(int e) {
+        return edgeWays[e];
+    }
+
+    /**
+     * Returns the edge from vertex index v to vertex index w, or -1 if they are not adjacent.
+     * Neighbor lists are sorted, so this is a binary search over v's edges.
+     */
+    int edgeBetween(int v, int w) {
+        int lo = edgeStart(v);
+        int hi = edgeEnd(v) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int target = edgeTarget(mid);
+            if (target < w) {
+                lo = mid + 1;
+            } else if (target > w) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the name of the way edge e belongs to, or the empty string if it is unnamed. */
+    String edgeWayName(int e) {
+        String name = wayNames[edgeWay(e)];
+        return name == null ? "" : name;
+    }
+
     /**
      * Returns an iterable of all vertex IDs in the graph.
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        //YOUR CODE HERE, this currently returns only an empty list.
-        return nodeMap.keySet();
+        return () -> new Iterator<Long>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < size();
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return idAt(i++);
+            }
+        };
     }
 
     /**
@@ -88,7 +544,25 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        return nodeMap.get(v).adj;
+        int u = indexOf(v);
+        int start = edgeStart(u);
+        int end = edgeEnd(u);
+        return () -> new Iterator<Long>() {
+            private int e = start;
+
+            @Override
+            public boolean hasNext() {
+                return e < end;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return idAt(edgeTarget(e++));
+            }
+        };
     }
 
     /**
@@ -100,7 +574,12 @@ public class GraphDB {
      * @return The great-circle distance between the two locations from the graph.
      */
     double distance(long v, long w) {
-        return distance(lon(v), lat(v), lon(w), lat(w));
+        return distanceAt(indexOf(v), indexOf(w));
+    }
+
+    /** Returns the great-circle distance in miles between vertex indices v and w. */
+    double distanceAt(int v, int w) {
+        return distance(lonAt(v), latAt(v), lonAt(w), latAt(w));
     }
 
     static double distance(double lonV, double latV, double lonW, double latW) {
@@ -130,6 +609,11 @@ public class GraphDB {
         return bearing(lon(v), lat(v), lon(w), lat(w));
     }
 
+    /** Returns the initial bearing in degrees from vertex index v to vertex index w. */
+    double bearingAt(int v, int w) {
+        return bearing(lonAt(v), latAt(v), lonAt(w), latAt(w));
+    }
+
     static double bearing(double lonV, double latV, double lonW, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
@@ -149,16 +633,84 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
-        long closestNode = -1;
-        double minDistance = Double.MAX_VALUE;
-        for (Node node : nodeMap.values()) {
-            double dis = distance(lon, lat, node.lon, node.lat);
-            if (dis < minDistance) {
-                minDistance = dis;
-                closestNode = node.id;
-            }
+        int v = closestIndex(lon, lat);
+        return v < 0 ? -1 : idAt(v);
+    }
+
+    /** Returns the index of the vertex closest to the given point, or -1 for an empty graph. */
+    int closestIndex(double lon, double lat) {
+        return kdTree.nearest(lon, lat);
+    }
+
+    /**
+     * Returns the index of the vertex of the given connected component closest to the given
+     * point, or -1 if the component has no vertices. A component of -1 means any vertex.
+     */
+    int closestIndex(double lon, double lat, int component) {
+        return kdTree.nearestInComponent(lon, lat, component);
+    }
+
+    /**
+     * Returns the k vertices closest to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of vertices wanted.
+     * @return The ids of up to k vertices, nearest first.
+     */
+    List<Long> closest(double lon, double lat, int k) {
+        return toIds(kdTree.nearest(lon, lat, k));
+    }
+
+    /**
+     * Returns the vertices within a great-circle distance of the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param radius The distance in miles.
+     * @return The ids of the matching vertices, nearest first.
+     */
+    List<Long> withinDistance(double lon, double lat, double radius) {
+        return toIds(kdTree.within(lon, lat, radius));
+    }
+
+    /**
+     * Returns the closest point on any road to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The snapped point and the segment it lies on, or null for a graph without edges.
+     */
+    SegmentIndex.Snap snap(double lon, double lat) {
+        return segmentIndex.nearest(lon, lat);
+    }
+
+    /**
+     * Like snap(lon, lat), but only considers roads in the given connected component, or in
+     * any component if it is -1.
+     * @return The snapped point, or null if the component has no roads.
+     */
+    SegmentIndex.Snap snap(double lon, double lat, int component) {
+        return segmentIndex.nearest(lon, lat, component);
+    }
+
+    /**
+     * Returns everything reachable from the given longitude and latitude within a budget: a
+     * one-to-all search that stops once the budget is spent.
+     * @param lon The longitude of the start.
+     * @param lat The latitude of the start.
+     * @param budget The largest cost allowed: miles, or hours for the TIME metric.
+     * @param options How the start is attached to the graph, the metric, and the traffic.
+     * @return The reachable vertices with their costs, and a boundary polygon around them.
+     */
+    Isochrone isochrone(double lon, double lat, double budget, Router.RouteOptions options) {
+        return Isochrone.compute(this, Router.endpoint(this, lon, lat, options), budget,
+                options.metric, options.traffic);
+    }
+
+    private List<Long> toIds(int[] vertices) {
+        List<Long> result = new ArrayList<>(vertices.length);
+        for (int v : vertices) {
+            result.add(idAt(v));
         }
-        return closestNode;
+        return result;
     }
 
     /**
@@ -167,7 +719,7 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return nodeMap.get(v).lon;
+        return lonAt(indexOf(v));
     }
 
     /**
@@ -176,27 +728,26 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return nodeMap.get(v).lat;
+        return latAt(indexOf(v));
     }
 
     /** create a graph-like subclass
      * 1. use hashmap to store node: key is the node id, value is the node object
-     * 2. each node is an object with id, lon, lat variables and a hashset for adjacent node
+     * 2. each node is an object with id, lon, lat variables and a hashmap from each adjacent
+     *    node to the id of the way that connects them
      */
      static class Node {
         private long id;
         private double lon;
         private double lat;
         private String name;
-        private HashSet<Long> connectedWay;
-        private HashSet<Long> adj;
+        private HashMap<Long, Long> adj;
 
         public Node(long id, double lon, double lat) {
             this.id = id;
             this.lon = lon;
             this.lat = lat;
-            this.connectedWay = new HashSet<>();
-            this.adj = new HashSet<>();
+            this.adj = new HashMap<>();
         }
      }
 
@@ -207,16 +758,30 @@ public class GraphDB {
     public void setNodeName(long nodeID, String name) {
         this.nodeMap.get(nodeID).name = name;
     }
-    public HashSet<Long> getNodeWay(long nodeID) {return nodeMap.get(nodeID).connectedWay;}
+
+    /**
+     * Returns the name of the way on the edge between two adjacent vertices, or the empty
+     * string if the way is unnamed or the vertices are not adjacent.
+     */
+    public String sharedWayName(long v, long w) {
+        int e = edgeBetween(indexOf(v), indexOf(w));
+        return e < 0 ? "" : edgeWayName(e);
+    }
+
+    /** Returns the index of the valid way with the given OSM id, or a negative number. */
+    int wayIndexOf(long wayID) {
+        return Arrays.binarySearch(wayIds, wayID);
+    }
 
     /** create a subclass for storing the possible connections
-     * 1. add the way the node belongs to into the connectedWay variable in Node object
+     * 1. record the way on each edge it adds, in the adj map of the Node objects
      * 2. initialize a hashmap in connectedNodeMap (backup) with the way id
      * 3. add node id into the corresponding way's hashset
      */
     static class Way {
         private long id;
         private String maxSpeed;
+        private String highway;
         private boolean isValidWay;
         private String name;
         private ArrayList<Long> connectedNodes;
@@ -228,11 +793,11 @@ public class GraphDB {
     }
 
     public String getWayName(long wayID) {
-        Way way = connectedNodeMap.get(wayID);
-        if (way.name == null) {
+        int k = wayIndexOf(wayID);
+        if (k < 0 || wayNames[k] == null) {
             return "";
         }
-        return way.name;
+        return wayNames[k];
     }
 
     public void initNewWay(long wayID) {
@@ -248,6 +813,10 @@ public class GraphDB {
         connectedNodeMap.get(wayID).maxSpeed = maxSpeed;
     }
 
+    public void setHighway(long wayID, String highway) {
+        connectedNodeMap.get(wayID).highway = highway;
+    }
+
     public void setFlag(long wayID, boolean b) {
         connectedNodeMap.get(wayID).isValidWay = b;
     }
@@ -260,19 +829,23 @@ public class GraphDB {
         return connectedNodeMap.get(wayID).isValidWay;
     }
     public void addConnectedWayToNode(long wayID) {
-        ArrayList<Long> nodeList = connectedNodeMap.get(wayID).connectedNodes;
-        for (int i = 0; i < nodeList.size(); i++) {
-            nodeMap.get(nodeList.get(i)).connectedWay.add(wayID);
-            if (nodeList.size() == 1) {
-                continue;
-            } else if (i == 0) {
-                nodeMap.get(nodeList.get(0)).adj.add(nodeList.get(1));
-            } else if (i == nodeList.size() - 1) {
-                nodeMap.get(nodeList.get(nodeList.size() - 1)).adj.add(nodeList.get(nodeList.size() - 2));
-            } else {
-                nodeMap.get(nodeList.get(i)).adj.add(nodeList.get(i - 1));
-                nodeMap.get(nodeList.get(i)).adj.add(nodeList.get(i + 1));
-            }
+        Way way = connectedNodeMap.get(wayID);
+        ArrayList<Long> nodeList = way.connectedNodes;
+        for (int i = 1; i < nodeList.size(); i++) {
+            addEdge(nodeList.get(i - 1), nodeList.get(i), way);
+            addEdge(nodeList.get(i), nodeList.get(i - 1), way);
+        }
+    }
+
+    /**
+     * Adds the directed edge from -> to on the given way. When two ways share an edge the
+     * first one is kept, unless only the later one has a name.
+     */
+    private void addEdge(long from, long to, Way way) {
+        HashMap<Long, Long> adj = nodeMap.get(from).adj;
+        Long previous = adj.get(to);
+        if (previous == null || (connectedNodeMap.get(previous).name == null && way.name != null)) {
+            adj.put(to, way.id);
         }
     }
 }
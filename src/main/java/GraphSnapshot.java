@@ -0,0 +1,695 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned, checksummed binary snapshot of a cleaned GraphDB, so that the server can start
+ * without re-parsing the OSM XML. All values are little-endian and every section is padded to
+ * a multiple of 8 bytes:
+ * <pre>
+ *   header   magic, version, source length, source last-modified, n, m, w, segments s,
+ *            R-tree nodes r, R-tree leaves, largest component, 4 reserved bytes,
+ *            maxSpeed double, R-tree xScale double
+ *   vertices ids long[n], lons double[n], lats double[n]
+ *   edges    offsets int[n + 1], targets int[m], weights double[m], edgeWays int[m],
+ *            speeds float[m]
+ *   indexes  components int[n],
+ *            k-d tree order int[n], axes byte[n], xs double[n], ys double[n], zs double[n],
+ *            R-tree segFrom int[s], segTo int[s], minX double[r], minY double[r],
+ *            maxX double[r], maxY double[r], firstChild int[r], childCount int[r]
+ *   ways     wayIds long[w], wayNames, wayMaxSpeeds
+ *   trailer  CRC32 of everything before it, as a long
+ * </pre>
+ * Strings are stored as int[w] UTF-8 byte lengths (-1 for null) followed by the bytes.
+ * The arrays are moved with bulk buffer copies through a FileChannel rather than one
+ * object at a time. Because sections are aligned, the same file can also be memory-mapped
+ * section by section and used in place by MappedGraphDB. The component labels and the
+ * KdTree and SegmentIndex arrays are saved too, so that neither loading path rebuilds them and
+ * a mapped graph keeps them off the heap.
+ *
+ * The files of the tables derived from a graph, such as ContractionHierarchy and Landmarks,
+ * are kept next to the OSM file by loadOrBuild(), written with write() and checked with
+ * readHeader(). They share this encoding and header and are replaced atomically in the same
+ * way; each class documents only the fields and arrays that follow the header.
+ */
+class GraphSnapshot {
+    /** Suffix appended to the OSM XML path to name its snapshot. */
+    static final String SUFFIX = ".snapshot";
+    /** Bumped whenever the layout changes, so old snapshots are treated as stale. */
+    static final int VERSION = 6;
+    private static final int MAGIC = 0x42454152;
+    private static final int HEADER_BYTES = 72;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private GraphSnapshot() {
+    }
+
+    /** Writes the sections of a file after its header. */
+    interface Sections {
+        void write(Output out) throws IOException;
+    }
+
+    /** Saves a table derived from a graph to a file, recording its source OSM XML file. */
+    interface Saver<T> {
+        void save(T table, File file, File source) throws IOException;
+    }
+
+    /**
+     * Returns a table derived from the graph of an OSM XML file, reading it from the file
+     * next to the XML when that is present, up to date and fits, and otherwise building it
+     * and saving it there for the next start. A table that cannot be saved is still returned.
+     * @param dbPath Path to the OSM XML file.
+     * @param suffix Suffix appended to dbPath to name the table's file.
+     * @param read Reads the file given it and the XML, or returns null if it is missing, stale
+     *             or invalid.
+     * @param fits Whether a table that was read was built with the wanted parameters.
+     * @param build Builds the table.
+     * @param save Saves a built table.
+     * @return The table.
+     */
+    static <T> T loadOrBuild(String dbPath, String suffix, BiFunction<File, File, T> read,
+                             Predicate<T> fits, Supplier<T> build, Saver<T> save) {
+        File source = new File(dbPath);
+        File file = new File(dbPath + suffix);
+        T table = read.apply(file, source);
+        if (table != null && fits.test(table)) {
+            return table;
+        }
+        table = build.get();
+        try {
+            save.save(table, file, source);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return table;
+    }
+
+    /**
+     * Writes a file derived from an OSM XML file, first to a temporary file which is then
+     * moved into place, so a concurrently starting server never sees a half-written file. The
+     * file starts with magic, version, and the source's length and last-modified time, which
+     * readHeader() checks, and ends with the checksum.
+     * @param file The file to write.
+     * @param magic The number identifying what kind of file it is.
+     * @param version The version of its layout.
+     * @param source The OSM XML file it was built from, recorded to detect staleness.
+     * @param sections Writes everything after the header.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(File file, int magic, int version, File source, Sections sections)
+            throws IOException {
+        Path tmp = new File(file.getPath() + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            sections.write(out);
+            out.finish();
+        }
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the header written by write().
+     * @param in The input, at the start of the file.
+     * @param magic The number the file should start with.
+     * @param version The version of the layout the reader expects.
+     * @param source The OSM XML file the file should have been built from. If it exists and
+     *               its length or modification time differ from what the file recorded, the
+     *               file is stale.
+     * @return Whether the file is of the right kind and version and not stale.
+     * @throws IOException If the header cannot be read.
+     */
+    static boolean readHeader(Input in, int magic, int version, File source)
+            throws IOException {
+        if (in.readInt() != magic || in.readInt() != version) {
+            return false;
+        }
+        long sourceLength = in.readLong();
+        long sourceModified = in.readLong();
+        return !source.exists() || source.length() == sourceLength
+                && source.lastModified() == sourceModified;
+    }
+
+    /**
+     * Writes the snapshot of g with write(), so it is moved into place only once complete.
+     * @param g The graph to save.
+     * @param snapshot The snapshot file to write.
+     * @param source The OSM XML file g was built from, recorded to detect staleness.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    static void write(GraphDB g, File snapshot, File source) throws IOException {
+        KdTree kdTree = g.kdTree;
+        SegmentIndex segments = g.segmentIndex;
+        write(snapshot, MAGIC, VERSION, source, out -> {
+            out.writeInt(g.ids.length);
+            out.writeInt(g.targets.length);
+            out.writeInt(g.wayIds.length);
+            out.writeInt(segments.segFrom.limit());
+            out.writeInt(segments.minX.limit());
+            out.writeInt(segments.leafCount);
+            out.writeInt(g.largestComponent);
+            out.writeInt(0);
+            out.writeDouble(g.maxSpeed);
+            out.writeDouble(segments.xScale);
+
+            out.writeLongs(g.ids);
+            out.writeDoubles(g.lons);
+            out.writeDoubles(g.lats);
+            out.writeInts(g.offsets);
+            out.writeInts(g.targets);
+            out.writeDoubles(g.weights);
+            out.writeInts(g.edgeWays);
+            out.writeFloats(g.speeds);
+            out.writeInts(g.components);
+            out.writeInts(kdTree.order.array());
+            out.writeBytes(kdTree.axes.array());
+            out.writeDoubles(kdTree.xs.array());
+            out.writeDoubles(kdTree.ys.array());
+            out.writeDoubles(kdTree.zs.array());
+            out.writeInts(segments.segFrom.array());
+            out.writeInts(segments.segTo.array());
+            out.writeDoubles(segments.minX.array());
+            out.writeDoubles(segments.minY.array());
+            out.writeDoubles(segments.maxX.array());
+            out.writeDoubles(segments.maxY.array());
+            out.writeInts(segments.firstChild.array());
+            out.writeInts(segments.childCount.array());
+            out.writeLongs(g.wayIds);
+            out.writeStrings(g.wayNames);
+            out.writeStrings(g.wayMaxSpeeds);
+        });
+    }
+
+    /**
+     * Loads a graph from its snapshot.
+     * @param snapshot The snapshot file to read.
+     * @param source The OSM XML file the snapshot should have been built from. If it exists
+     *               and its length or modification time differ from what the snapshot
+     *               recorded, the snapshot is stale.
+     * @return The graph, or null if the snapshot is missing, stale, or fails validation.
+     */
+    static GraphDB read(File snapshot, File source) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            if (!readHeader(in, MAGIC, VERSION, source)) {
+                return null;
+            }
+            int n = in.readInt();
+            int m = in.readInt();
+            int w = in.readInt();
+            int s = in.readInt();
+            int r = in.readInt();
+            int leaves = in.readInt();
+            int largestComponent = in.readInt();
+            in.readInt();
+            double maxSpeed = in.readDouble();
+            double xScale = in.readDouble();
+            long arrayBytes = 57L * n + 4L * (n + 1) + 20L * m + 8L * s + 40L * r + 16L * w;
+            if (n < 0 || m < 0 || w < 0 || s < 0 || r < 0 || leaves < 0
+                    || HEADER_BYTES + arrayBytes > channel.size()) {
+                return null;
+            }
+
+            GraphDB g = new GraphDB();
+            g.ids = in.readLongs(n);
+            g.lons = in.readDoubles(n);
+            g.lats = in.readDoubles(n);
+            g.offsets = in.readInts(n + 1);
+            g.targets = in.readInts(m);
+            g.weights = in.readDoubles(m);
+            g.edgeWays = in.readInts(m);
+            g.speeds = in.readFloats(m);
+            g.maxSpeed = maxSpeed;
+            g.components = in.readInts(n);
+            g.largestComponent = largestComponent;
+            g.kdTree = new KdTree(g, IntBuffer.wrap(in.readInts(n)),
+                    ByteBuffer.wrap(in.readBytes(n)), DoubleBuffer.wrap(in.readDoubles(n)),
+                    DoubleBuffer.wrap(in.readDoubles(n)), DoubleBuffer.wrap(in.readDoubles(n)));
+            g.segmentIndex = new SegmentIndex(g, xScale, leaves,
+                    IntBuffer.wrap(in.readInts(s)), IntBuffer.wrap(in.readInts(s)),
+                    DoubleBuffer.wrap(in.readDoubles(r)), DoubleBuffer.wrap(in.readDoubles(r)),
+                    DoubleBuffer.wrap(in.readDoubles(r)), DoubleBuffer.wrap(in.readDoubles(r)),
+                    IntBuffer.wrap(in.readInts(r)), IntBuffer.wrap(in.readInts(r)));
+            g.wayIds = in.readLongs(w);
+            g.wayNames = in.readStrings(w);
+            g.wayMaxSpeeds = in.readStrings(w);
+            if (!in.checksumMatches()) {
+                return null;
+            }
+            g.buildIndex();
+            return g;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Memory-maps a snapshot and returns a graph that serves its vertices, coordinates and
+     * edges straight from the mapped sections. The checksum is not verified, since that would
+     * page in the whole file; the header is still checked for version and staleness.
+     * @param snapshot The snapshot file to map.
+     * @param source The OSM XML file the snapshot should have been built from.
+     * @return The mapped graph, or null if the snapshot is missing, stale, or malformed.
+     */
+    static GraphDB map(File snapshot, File source) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            long sourceLength = header.getLong();
+            long sourceModified = header.getLong();
+            if (source.exists() && (source.length() != sourceLength
+                    || source.lastModified() != sourceModified)) {
+                return null;
+            }
+            int n = header.getInt();
+            int m = header.getInt();
+            int w = header.getInt();
+            int s = header.getInt();
+            int r = header.getInt();
+            int leaves = header.getInt();
+            int largestComponent = header.getInt();
+            header.getInt();
+            double maxSpeed = header.getDouble();
+            double xScale = header.getDouble();
+            if (n < 0 || m < 0 || w < 0 || s < 0 || r < 0 || leaves < 0) {
+                return null;
+            }
+
+            long position = HEADER_BYTES;
+            LongBuffer ids = section(channel, position, 8L * n).asLongBuffer();
+            position += 8L * n;
+            DoubleBuffer lons = section(channel, position, 8L * n).asDoubleBuffer();
+            position += 8L * n;
+            DoubleBuffer lats = section(channel, position, 8L * n).asDoubleBuffer();
+            position += 8L * n;
+            IntBuffer offsets = section(channel, position, 4L * (n + 1)).asIntBuffer();
+            position += align(4L * (n + 1));
+            IntBuffer targets = section(channel, position, 4L * m).asIntBuffer();
+            position += align(4L * m);
+            DoubleBuffer weights = section(channel, position, 8L * m).asDoubleBuffer();
+            position += 8L * m;
+            IntBuffer edgeWays = section(channel, position, 4L * m).asIntBuffer();
+            position += align(4L * m);
+            FloatBuffer speeds = section(channel, position, 4L * m).asFloatBuffer();
+            position += align(4L * m);
+            IntBuffer components = section(channel, position, 4L * n).asIntBuffer();
+            position += align(4L * n);
+            IntBuffer order = section(channel, position, 4L * n).asIntBuffer();
+            position += align(4L * n);
+            ByteBuffer axes = section(channel, position, n);
+            position += align(n);
+            DoubleBuffer xs = section(channel, position, 8L * n).asDoubleBuffer();
+            position += 8L * n;
+            DoubleBuffer ys = section(channel, position, 8L * n).asDoubleBuffer();
+            position += 8L * n;
+            DoubleBuffer zs = section(channel, position, 8L * n).asDoubleBuffer();
+            position += 8L * n;
+            IntBuffer segFrom = section(channel, position, 4L * s).asIntBuffer();
+            position += align(4L * s);
+            IntBuffer segTo = section(channel, position, 4L * s).asIntBuffer();
+            position += align(4L * s);
+            DoubleBuffer minX = section(channel, position, 8L * r).asDoubleBuffer();
+            position += 8L * r;
+            DoubleBuffer minY = section(channel, position, 8L * r).asDoubleBuffer();
+            position += 8L * r;
+            DoubleBuffer maxX = section(channel, position, 8L * r).asDoubleBuffer();
+            position += 8L * r;
+            DoubleBuffer maxY = section(channel, position, 8L * r).asDoubleBuffer();
+            position += 8L * r;
+            IntBuffer firstChild = section(channel, position, 4L * r).asIntBuffer();
+            position += align(4L * r);
+            IntBuffer childCount = section(channel, position, 4L * r).asIntBuffer();
+            position += align(4L * r);
+            LongBuffer wayIds = section(channel, position, 8L * w).asLongBuffer();
+            position += 8L * w;
+
+            /* Way names are few and variable-length, so they are decoded onto the heap. */
+            channel.position(position);
+            Input in = new Input(channel);
+            String[] wayNames = in.readStrings(w);
+            String[] wayMaxSpeeds = in.readStrings(w);
+            GraphDB g = new MappedGraphDB(ids, lons, lats, offsets, targets, weights, edgeWays,
+                    speeds, maxSpeed, wayIds, wayNames, wayMaxSpeeds, components,
+                    largestComponent);
+            g.kdTree = new KdTree(g, order, axes, xs, ys, zs);
+            g.segmentIndex = new SegmentIndex(g, xScale, leaves, segFrom, segTo, minX, minY,
+                    maxX, maxY, firstChild, childCount);
+            return g;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Maps one little-endian section of the snapshot read-only. */
+    private static ByteBuffer section(FileChannel channel, long position, long bytes)
+            throws IOException {
+        if (position + bytes > channel.size()) {
+            throw new IOException("Section runs past the end of the snapshot");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Rounds a section length up to the 8-byte alignment used in the file. */
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /** Buffered little-endian writer that checksums everything it writes. */
+    static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buf;
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+            this.buf = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void writeInt(int x) throws IOException {
+            ensure(4);
+            buf.putInt(x);
+            position += 4;
+        }
+
+        void writeLong(long x) throws IOException {
+            ensure(8);
+            buf.putLong(x);
+            position += 8;
+        }
+
+        void writeDouble(double x) throws IOException {
+            writeLong(Double.doubleToLongBits(x));
+        }
+
+        void writeInts(int[] a) throws IOException {
+            for (int off = 0; off < a.length;) {
+                ensure(4);
+                int count = Math.min(buf.remaining() / 4, a.length - off);
+                buf.asIntBuffer().put(a, off, count);
+                buf.position(buf.position() + count * 4);
+                off += count;
+            }
+            position += 4L * a.length;
+            pad();
+        }
+
+        void writeBytes(byte[] a) throws IOException {
+            for (int off = 0; off < a.length;) {
+                ensure(1);
+                int count = Math.min(buf.remaining(), a.length - off);
+                buf.put(a, off, count);
+                off += count;
+            }
+            position += a.length;
+            pad();
+        }
+
+        void writeFloats(float[] a) throws IOException {
+            for (int off = 0; off < a.length;) {
+                ensure(4);
+                int count = Math.min(buf.remaining() / 4, a.length - off);
+                buf.asFloatBuffer().put(a, off, count);
+                buf.position(buf.position() + count * 4);
+                off += count;
+            }
+            position += 4L * a.length;
+            pad();
+        }
+
+        void writeLongs(long[] a) throws IOException {
+            for (int off = 0; off < a.length;) {
+                ensure(8);
+                int count = Math.min(buf.remaining() / 8, a.length - off);
+                buf.asLongBuffer().put(a, off, count);
+                buf.position(buf.position() + count * 8);
+                off += count;
+            }
+            position += 8L * a.length;
+        }
+
+        void writeDoubles(double[] a) throws IOException {
+            for (int off = 0; off < a.length;) {
+                ensure(8);
+                int count = Math.min(buf.remaining() / 8, a.length - off);
+                buf.asDoubleBuffer().put(a, off, count);
+                buf.position(buf.position() + count * 8);
+                off += count;
+            }
+            position += 8L * a.length;
+        }
+
+        void writeStrings(String[] a) throws IOException {
+            byte[][] encoded = new byte[a.length][];
+            int[] lengths = new int[a.length];
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] == null) {
+                    lengths[i] = -1;
+                } else {
+                    encoded[i] = a[i].getBytes(StandardCharsets.UTF_8);
+                    lengths[i] = encoded[i].length;
+                }
+            }
+            writeInts(lengths);
+            for (byte[] bytes : encoded) {
+                if (bytes == null) {
+                    continue;
+                }
+                for (int off = 0; off < bytes.length;) {
+                    ensure(1);
+                    int count = Math.min(buf.remaining(), bytes.length - off);
+                    buf.put(bytes, off, count);
+                    off += count;
+                }
+                position += bytes.length;
+            }
+            pad();
+        }
+
+        /** Flushes the buffer and appends the checksum, which is not itself checksummed. */
+        void finish() throws IOException {
+            flush();
+            buf.putLong(crc.getValue());
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+
+        private void pad() throws IOException {
+            while (position % 8 != 0) {
+                ensure(1);
+                buf.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    /** Buffered little-endian reader that checksums everything it consumes. */
+    static class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buf;
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        Input(FileChannel channel) {
+            this.channel = channel;
+            this.buf = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buf.flip();
+        }
+
+        int readInt() throws IOException {
+            ensure(4);
+            int x = buf.getInt(buf.position());
+            consume(4);
+            return x;
+        }
+
+        long readLong() throws IOException {
+            ensure(8);
+            long x = buf.getLong(buf.position());
+            consume(8);
+            return x;
+        }
+
+        double readDouble() throws IOException {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        int[] readInts(int length) throws IOException {
+            int[] a = new int[length];
+            for (int off = 0; off < length;) {
+                ensure(4);
+                int count = Math.min(buf.remaining() / 4, length - off);
+                buf.asIntBuffer().get(a, off, count);
+                consume(count * 4);
+                off += count;
+            }
+            skipPadding();
+            return a;
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] a = new byte[length];
+            for (int off = 0; off < length;) {
+                ensure(1);
+                int count = Math.min(buf.remaining(), length - off);
+                buf.duplicate().get(a, off, count);
+                consume(count);
+                off += count;
+            }
+            skipPadding();
+            return a;
+        }
+
+        float[] readFloats(int length) throws IOException {
+            float[] a = new float[length];
+            for (int off = 0; off < length;) {
+                ensure(4);
+                int count = Math.min(buf.remaining() / 4, length - off);
+                buf.asFloatBuffer().get(a, off, count);
+                consume(count * 4);
+                off += count;
+            }
+            skipPadding();
+            return a;
+        }
+
+        long[] readLongs(int length) throws IOException {
+            long[] a = new long[length];
+            for (int off = 0; off < length;) {
+                ensure(8);
+                int count = Math.min(buf.remaining() / 8, length - off);
+                buf.asLongBuffer().get(a, off, count);
+                consume(count * 8);
+                off += count;
+            }
+            return a;
+        }
+
+        double[] readDoubles(int length) throws IOException {
+            double[] a = new double[length];
+            for (int off = 0; off < length;) {
+                ensure(8);
+                int count = Math.min(buf.remaining() / 8, length - off);
+                buf.asDoubleBuffer().get(a, off, count);
+                consume(count * 8);
+                off += count;
+            }
+            return a;
+        }
+
+        String[] readStrings(int length) throws IOException {
+            int[] lengths = readInts(length);
+            String[] a = new String[length];
+            for (int i = 0; i < length; i++) {
+                if (lengths[i] < 0) {
+                    continue;
+                }
+                if (lengths[i] > channel.size() - position) {
+                    throw new IOException("String length runs past the end of the snapshot");
+                }
+                byte[] bytes = new byte[lengths[i]];
+                for (int off = 0; off < bytes.length;) {
+                    ensure(1);
+                    int count = Math.min(buf.remaining(), bytes.length - off);
+                    buf.duplicate().get(bytes, off, count);
+                    consume(count);
+                    off += count;
+                }
+                a[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            skipPadding();
+            return a;
+        }
+
+        /** Reads the trailing checksum and compares it with that of the bytes consumed. */
+        boolean checksumMatches() throws IOException {
+            long expected = crc.getValue();
+            ensure(8);
+            return buf.getLong() == expected;
+        }
+
+        private void skipPadding() throws IOException {
+            int padding = (int) ((8 - position % 8) % 8);
+            if (padding > 0) {
+                ensure(padding);
+                consume(padding);
+            }
+        }
+
+        /** Advances past bytes already copied out of the buffer, adding them to the checksum. */
+        private void consume(int bytes) {
+            ByteBuffer consumed = buf.duplicate();
+            consumed.limit(buf.position() + bytes);
+            crc.update(consumed);
+            buf.position(buf.position() + bytes);
+            position += bytes;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() >= bytes) {
+                return;
+            }
+            buf.compact();
+            while (buf.position() < bytes) {
+                if (channel.read(buf) < 0) {
+                    throw new IOException("Unexpected end of snapshot");
+                }
+            }
+            buf.flip();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Hub labels over a GraphDB: a distance oracle for callers that need the cost of the best
+ * route between two points but not the route itself. Every vertex v has a label, a list of
+ * (hub, cost) pairs, such that for any two vertices some hub on a shortest route between
+ * them is in both labels. The cost between s and t is then the smallest sum of costs over
+ * the hubs their labels share, found by a merge-join of the two labels sorted by hub, with
+ * no graph search at all.
+ *
+ * The labels are derived from a contraction hierarchy. The upward search space of v in the
+ * hierarchy, with its upward distances, is a valid label, since every shortest route has an
+ * equally short counterpart that climbs to its highest vertex and descends from there. The
+ * labels are built from the top rank down: the label of v is v itself plus the labels of its
+ * upward neighbors, shifted by the cost of the edge to each. An entry is then pruned if the
+ * labels already built show a cheaper way to its hub, since such an entry is never the one
+ * that gives a shortest route.
+ *
+ * The labels are stored as one CSR array pair: the label of v is hubs[offsets[v]] ..
+ * hubs[offsets[v + 1] - 1], sorted by vertex index, with the costs at the same positions in
+ * costs. Like the hierarchy they are built for one metric, and they are saved next to the
+ * graph's snapshot:
+ * <pre>
+ *   header   magic, version, source length, source last-modified, n, m, entries, metric
+ *   arrays   offsets int[n + 1], hubs int[entries], costs double[entries]
+ *   trailer  CRC32 of everything before it, as a long
+ * </pre>
+ */
+class HubLabels {
+    /** Suffix appended to the OSM XML path to name the saved labels. */
+    static final String SUFFIX = ".hl";
+    private static final int VERSION = 1;
+    private static final int MAGIC = 0x48554253;
+
+    /** The metric whose edge costs the labels hold. */
+    final Router.Metric metric;
+    private final int[] offsets;
+    private final int[] hubs;
+    private final double[] costs;
+    /** Edge count of the graph the labels were built for, to detect a mismatched file. */
+    private final int edgeCount;
+
+    private HubLabels(Router.Metric metric, int[] offsets, int[] hubs, double[] costs,
+                      int edgeCount) {
+        this.metric = metric;
+        this.offsets = offsets;
+        this.hubs = hubs;
+        this.costs = costs;
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * Builds the labels from g's contraction hierarchy for metric, building that first if
+     * the graph has none.
+     * @param g The graph to label.
+     * @param metric Whether edges cost their length or their travel time.
+     * @return The labels.
+     */
+    static HubLabels build(GraphDB g, Router.Metric metric) {
+        ContractionHierarchy ch = g.hierarchy(metric);
+        int n = g.size();
+        int[] byRank = new int[n];
+        for (int v = 0; v < n; v++) {
+            byRank[ch.rank[v]] = v;
+        }
+        int[][] labelHubs = new int[n][];
+        double[][] labelCosts = new double[n][];
+
+        /* the candidate label of the current vertex, as a cost per hub stamped with the
+         * vertex it belongs to, and the list of hubs that have one */
+        double[] candidate = new double[n];
+        int[] candidateOf = new int[n];
+        Arrays.fill(candidateOf, -1);
+        int[] touched = new int[16];
+        for (int r = n - 1; r >= 0; r--) {
+            int v = byRank[r];
+            int count = 0;
+            candidate[v] = 0;
+            candidateOf[v] = v;
+            touched[count++] = v;
+            for (int e = ch.upOffsets[v]; e < ch.upOffsets[v + 1]; e++) {
+                int w = ch.upTargets[e];
+                double weight = ch.upWeights[e];
+                for (int i = 0; i < labelHubs[w].length; i++) {
+                    int h = labelHubs[w][i];
+                    double cost = weight + labelCosts[w][i];
+                    if (candidateOf[h] != v) {
+                        candidateOf[h] = v;
+                        candidate[h] = cost;
+                        if (count == touched.length) {
+                            touched = Arrays.copyOf(touched, count * 2);
+                        }
+                        touched[count++] = h;
+                    } else if (cost < candidate[h]) {
+                        candidate[h] = cost;
+                    }
+                }
+            }
+
+            /* keep (h, cost) only if no hub of h's finished label offers a cheaper way */
+            long[] kept = new long[count];
+            int keptCount = 0;
+            for (int i = 0; i < count; i++) {
+                int h = touched[i];
+                if (h == v || !prunable(candidate, candidateOf, v, labelHubs[h],
+                        labelCosts[h], candidate[h])) {
+                    kept[keptCount++] = (long) h << 32 | i;
+                }
+            }
+            Arrays.sort(kept, 0, keptCount);
+            labelHubs[v] = new int[keptCount];
+            labelCosts[v] = new double[keptCount];
+            for (int i = 0; i < keptCount; i++) {
+                int h = touched[(int) kept[i]];
+                labelHubs[v][i] = h;
+                labelCosts[v][i] = candidate[h];
+            }
+        }
+
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] = offsets[v] + labelHubs[v].length;
+        }
+        int[] hubs = new int[offsets[n]];
+        double[] costs = new double[offsets[n]];
+        for (int v = 0; v < n; v++) {
+            System.arraycopy(labelHubs[v], 0, hubs, offsets[v], labelHubs[v].length);
+            System.arraycopy(labelCosts[v], 0, costs, offsets[v], labelCosts[v].length);
+        }
+        return new HubLabels(metric, offsets, hubs, costs, g.edgeCount());
+    }
+
+    /**
+     * Returns whether the candidate label of v reaches hub h more cheaply than cost through
+     * one of the hubs of h's label.
+     */
+    private static boolean prunable(double[] candidate, int[] candidateOf, int v,
+                                    int[] hHubs, double[] hCosts, double cost) {
+        for (int i = 0; i < hHubs.length; i++) {
+            int x = hHubs[i];
+            if (candidateOf[x] == v && candidate[x] + hCosts[i] < cost) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the cost of the best route between two vertices.
+     * @return The cost, or Double.POSITIVE_INFINITY if there is no route.
+     */
+    double distance(int s, int t) {
+        double best = Double.POSITIVE_INFINITY;
+        int i = offsets[s];
+        int iEnd = offsets[s + 1];
+        int j = offsets[t];
+        int jEnd = offsets[t + 1];
+        while (i < iEnd && j < jEnd) {
+            int a = hubs[i];
+            int b = hubs[j];
+            if (a == b) {
+                best = Math.min(best, costs[i] + costs[j]);
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the cost of the best route from a set of sources to a set of targets, with the
+     * same contract as the searches in Router: each source starts with the given cost, and
+     * reaching a target completes the route at that target's extra cost.
+     * @return The cost, or Double.POSITIVE_INFINITY if no target is reachable.
+     */
+    double distance(int[] sources, double[] sourceCosts, int[] targets, double[] targetCosts) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < targets.length; j++) {
+                best = Math.min(best, sourceCosts[i] + distance(sources[i], targets[j])
+                        + targetCosts[j]);
+            }
+        }
+        return best;
+    }
+
+    /** Returns the number of (hub, cost) entries over all labels. */
+    int entries() {
+        return hubs.length;
+    }
+
+    /** Returns the suffix appended to the OSM XML path to name the labels for metric. */
+    static String suffix(Router.Metric metric) {
+        return metric == Router.Metric.DISTANCE ? SUFFIX
+                : "." + metric.name().toLowerCase(Locale.ROOT) + SUFFIX;
+    }
+
+    /**
+     * Returns the labels for the graph of an OSM XML file, reading them from the file next
+     * to the XML when that is present and up to date, and otherwise building them and saving
+     * them for the next start.
+     * @param g The graph loaded from dbPath.
+     * @param dbPath Path to the OSM XML file.
+     * @param metric Whether edges cost their length or their travel time.
+     * @return The labels.
+     */
+    static HubLabels load(GraphDB g, String dbPath, Router.Metric metric) {
+        return GraphSnapshot.loadOrBuild(dbPath, suffix(metric),
+                (file, source) -> read(g, file, source), labels -> labels.metric == metric,
+                () -> build(g, metric), HubLabels::write);
+    }
+
+    /**
+     * Writes the labels to file with GraphSnapshot.write().
+     * @param labels The labels to save.
+     * @param file The file to write.
+     * @param source The OSM XML file the graph was built from, recorded to detect staleness.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(HubLabels labels, File file, File source) throws IOException {
+        GraphSnapshot.write(file, MAGIC, VERSION, source, out -> {
+            out.writeInt(labels.offsets.length - 1);
+            out.writeInt(labels.edgeCount);
+            out.writeInt(labels.hubs.length);
+            out.writeInt(labels.metric.ordinal());
+
+            out.writeInts(labels.offsets);
+            out.writeInts(labels.hubs);
+            out.writeDoubles(labels.costs);
+        });
+    }
+
+    /**
+     * Reads saved labels for g.
+     * @param g The graph the labels were built for.
+     * @param file The file to read.
+     * @param source The OSM XML file g was built from.
+     * @return The labels, or null if the file is missing, stale, does not match the size of
+     *         g, or fails validation.
+     */
+    static HubLabels read(GraphDB g, File file, File source) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            GraphSnapshot.Input in = new GraphSnapshot.Input(channel);
+            if (!GraphSnapshot.readHeader(in, MAGIC, VERSION, source)) {
+                return null;
+            }
+            int n = in.readInt();
+            int m = in.readInt();
+            int entries = in.readInt();
+            int metric = in.readInt();
+            if (n != g.size() || m != g.edgeCount() || entries < 0 || metric < 0
+                    || metric >= Router.Metric.values().length
+                    || 4L * n + 12L * entries > channel.size()) {
+                return null;
+            }
+
+            int[] offsets = in.readInts(n + 1);
+            int[] hubs = in.readInts(entries);
+            double[] costs = in.readDoubles(entries);
+            if (!in.checksumMatches() || offsets[0] != 0 || offsets[n] != entries) {
+                return null;
+            }
+            return new HubLabels(Router.Metric.values()[metric], offsets, hubs, costs, m);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
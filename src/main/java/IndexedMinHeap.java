@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * Indexed 4-ary min-heap of dense vertex indices keyed by doubles, used as the fringe of every
+ * search in the router. Each vertex is in the heap at most once and its position is tracked,
+ * so an improved distance lowers the key in place instead of adding another entry, and the
+ * heap never holds more than one slot per vertex. Nothing is allocated after construction.
+ *
+ * A 4-ary heap is shallower than a binary one, and the four children of a node sit next to
+ * each other in the arrays, so sift-down touches fewer cache lines. Keys are stored by heap
+ * position alongside the vertices for the same reason.
+ */
+class IndexedMinHeap {
+    private static final int ARITY = 4;
+
+    /** Vertex at each heap position. */
+    private final int[] heap;
+    /** Key of the vertex at each heap position. */
+    private final double[] keys;
+    /** Heap position of each vertex, or -1 if it is not in the heap. */
+    private final int[] position;
+    private int size;
+
+    /**
+     * Creates an empty heap for the vertex indices 0 .. capacity - 1.
+     * @param capacity The number of vertices.
+     */
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns whether vertex v is in the heap. */
+    boolean contains(int v) {
+        return position[v] >= 0;
+    }
+
+    /**
+     * Inserts vertex v with the given key, or changes its key if it is already in the heap.
+     * @param v The vertex index.
+     * @param key The new key.
+     */
+    void push(int v, double key) {
+        int i = position[v];
+        if (i < 0) {
+            i = size++;
+            heap[i] = v;
+            keys[i] = key;
+            position[v] = i;
+            siftUp(i);
+        } else if (key < keys[i]) {
+            keys[i] = key;
+            siftUp(i);
+        } else {
+            keys[i] = key;
+            siftDown(i);
+        }
+    }
+
+    /** Returns the vertex with the smallest key. The heap must not be empty. */
+    int peek() {
+        return heap[0];
+    }
+
+    /** Returns the smallest key, or positive infinity if the heap is empty. */
+    double peekKey() {
+        return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+    }
+
+    /** Removes and returns the vertex with the smallest key. The heap must not be empty. */
+    int poll() {
+        int v = heap[0];
+        position[v] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            keys[0] = keys[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return v;
+    }
+
+    /** Removes every vertex, in time proportional to the number removed. */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double key = keys[i];
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        place(v, key, i);
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double key = keys[i];
+        while (true) {
+            int first = ARITY * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + ARITY, size);
+            int min = first;
+            for (int c = first + 1; c < last; c++) {
+                if (keys[c] < keys[min]) {
+                    min = c;
+                }
+            }
+            if (keys[min] >= key) {
+                break;
+            }
+            move(min, i);
+            i = min;
+        }
+        place(v, key, i);
+    }
+
+    /** Moves the entry at position from to position to. */
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        keys[to] = keys[from];
+        position[heap[to]] = to;
+    }
+
+    private void place(int v, double key, int i) {
+        heap[i] = v;
+        keys[i] = key;
+        position[v] = i;
+    }
+}
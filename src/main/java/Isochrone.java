@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * The part of the road network reachable from a point within a budget of distance or travel
+ * time: the reachable vertices with their costs, and a polygon around them.
+ *
+ * The search is Dijkstra's algorithm from the point, stopped as soon as the closest vertex on
+ * the fringe is over budget, in the calling thread's pooled SearchState, so a request costs
+ * time and memory in proportion to the area it reaches rather than the size of the graph.
+ *
+ * The boundary is star-shaped around the start: the area around the start is divided into
+ * SECTORS equal angles, and the polygon joins, in angular order, the farthest reachable point
+ * of each sector. Reachable points are the reached vertices and, on every road leaving one of
+ * them that the budget runs out on, the point where it does. This keeps the bays between
+ * roads that a convex hull would fill in, with a bounded number of corners however many
+ * vertices are reached.
+ */
+class Isochrone {
+    /** Number of angular sectors, and so the most corners the boundary can have. */
+    static final int SECTORS = 72;
+    private static final double MILES_PER_DEGREE = 3963 * Math.PI / 180;
+
+    /** OSM ids of the reachable vertices, in increasing order of cost. */
+    final long[] ids;
+    /** The cost of reaching each of them, in miles or hours. */
+    final double[] costs;
+    /** The corners of the boundary polygon, counterclockwise. */
+    final double[] boundaryLons;
+    final double[] boundaryLats;
+
+    private Isochrone(long[] ids, double[] costs, double[] boundaryLons,
+                      double[] boundaryLats) {
+        this.ids = ids;
+        this.costs = costs;
+        this.boundaryLons = boundaryLons;
+        this.boundaryLats = boundaryLats;
+    }
+
+    /**
+     * Returns the area reachable from a point within a budget.
+     * @param g The graph.
+     * @param start The point, attached to g.
+     * @param budget The largest cost allowed, in miles or in hours as metric says.
+     * @param metric Whether edges cost their length or their travel time.
+     * @param traffic The traffic speeds to cost travel time at, or null for the speed limits.
+     * @return The reachable vertices and the boundary around them.
+     */
+    static Isochrone compute(GraphDB g, Router.Endpoint start, double budget,
+                             Router.Metric metric, TrafficOverlay.Snapshot traffic) {
+        SearchState state = SearchState.get(0, g.size());
+        IndexedMinHeap fringe = state.fringe;
+        for (int k = 0; k < start.vertices.length; k++) {
+            int s = start.vertices[k];
+            if (start.costs[k] <= budget && start.costs[k] < state.distTo(s)) {
+                state.reach(s, start.costs[k], s, -1);
+                fringe.push(s, start.costs[k]);
+            }
+        }
+
+        int count = 0;
+        long[] ids = new long[16];
+        double[] costs = new double[16];
+        Boundary boundary = new Boundary(start.lon, start.lat);
+        while (!fringe.isEmpty() && fringe.peekKey() <= budget) {
+            int u = fringe.poll();
+            state.settle(u);
+            double distToU = state.distTo(u);
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                costs = Arrays.copyOf(costs, count * 2);
+            }
+            ids[count] = g.idAt(u);
+            costs[count] = distToU;
+            count++;
+            boundary.add(g.lonAt(u), g.latAt(u));
+
+            for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+                int v = g.edgeTarget(e);
+                double cost = Router.edgeCost(g, traffic, e, metric);
+                double newDistToV = distToU + cost;
+                if (newDistToV > budget) {
+                    /* the budget runs out part-way along this road */
+                    double f = (budget - distToU) / cost;
+                    boundary.add(g.lonAt(u) + f * (g.lonAt(v) - g.lonAt(u)),
+                            g.latAt(u) + f * (g.latAt(v) - g.latAt(u)));
+                } else if (!state.settled(v) && state.distTo(v) > newDistToV) {
+                    state.reach(v, newDistToV, u, e);
+                    fringe.push(v, newDistToV);
+                }
+            }
+        }
+        double[][] polygon = boundary.polygon();
+        return new Isochrone(Arrays.copyOf(ids, count), Arrays.copyOf(costs, count),
+                polygon[0], polygon[1]);
+    }
+
+    /** The farthest point seen so far in each angular sector around a center. */
+    private static class Boundary {
+        private final double centerLon;
+        private final double centerLat;
+        private final double xScale;
+        private final double[] lons = new double[SECTORS];
+        private final double[] lats = new double[SECTORS];
+        private final double[] distances2 = new double[SECTORS];
+
+        Boundary(double centerLon, double centerLat) {
+            this.centerLon = centerLon;
+            this.centerLat = centerLat;
+            this.xScale = Math.cos(Math.toRadians(centerLat));
+            Arrays.fill(distances2, -1);
+        }
+
+        void add(double lon, double lat) {
+            double x = (lon - centerLon) * xScale * MILES_PER_DEGREE;
+            double y = (lat - centerLat) * MILES_PER_DEGREE;
+            double angle = Math.atan2(y, x) + Math.PI;
+            int sector = Math.min(SECTORS - 1, (int) (angle / (2 * Math.PI) * SECTORS));
+            double d2 = x * x + y * y;
+            if (d2 > distances2[sector]) {
+                distances2[sector] = d2;
+                lons[sector] = lon;
+                lats[sector] = lat;
+            }
+        }
+
+        /** Returns the longitudes and latitudes of the corners, skipping empty sectors. */
+        double[][] polygon() {
+            int corners = 0;
+            for (double d2 : distances2) {
+                corners += d2 >= 0 ? 1 : 0;
+            }
+            double[][] polygon = new double[2][corners];
+            int i = 0;
+            for (int sector = 0; sector < SECTORS; sector++) {
+                if (distances2[sector] >= 0) {
+                    polygon[0][i] = lons[sector];
+                    polygon[1][i] = lats[sector];
+                    i++;
+                }
+            }
+            return polygon;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Static balanced k-d tree over the vertices of a GraphDB, used for nearest-vertex lookups.
+ * Each vertex is stored as a point on the unit sphere, so the straight-line (chord) distance
+ * between two points grows monotonically with their great-circle distance and the usual
+ * splitting-plane bounds stay exact anywhere on the globe. Candidates that survive pruning
+ * are compared by GraphDB.distance, ties going to the smaller vertex index, which is exactly
+ * what a linear scan over the vertices returns.
+ *
+ * The tree is implicit: the subtree of positions [lo, hi) has its splitting point at
+ * mid = (lo + hi) / 2, with the left subtree in [lo, mid) and the right in [mid + 1, hi).
+ * Each node splits on the axis along which its points are most spread out.
+ *
+ * The arrays are held as buffers, on the heap when the tree is built here and as mapped
+ * sections when GraphSnapshot.map() reads it back from a snapshot, so that a MappedGraphDB
+ * keeps its nearest-vertex index off the heap along with its coordinates.
+ */
+class KdTree {
+    /** Mean Earth radius in miles, matching GraphDB.distance. */
+    private static final double EARTH_RADIUS = 3963;
+    /** Relative slack on squared chords, so rounding never prunes a true nearest vertex. */
+    private static final double SLACK = 1e-9;
+
+    private final GraphDB g;
+    /**
+     * Vertex index stored at each tree position. This and the other buffers are
+     * package-private so that GraphSnapshot can save and restore them.
+     */
+    final IntBuffer order;
+    /** Unit-sphere coordinates of the vertex at each tree position. */
+    final DoubleBuffer xs;
+    final DoubleBuffer ys;
+    final DoubleBuffer zs;
+    /** Splitting axis (0 = x, 1 = y, 2 = z) of the node at each tree position. */
+    final ByteBuffer axes;
+
+    /**
+     * Builds the tree over every vertex of g in O(n log n) expected time.
+     * @param g The graph to index.
+     */
+    KdTree(GraphDB g) {
+        this.g = g;
+        int n = g.size();
+        order = IntBuffer.allocate(n);
+        xs = DoubleBuffer.allocate(n);
+        ys = DoubleBuffer.allocate(n);
+        zs = DoubleBuffer.allocate(n);
+        axes = ByteBuffer.allocate(n);
+        double[] point = new double[3];
+        for (int v = 0; v < n; v++) {
+            order.put(v, v);
+            toUnitVector(g.lonAt(v), g.latAt(v), point);
+            xs.put(v, point[0]);
+            ys.put(v, point[1]);
+            zs.put(v, point[2]);
+        }
+        build(0, n);
+    }
+
+    /**
+     * Wraps a tree that was built earlier and saved, typically sections of a snapshot.
+     * @param g The graph the tree indexes.
+     * @param order Vertex index at each tree position.
+     * @param axes Splitting axis at each tree position.
+     * @param xs Unit-sphere x coordinate at each tree position.
+     * @param ys Unit-sphere y coordinate at each tree position.
+     * @param zs Unit-sphere z coordinate at each tree position.
+     */
+    KdTree(GraphDB g, IntBuffer order, ByteBuffer axes, DoubleBuffer xs, DoubleBuffer ys,
+           DoubleBuffer zs) {
+        this.g = g;
+        this.order = order;
+        this.axes = axes;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+    }
+
+    /** Returns the number of points in the tree. */
+    int size() {
+        return order.limit();
+    }
+
+    /**
+     * Returns the vertex index closest to the given point by great-circle distance.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The index of the closest vertex, or -1 if the tree is empty.
+     */
+    int nearest(double lon, double lat) {
+        int[] result = nearest(lon, lat, 1);
+        return result.length == 0 ? -1 : result[0];
+    }
+
+    /**
+     * Returns the vertex index of the given connected component closest to the given point.
+     * Vertices of other components are skipped, but still never prune a subtree that could
+     * hold a closer vertex of the component.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param component The component, as numbered by GraphDB.componentAt(), or -1 for any.
+     * @return The index of the closest vertex, or -1 if the component has none.
+     */
+    int nearestInComponent(double lon, double lat, int component) {
+        Search search = new Search(lon, lat, Math.min(1, order.limit()), component);
+        if (search.capacity > 0) {
+            search.visit(0, order.limit());
+        }
+        int[] result = search.sorted();
+        return result.length == 0 ? -1 : result[0];
+    }
+
+    /**
+     * Returns the k vertex indices closest to the given point, nearest first.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of vertices wanted.
+     * @return Up to k vertex indices in increasing order of distance.
+     */
+    int[] nearest(double lon, double lat, int k) {
+        Search search = new Search(lon, lat, Math.min(k, order.limit()), -1);
+        if (search.capacity > 0) {
+            search.visit(0, order.limit());
+        }
+        return search.sorted();
+    }
+
+    /**
+     * Returns every vertex index within the given great-circle distance of a point.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param radius The distance in miles.
+     * @return The matching vertex indices, nearest first.
+     */
+    int[] within(double lon, double lat, double radius) {
+        double angle = Math.min(radius / EARTH_RADIUS, Math.PI);
+        double chord = 2 * Math.sin(angle / 2);
+        double[] q = new double[3];
+        toUnitVector(lon, lat, q);
+        IntList found = new IntList();
+        collect(0, order.limit(), q, chord * chord * (1 + SLACK) + Double.MIN_NORMAL,
+                found);
+
+        int count = 0;
+        int[] result = new int[found.size];
+        double[] distances = new double[found.size];
+        for (int i = 0; i < found.size; i++) {
+            int v = found.items[i];
+            double d = GraphDB.distance(lon, lat, g.lonAt(v), g.latAt(v));
+            if (d <= radius) {
+                result[count] = v;
+                distances[count] = d;
+                count++;
+            }
+        }
+        return sortByDistance(result, distances, count);
+    }
+
+    private void collect(int lo, int hi, double[] q, double maxChord2, IntList found) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (chord2(mid, q) <= maxChord2) {
+            found.add(order.get(mid));
+        }
+        double diff = coordinate(q, axes.get(mid)) - coordinate(mid, axes.get(mid));
+        if (diff <= 0 || diff * diff <= maxChord2) {
+            collect(lo, mid, q, maxChord2, found);
+        }
+        if (diff >= 0 || diff * diff <= maxChord2) {
+            collect(mid + 1, hi, q, maxChord2, found);
+        }
+    }
+
+    /** State of one k-nearest query: a bounded max-heap of the best candidates so far. */
+    private class Search {
+        private final double lon;
+        private final double lat;
+        private final double[] q = new double[3];
+        private final int capacity;
+        /** The only component whose vertices are offered, or -1 for all of them. */
+        private final int component;
+        private final int[] heap;
+        private final double[] heapDistances;
+        private final double[] heapChords;
+        private int size;
+
+        Search(double lon, double lat, int capacity, int component) {
+            this.lon = lon;
+            this.lat = lat;
+            this.capacity = Math.max(capacity, 0);
+            this.component = component;
+            this.heap = new int[this.capacity];
+            this.heapDistances = new double[this.capacity];
+            this.heapChords = new double[this.capacity];
+            toUnitVector(lon, lat, q);
+        }
+
+        /** Squared chord beyond which no point can enter the heap, with rounding slack. */
+        private double bound() {
+            if (size < capacity) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return heapChords[0] * (1 + SLACK) + Double.MIN_NORMAL;
+        }
+
+        void visit(int lo, int hi) {
+            if (lo >= hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            double c2 = chord2(mid, q);
+            int v = order.get(mid);
+            if (c2 <= bound() && (component < 0 || g.componentAt(v) == component)) {
+                offer(v, GraphDB.distance(lon, lat, g.lonAt(v), g.latAt(v)), c2);
+            }
+            double diff = coordinate(q, axes.get(mid)) - coordinate(mid, axes.get(mid));
+            int nearLo = diff < 0 ? lo : mid + 1;
+            int nearHi = diff < 0 ? mid : hi;
+            int farLo = diff < 0 ? mid + 1 : lo;
+            int farHi = diff < 0 ? hi : mid;
+            visit(nearLo, nearHi);
+            if (diff * diff <= bound()) {
+                visit(farLo, farHi);
+            }
+        }
+
+        /** Whether candidate (v, d) ranks after candidate (w, e): farther, or tied and larger. */
+        private boolean after(int v, double d, int w, double e) {
+            return d > e || (d == e && v > w);
+        }
+
+        private void offer(int v, double d, double c2) {
+            if (size < capacity) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (!after(v, d, heap[parent], heapDistances[parent])) {
+                        break;
+                    }
+                    set(i, heap[parent], heapDistances[parent], heapChords[parent]);
+                    i = parent;
+                }
+                set(i, v, d, c2);
+            } else if (after(heap[0], heapDistances[0], v, d)) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && after(heap[child + 1], heapDistances[child + 1],
+                            heap[child], heapDistances[child])) {
+                        child++;
+                    }
+                    if (!after(heap[child], heapDistances[child], v, d)) {
+                        break;
+                    }
+                    set(i, heap[child], heapDistances[child], heapChords[child]);
+                    i = child;
+                }
+                set(i, v, d, c2);
+            }
+        }
+
+        private void set(int i, int v, double d, double c2) {
+            heap[i] = v;
+            heapDistances[i] = d;
+            heapChords[i] = c2;
+        }
+
+        int[] sorted() {
+            return sortByDistance(heap.clone(), heapDistances.clone(), size);
+        }
+    }
+
+    /** Returns the first count vertices sorted by distance, ties by index (a merge sort). */
+    private static int[] sortByDistance(int[] vertices, double[] distances, int count) {
+        int[] v = new int[count];
+        double[] d = new double[count];
+        System.arraycopy(vertices, 0, v, 0, count);
+        System.arraycopy(distances, 0, d, 0, count);
+        int[] tmpV = new int[count];
+        double[] tmpD = new double[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (j >= hi || (i < mid && (d[i] < d[j] || (d[i] == d[j] && v[i] < v[j])))) {
+                        tmpV[k] = v[i];
+                        tmpD[k] = d[i++];
+                    } else {
+                        tmpV[k] = v[j];
+                        tmpD[k] = d[j++];
+                    }
+                }
+                System.arraycopy(tmpV, lo, v, lo, hi - lo);
+                System.arraycopy(tmpD, lo, d, lo, hi - lo);
+            }
+        }
+        return v;
+    }
+
+    private void build(int lo, int hi) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int axis = widestAxis(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        axes.put(mid, (byte) axis);
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    private int widestAxis(int lo, int hi) {
+        double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = lo; i < hi; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                double c = coordinate(i, axis);
+                min[axis] = Math.min(min[axis], c);
+                max[axis] = Math.max(max[axis], c);
+            }
+        }
+        int widest = 0;
+        for (int axis = 1; axis < 3; axis++) {
+            if (max[axis] - min[axis] > max[widest] - min[widest]) {
+                widest = axis;
+            }
+        }
+        return widest;
+    }
+
+    /** Quickselect: rearranges positions [lo, hi] so that position k holds its median. */
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            double pivot = coordinate((lo + hi) >>> 1, axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(i, axis) < pivot) {
+                    i++;
+                }
+                while (coordinate(j, axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int v = order.get(i);
+        order.put(i, order.get(j));
+        order.put(j, v);
+        double t = xs.get(i);
+        xs.put(i, xs.get(j));
+        xs.put(j, t);
+        t = ys.get(i);
+        ys.put(i, ys.get(j));
+        ys.put(j, t);
+        t = zs.get(i);
+        zs.put(i, zs.get(j));
+        zs.put(j, t);
+    }
+
+    private double coordinate(int position, int axis) {
+        return axis == 0 ? xs.get(position) : axis == 1 ? ys.get(position) : zs.get(position);
+    }
+
+    private static double coordinate(double[] point, int axis) {
+        return point[axis];
+    }
+
+    private double chord2(int position, double[] q) {
+        double dx = xs.get(position) - q[0];
+        double dy = ys.get(position) - q[1];
+        double dz = zs.get(position) - q[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static void toUnitVector(double lon, double lat, double[] out) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        out[0] = Math.cos(phi) * Math.cos(lambda);
+        out[1] = Math.cos(phi) * Math.sin(lambda);
+        out[2] = Math.sin(phi);
+    }
+
+    /** Minimal growable int array for collecting query results. */
+    private static class IntList {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int x) {
+            if (size == items.length) {
+                int[] bigger = new int[size * 2];
+                System.arraycopy(items, 0, bigger, 0, size);
+                items = bigger;
+            }
+            items[size++] = x;
+        }
+    }
+}
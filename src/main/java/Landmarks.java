@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Landmark distance tables for the ALT heuristic (A*, landmarks, triangle inequality). For a
+ * landmark L and any vertices v and t, the triangle inequality gives
+ * d(v, t) >= |d(L, t) - d(L, v)|, so the largest of these bounds over all landmarks is an
+ * admissible and consistent heuristic. Landmarks on the far side of the map from v bound its
+ * distance to t much more tightly than the great-circle distance does whenever the roads
+ * have to go around something.
+ *
+ * Landmarks are chosen by farthest selection: each new landmark is the vertex farthest by
+ * road from the landmarks already chosen, starting from the middle of the map. Roads are
+ * undirected, so the distances from and to a landmark are the same and one table serves
+ * both directions. The table is vertex-major, distances[v * k + i] being the distance from
+ * landmark i to vertex v (infinite if v cannot be reached), so one heuristic evaluation reads
+ * k adjacent values.
+ *
+ * The tables are saved next to the OSM file:
+ * <pre>
+ *   header   magic, version, source length, source last-modified, n, m, k, 4 reserved bytes
+ *   arrays   landmarks int[k], distances double[n * k]
+ *   trailer  CRC32 of everything before it, as a long
+ * </pre>
+ */
+class Landmarks {
+    /** Suffix appended to the OSM XML path to name the saved tables. */
+    static final String SUFFIX = ".landmarks";
+    /** Number of landmarks used when none is given. */
+    static final int DEFAULT_COUNT = 16;
+    private static final int VERSION = 1;
+    private static final int MAGIC = 0x414C5431;
+
+    private final int k;
+    /** Vertex index of each landmark. */
+    final int[] landmarks;
+    final double[] distances;
+
+    private Landmarks(int[] landmarks, double[] distances) {
+        this.k = landmarks.length;
+        this.landmarks = landmarks;
+        this.distances = distances;
+    }
+
+    /**
+     * Chooses count landmarks in g and computes their distance tables, with one Dijkstra
+     * search per landmark.
+     * @param g The graph.
+     * @param count The number of landmarks wanted; fewer are chosen on a tiny graph.
+     * @return The landmark tables.
+     */
+    static Landmarks build(GraphDB g, int count) {
+        int n = g.size();
+        count = Math.min(count, n);
+        int[] chosen = new int[count];
+        double[] distances = new double[n * count];
+        if (count == 0) {
+            return new Landmarks(chosen, distances);
+        }
+
+        /* distance from each vertex to its nearest landmark so far */
+        double[] nearest = shortestDistances(g, middle(g));
+        for (int i = 0; i < count; i++) {
+            int landmark = farthest(nearest);
+            chosen[i] = landmark;
+            double[] fromLandmark = shortestDistances(g, landmark);
+            for (int v = 0; v < n; v++) {
+                distances[v * count + i] = fromLandmark[v];
+                nearest[v] = i == 0 ? fromLandmark[v] : Math.min(nearest[v], fromLandmark[v]);
+            }
+        }
+        return new Landmarks(chosen, distances);
+    }
+
+    /** Returns the vertex closest to the center of the bounding box of g. */
+    private static int middle(GraphDB g) {
+        double minLon = Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        double minLat = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        for (int v = 0; v < g.size(); v++) {
+            minLon = Math.min(minLon, g.lonAt(v));
+            maxLon = Math.max(maxLon, g.lonAt(v));
+            minLat = Math.min(minLat, g.latAt(v));
+            maxLat = Math.max(maxLat, g.latAt(v));
+        }
+        return g.closestIndex((minLon + maxLon) / 2, (minLat + maxLat) / 2);
+    }
+
+    /** Returns the vertex with the largest finite distance, the smallest index on ties. */
+    private static int farthest(double[] distances) {
+        int best = 0;
+        for (int v = 1; v < distances.length; v++) {
+            if (distances[v] != Double.POSITIVE_INFINITY && (distances[best]
+                    == Double.POSITIVE_INFINITY || distances[v] > distances[best])) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Dijkstra's algorithm from source over the whole graph. */
+    private static double[] shortestDistances(GraphDB g, int source) {
+        double[] distTo = new double[g.size()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        distTo[source] = 0;
+        IndexedMinHeap fringe = new IndexedMinHeap(g.size());
+        fringe.push(source, 0);
+        while (!fringe.isEmpty()) {
+            int u = fringe.poll();
+            for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+                int v = g.edgeTarget(e);
+                double newDistToV = distTo[u] + g.edgeWeight(e);
+                if (newDistToV < distTo[v]) {
+                    distTo[v] = newDistToV;
+                    fringe.push(v, newDistToV);
+                }
+            }
+        }
+        return distTo;
+    }
+
+    /**
+     * Returns the landmark tables for the graph of an OSM XML file, reading them from the
+     * file next to the XML when that is present, up to date and built with the same number
+     * of landmarks, and otherwise building them and saving them for the next start.
+     * @param g The graph loaded from dbPath.
+     * @param dbPath Path to the OSM XML file.
+     * @param count The number of landmarks.
+     * @return The landmark tables.
+     */
+    static Landmarks load(GraphDB g, String dbPath, int count) {
+        return GraphSnapshot.loadOrBuild(dbPath, SUFFIX, (file, source) -> read(g, file, source),
+                landmarks -> landmarks.k == Math.min(count, g.size()), () -> build(g, count),
+                (landmarks, file, source) -> write(landmarks, g, file, source));
+    }
+
+    /**
+     * Writes the tables to file with GraphSnapshot.write().
+     * @param landmarks The tables to save.
+     * @param g The graph they were built for.
+     * @param file The file to write.
+     * @param source The OSM XML file g was built from, recorded to detect staleness.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(Landmarks landmarks, GraphDB g, File file, File source)
+            throws IOException {
+        GraphSnapshot.write(file, MAGIC, VERSION, source, out -> {
+            out.writeInt(g.size());
+            out.writeInt(g.edgeCount());
+            out.writeInt(landmarks.k);
+            out.writeInt(0);
+
+            out.writeInts(landmarks.landmarks);
+            out.writeDoubles(landmarks.distances);
+        });
+    }
+
+    /**
+     * Reads saved landmark tables for g.
+     * @param g The graph the tables were built for.
+     * @param file The file to read.
+     * @param source The OSM XML file g was built from.
+     * @return The tables, or null if the file is missing, stale, does not match the size of
+     *         g, or fails validation.
+     */
+    static Landmarks read(GraphDB g, File file, File source) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            GraphSnapshot.Input in = new GraphSnapshot.Input(channel);
+            if (!GraphSnapshot.readHeader(in, MAGIC, VERSION, source)) {
+                return null;
+            }
+            int n = in.readInt();
+            int m = in.readInt();
+            int k = in.readInt();
+            in.readInt();
+            if (n != g.size() || m != g.edgeCount() || k < 0
+                    || 8L * n * k > channel.size()) {
+                return null;
+            }
+
+            int[] landmarks = in.readInts(k);
+            double[] distances = in.readDoubles(n * k);
+            if (!in.checksumMatches()) {
+                return null;
+            }
+            return new Landmarks(landmarks, distances);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns a lower bound on the road distance between vertex indices v and t: infinite if
+     * some landmark reaches exactly one of them, since then they are not connected.
+     */
+    double lowerBound(int v, int t) {
+        double bound = 0;
+        int vi = v * k;
+        int ti = t * k;
+        for (int i = 0; i < k; i++) {
+            double dv = distances[vi + i];
+            double dt = distances[ti + i];
+            if (dv == Double.POSITIVE_INFINITY || dt == Double.POSITIVE_INFINITY) {
+                if (dv != dt) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                continue;
+            }
+            bound = Math.max(bound, Math.abs(dt - dv));
+        }
+        return bound;
+    }
+
+    /**
+     * Returns a lower bound on the cost of finishing a route from v at the best of the
+     * targets, reaching target i completing the route at an extra cost targetCosts[i]. Road
+     * distance bounds are multiplied by perMile to bound the cost of the route, which is
+     * what lets the distance tables serve fastest routes too.
+     */
+    double lowerBound(int v, int[] targets, double[] targetCosts, double perMile) {
+        double bound = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < targets.length; i++) {
+            bound = Math.min(bound, lowerBound(v, targets[i]) * perMile + targetCosts[i]);
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive longs to primitive ints. Used to translate 64-bit
+ * OSM ids into dense vertex indices without boxing either side. Keys are stored in a flat
+ * array with linear probing; Long.MIN_VALUE marks an empty slot, so it cannot be used as a key.
+ */
+public class LongIntHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double MAX_LOAD = 0.5;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private final int missing;
+
+    /**
+     * Creates a map sized to hold the expected number of keys without resizing.
+     * @param expectedSize The number of keys the map is expected to hold.
+     * @param missing The value get() returns for keys that are not in the map.
+     */
+    public LongIntHashMap(int expectedSize, int missing) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        this.missing = missing;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /** Spreads the bits of a key so that sequential OSM ids do not cluster. */
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * Returns the value stored for key, or the missing value given at construction.
+     * @param key The key to look up.
+     * @return The value for key.
+     */
+    public int get(long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missing;
+    }
+
+    /**
+     * Returns whether key is in the map.
+     * @param key The key to look up.
+     * @return True if the map holds a value for key.
+     */
+    public boolean containsKey(long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Associates value with key, replacing any previous value.
+     * @param key The key, which must not be Long.MIN_VALUE.
+     * @param value The value to store.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Long.MIN_VALUE is reserved as the empty key");
+        }
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size > keys.length * MAX_LOAD) {
+            resize(keys.length << 1);
+        }
+    }
+
+    /** Returns the number of keys in the map. */
+    public int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
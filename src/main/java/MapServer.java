@@ -4,6 +4,10 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -17,6 +21,10 @@ import java.io.IOException;
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 
 import static spark.Spark.*;
 
@@ -51,6 +59,72 @@ public class MapServer {
      * using custom region selection.
      **/
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /**
+     * Whether to serve the graph from a memory-mapped snapshot instead of heap arrays. Useful
+     * for large extracts, or when several servers on one machine should share the graph.
+     */
+    private static final boolean USE_MAPPED_GRAPH = false;
+    /**
+     * Whether routes start and end at the closest point on the closest road segment rather
+     * than at the closest intersection, so a click mid-block does not detour to a corner.
+     */
+    private static final boolean SNAP_TO_ROAD_SEGMENTS = true;
+    /**
+     * Whether routes are snapped into the largest connected piece of the road network, so a
+     * click beside an isolated stretch of road is routed from the nearest connected road.
+     */
+    private static final boolean SNAP_TO_LARGEST_COMPONENT = true;
+    /**
+     * The search used by /route. ASTAR needs no preprocessing. The contraction hierarchy or
+     * landmark tables the others need are loaded from next to the OSM file at startup, or
+     * built and saved there the first time; the CRP overlay is built and customized at
+     * startup.
+     */
+    private static final Router.Algorithm ROUTE_ALGORITHM = Router.Algorithm.ASTAR;
+    /** Whether /route finds the shortest route or the fastest one at the speed limits. */
+    private static final Router.Metric ROUTE_METRIC = Router.Metric.DISTANCE;
+    /** The most routes kept in the route cache. */
+    private static final int ROUTE_CACHE_SIZE = 10000;
+    /**
+     * The most vertices one route search may settle, and how long a /route request may
+     * search, before it gives up and reports why.
+     */
+    private static final int ROUTE_SETTLE_LIMIT = 2000000;
+    private static final long ROUTE_TIMEOUT_MS = 2000;
+    /** How long a whole /matrix request may search; each search settles ROUTE_SETTLE_LIMIT. */
+    private static final long MATRIX_TIMEOUT_MS = 10000;
+    /** The number of routes /route/batch finds at once. */
+    private static final int BATCH_ROUTE_THREADS = Runtime.getRuntime().availableProcessors();
+    /** The most routes kept for /reroute; the route updated longest ago is dropped first. */
+    private static final int MAX_ACTIVE_ROUTES = 10000;
+    /** The most routes one /route/batch request may ask for. */
+    private static final int MAX_BATCH_ROUTES = 100000;
+    /**
+     * The most origin-destination pairs one /matrix request may ask for. Each origin is one
+     * search over as much of the graph as it takes to reach every destination.
+     */
+    private static final int MAX_MATRIX_CELLS = 10000;
+    /**
+     * Whether to load the hub labels that answer /distance at startup, building and saving
+     * them next to the OSM file the first time, rather than on the first request.
+     */
+    private static final boolean LOAD_HUB_LABELS = false;
+    /**
+     * Whether an ASTAR or ALT search prunes edges with arc flags, which are loaded from next
+     * to the OSM file at startup, or built and saved there the first time.
+     */
+    private static final boolean USE_ARC_FLAGS = false;
+    /**
+     * Whether to route with live traffic speeds, polled every TRAFFIC_POLL_MS from the file
+     * at TRAFFIC_FEED_PATH in the format TrafficFeed describes. Traffic only changes TIME
+     * routes, /matrix and /isochrone, and is not seen by CONTRACTION_HIERARCHY routing or
+     * /distance.
+     */
+    private static final boolean USE_TRAFFIC_FEED = false;
+    private static final String TRAFFIC_FEED_PATH = "../library-sp18/data/traffic.csv";
+    private static final long TRAFFIC_POLL_MS = 10000;
+    /** The number of landmarks used when ROUTE_ALGORITHM is ALT. */
+    private static final int LANDMARK_COUNT = Landmarks.DEFAULT_COUNT;
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -70,6 +144,18 @@ public class MapServer {
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
 
+    /**
+     * Each reroute request has the route_id a /route request returned and the driver's
+     * position, lat and lon.
+     */
+    private static final String[] REQUIRED_REROUTE_REQUEST_PARAMS = {"route_id", "lat", "lon"};
+
+    /**
+     * Each isochrone request has the start and the budget, in miles for the DISTANCE metric
+     * or in minutes for TIME.
+     */
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lat", "lon", "budget"};
+
     /**
      * The result of rastering must be a map containing all of the
      * fields listed in the comments for getMapRaster in Rasterer.java.
@@ -80,6 +166,10 @@ public class MapServer {
     private static Rasterer rasterer;
     private static GraphDB graph;
     private static List<Long> route = new LinkedList<>();
+    private static final RouteCache routeCache = new RouteCache(ROUTE_CACHE_SIZE);
+    private static final BatchRouter batchRouter = new BatchRouter(BATCH_ROUTE_THREADS);
+    private static final ActiveRoutes activeRoutes = new ActiveRoutes(MAX_ACTIVE_ROUTES);
+    private static TrafficFeed trafficFeed;
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,7 +179,30 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = USE_MAPPED_GRAPH ? GraphDB.loadMapped(OSM_DB_PATH) : GraphDB.load(OSM_DB_PATH);
+        if (ROUTE_ALGORITHM == Router.Algorithm.CONTRACTION_HIERARCHY) {
+            graph.setHierarchy(ContractionHierarchy.load(graph, OSM_DB_PATH, ROUTE_METRIC));
+        } else if (ROUTE_ALGORITHM == Router.Algorithm.ALT) {
+            graph.setLandmarks(Landmarks.load(graph, OSM_DB_PATH, LANDMARK_COUNT));
+        } else if (ROUTE_ALGORITHM == Router.Algorithm.CRP) {
+            /* partitioning and customizing take seconds, so do them before serving */
+            graph.routePlanner().customization(ROUTE_METRIC);
+        }
+        if (USE_ARC_FLAGS && (ROUTE_ALGORITHM == Router.Algorithm.ASTAR
+                || ROUTE_ALGORITHM == Router.Algorithm.ALT)) {
+            graph.setArcFlags(ArcFlags.load(graph, OSM_DB_PATH, ROUTE_METRIC));
+        }
+        if (LOAD_HUB_LABELS) {
+            graph.setHubLabels(HubLabels.load(graph, OSM_DB_PATH, ROUTE_METRIC));
+        }
+        if (trafficFeed != null) {
+            trafficFeed.close();
+        }
+        trafficFeed = USE_TRAFFIC_FEED ? new TrafficFeed(graph, graph.traffic(),
+                new File(TRAFFIC_FEED_PATH), TRAFFIC_POLL_MS) : null;
+        /* routes found on a previously loaded graph are no longer valid */
+        routeCache.clear();
+        activeRoutes.clear();
         rasterer = new Rasterer();
     }
 
@@ -131,17 +244,194 @@ public class MapServer {
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
+            Router.RouteOptions options = routeOptions();
+            options.budget = SearchBudget.of(ROUTE_SETTLE_LIMIT, ROUTE_TIMEOUT_MS);
+            Router.RouteResult result = routeCache.findRoute(graph, params.get("start_lon"),
+                    params.get("start_lat"), params.get("end_lon"), params.get("end_lat"),
+                    options);
+            route = result.route;
+            String directions = getDirectionsText();
+            Map<String, Object> routeParams = new HashMap<>();
+            routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put("status", result.status.toString());
+            routeParams.put("directions_success", directions.length() > 0);
+            routeParams.put("directions", directions);
+            ActiveRoute active = ActiveRoute.of(graph, result, params.get("end_lon"),
+                    params.get("end_lat"), options);
+            if (active != null) {
+                routeParams.put("route_id", activeRoutes.add(active));
+            }
+            Gson gson = new Gson();
+            return gson.toJson(routeParams);
+        });
+
+        /* Define the re-routing endpoint for HTTP GET requests: the route a /route request
+         * returned, updated from the driver's new position. While the driver is on the route
+         * this trims it; once they leave it, this searches only back to the route. */
+        get("/reroute", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_REROUTE_REQUEST_PARAMS);
+            long routeId = params.get("route_id").longValue();
+            ActiveRoute active = activeRoutes.get(routeId, graph);
+            if (active == null) {
+                halt(HALT_RESPONSE, "Request failed - unknown route_id.");
+            }
+            Router.RouteOptions options = routeOptions();
+            options.budget = SearchBudget.of(ROUTE_SETTLE_LIMIT, ROUTE_TIMEOUT_MS);
+            ActiveRoute updated = active.reroute(params.get("lon"), params.get("lat"), options);
+            activeRoutes.update(routeId, updated);
+            Router.RouteResult result = updated.result();
+            route = result.route;
             String directions = getDirectionsText();
             Map<String, Object> routeParams = new HashMap<>();
             routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put("status", result.status.toString());
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
+            routeParams.put("route_id", routeId);
             Gson gson = new Gson();
             return gson.toJson(routeParams);
         });
 
+        /* Define the batch routing endpoint for HTTP POST requests. The body is a JSON array of
+         * objects with the same fields as a /route request; the routes are streamed back as a
+         * JSON array in the same order, each as soon as it and all before it are found. Once
+         * the client goes away, writing fails and the routes still running are cancelled. */
+        post("/route/batch", (req, res) -> {
+            double[][] pairs = getBatchRoutePairs(req);
+            Router.RouteOptions options = routeOptions();
+            options.budget = SearchBudget.of(ROUTE_SETTLE_LIMIT);
+            res.type("application/json");
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                    res.raw().getOutputStream(), StandardCharsets.UTF_8));
+            writer.beginArray();
+            try {
+                batchRouter.route(graph, pairs[0], pairs[1], pairs[2], pairs[3], options,
+                    r -> {
+                        try {
+                            writer.beginObject();
+                            writer.name("routing_success").value(!r.route.isEmpty());
+                            writer.name("status").value(r.status.toString());
+                            writer.name("route").beginArray();
+                            for (long id : r.route) {
+                                writer.value(id);
+                            }
+                            writer.endArray();
+                            writer.endObject();
+                            writer.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            } finally {
+                options.budget.cancel();
+            }
+            writer.endArray();
+            writer.flush();
+            return "";
+        });
+
+        /* Define the distance endpoint for HTTP GET requests: the cost of the route /route
+         * would find, without the route. */
+        get("/distance", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
+            double distance = Router.distance(graph, params.get("start_lon"),
+                    params.get("start_lat"), params.get("end_lon"), params.get("end_lat"),
+                    routeOptions());
+            Map<String, Object> distanceParams = new HashMap<>();
+            distanceParams.put("distance",
+                    distance == Double.POSITIVE_INFINITY ? null : distance);
+            distanceParams.put("units", ROUTE_METRIC == Router.Metric.TIME ? "hours" : "miles");
+            distanceParams.put("distance_success", distance != Double.POSITIVE_INFINITY);
+            Gson gson = new GsonBuilder().serializeNulls().create();
+            return gson.toJson(distanceParams);
+        });
+
+        /* Define the distance matrix endpoint for HTTP GET requests. Origins and destinations
+         * are lists of lon,lat pairs separated by semicolons. Each search is bounded like a
+         * /route search and the whole request by MATRIX_TIMEOUT_MS; a matrix that runs out of
+         * budget reports why instead. */
+        get("/matrix", (req, res) -> {
+            double[][] origins = getRequestPoints(req, "origins");
+            double[][] destinations = getRequestPoints(req, "destinations");
+            if ((long) origins[0].length * destinations[0].length > MAX_MATRIX_CELLS) {
+                halt(HALT_RESPONSE, "Request failed - provide at most " + MAX_MATRIX_CELLS
+                        + " origin-destination pairs.");
+            }
+            Router.RouteOptions options = routeOptions();
+            options.budget = SearchBudget.of(ROUTE_SETTLE_LIMIT, MATRIX_TIMEOUT_MS);
+            Map<String, Object> matrixParams = new HashMap<>();
+            matrixParams.put("units", ROUTE_METRIC == Router.Metric.TIME ? "hours" : "miles");
+            Gson gson = new GsonBuilder().serializeNulls().create();
+            double[][] costs;
+            try {
+                costs = Router.distanceMatrix(graph, origins[0], origins[1], destinations[0],
+                        destinations[1], options);
+            } catch (SearchBudget.Exhausted e) {
+                matrixParams.put("matrix", null);
+                matrixParams.put("matrix_success", false);
+                matrixParams.put("status", e.status.toString());
+                return gson.toJson(matrixParams);
+            }
+            /* unreachable pairs become null, since JSON has no infinity */
+            Double[][] matrix = new Double[costs.length][];
+            for (int i = 0; i < costs.length; i++) {
+                matrix[i] = new Double[costs[i].length];
+                for (int j = 0; j < costs[i].length; j++) {
+                    matrix[i][j] = costs[i][j] == Double.POSITIVE_INFINITY ? null : costs[i][j];
+                }
+            }
+            matrixParams.put("matrix", matrix);
+            matrixParams.put("matrix_success", true);
+            matrixParams.put("status", Router.Status.FOUND.toString());
+            return gson.toJson(matrixParams);
+        });
+
+        /* Define the isochrone endpoint for HTTP GET requests. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            double budget = params.get("budget");
+            if (ROUTE_METRIC == Router.Metric.TIME) {
+                budget /= 60;
+            }
+            Isochrone isochrone = graph.isochrone(params.get("lon"), params.get("lat"),
+                    budget, routeOptions());
+            List<Map<String, Object>> vertices = new ArrayList<>();
+            for (int i = 0; i < isochrone.ids.length; i++) {
+                Map<String, Object> vertex = new HashMap<>();
+                vertex.put("id", isochrone.ids[i]);
+                vertex.put("lon", graph.lon(isochrone.ids[i]));
+                vertex.put("lat", graph.lat(isochrone.ids[i]));
+                vertex.put("cost", ROUTE_METRIC == Router.Metric.TIME
+                        ? isochrone.costs[i] * 60 : isochrone.costs[i]);
+                vertices.add(vertex);
+            }
+            double[][] boundary = new double[isochrone.boundaryLons.length][];
+            for (int i = 0; i < boundary.length; i++) {
+                boundary[i] = new double[] {isochrone.boundaryLons[i],
+                    isochrone.boundaryLats[i]};
+            }
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put("vertices", vertices);
+            isochroneParams.put("boundary", boundary);
+            isochroneParams.put("isochrone_success", isochrone.ids.length > 0);
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        });
+
+        /* Define the API endpoint for route cache statistics. */
+        get("/route_cache", (req, res) -> {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("size", routeCache.size());
+            stats.put("hits", routeCache.hits());
+            stats.put("misses", routeCache.misses());
+            stats.put("hit_rate", routeCache.hitRate());
+            Gson gson = new Gson();
+            return gson.toJson(stats);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
             clearRoute();
@@ -171,6 +461,84 @@ public class MapServer {
         });
     }
 
+    /** Returns the options /route, /matrix and /isochrone route with. */
+    private static Router.RouteOptions routeOptions() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.snapToSegment = SNAP_TO_ROAD_SEGMENTS;
+        options.algorithm = ROUTE_ALGORITHM;
+        options.largestComponentOnly = SNAP_TO_LARGEST_COMPONENT;
+        options.metric = ROUTE_METRIC;
+        options.useArcFlags = USE_ARC_FLAGS;
+        options.traffic = trafficFeed == null ? null : graph.traffic().current();
+        return options;
+    }
+
+    /**
+     * Parses a request parameter holding a list of points, written as lon,lat pairs separated
+     * by semicolons.
+     * @param req HTTP Request.
+     * @param param The name of the parameter.
+     * @return The longitudes of the points at [0] and their latitudes at [1].
+     */
+    private static double[][] getRequestPoints(spark.Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null || value.trim().isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] pairs = value.split(";");
+        double[][] points = new double[2][pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException("Not a lon,lat pair: " + pairs[i]);
+                }
+                points[0][i] = Double.parseDouble(lonLat[0].trim());
+                points[1][i] = Double.parseDouble(lonLat[1].trim());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Parses the body of a /route/batch request, a JSON array of objects holding
+     * REQUIRED_ROUTE_REQUEST_PARAMS.
+     * @param req HTTP Request.
+     * @return The start longitudes, start latitudes, end longitudes and end latitudes of the
+     *         requested routes, at [0] to [3].
+     */
+    private static double[][] getBatchRoutePairs(spark.Request req) {
+        List<Map<String, Double>> requests = null;
+        try {
+            requests = new Gson().fromJson(req.body(),
+                    new TypeToken<List<Map<String, Double>>>() { }.getType());
+        } catch (JsonParseException e) {
+            e.printStackTrace();
+            halt(HALT_RESPONSE, "Incorrect parameters - provide a JSON array of routes.");
+        }
+        if (requests == null || requests.size() > MAX_BATCH_ROUTES) {
+            halt(HALT_RESPONSE, "Request failed - provide at most " + MAX_BATCH_ROUTES
+                    + " routes.");
+        }
+        double[][] pairs = new double[4][requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            Map<String, Double> params = requests.get(i);
+            for (String param : REQUIRED_ROUTE_REQUEST_PARAMS) {
+                if (params == null || params.get(param) == null) {
+                    halt(HALT_RESPONSE, "Request failed - parameters missing.");
+                }
+            }
+            pairs[0][i] = params.get("start_lon");
+            pairs[1][i] = params.get("start_lat");
+            pairs[2][i] = params.get("end_lon");
+            pairs[3][i] = params.get("end_lat");
+        }
+        return pairs;
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -0,0 +1,137 @@
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * GraphDB backend whose vertex, edge and edge-weight arrays are memory-mapped sections of a
+ * GraphSnapshot file rather than heap arrays. GC work no longer grows with the size of the
+ * extract, and several server processes mapping the same file share one copy in the page
+ * cache. The component labels, the k-d tree behind closest() and the R-tree behind snap() are
+ * mapped sections of the same file, so only the way names stay on the heap. OSM ids are
+ * translated with a binary search over the mapped (sorted) id section instead of a heap hash
+ * table.
+ *
+ * Create instances with GraphDB.loadMapped() or GraphSnapshot.map(). A mapped graph is
+ * read-only and cannot itself be written out as a snapshot.
+ */
+class MappedGraphDB extends GraphDB {
+    private final LongBuffer mappedIds;
+    private final DoubleBuffer mappedLons;
+    private final DoubleBuffer mappedLats;
+    private final IntBuffer mappedOffsets;
+    private final IntBuffer mappedTargets;
+    private final DoubleBuffer mappedWeights;
+    private final IntBuffer mappedEdgeWays;
+    private final FloatBuffer mappedSpeeds;
+    private final LongBuffer mappedWayIds;
+    private final IntBuffer mappedComponents;
+
+    MappedGraphDB(LongBuffer ids, DoubleBuffer lons, DoubleBuffer lats, IntBuffer offsets,
+                  IntBuffer targets, DoubleBuffer weights, IntBuffer edgeWays,
+                  FloatBuffer speeds, double maxSpeed, LongBuffer wayIds, String[] wayNames,
+                  String[] wayMaxSpeeds, IntBuffer components, int largestComponent) {
+        this.mappedIds = ids;
+        this.mappedLons = lons;
+        this.mappedLats = lats;
+        this.mappedOffsets = offsets;
+        this.mappedTargets = targets;
+        this.mappedWeights = weights;
+        this.mappedEdgeWays = edgeWays;
+        this.mappedSpeeds = speeds;
+        this.maxSpeed = maxSpeed;
+        this.mappedWayIds = wayIds;
+        this.wayNames = wayNames;
+        this.wayMaxSpeeds = wayMaxSpeeds;
+        this.mappedComponents = components;
+        this.largestComponent = largestComponent;
+    }
+
+    @Override
+    int indexOf(long id) {
+        int v = binarySearch(mappedIds, id);
+        if (v < 0) {
+            throw new NoSuchElementException("No vertex with id " + id);
+        }
+        return v;
+    }
+
+    @Override
+    int componentAt(int v) {
+        return mappedComponents.get(v);
+    }
+
+    @Override
+    int size() {
+        return mappedIds.limit();
+    }
+
+    @Override
+    long idAt(int v) {
+        return mappedIds.get(v);
+    }
+
+    @Override
+    double lonAt(int v) {
+        return mappedLons.get(v);
+    }
+
+    @Override
+    double latAt(int v) {
+        return mappedLats.get(v);
+    }
+
+    @Override
+    int edgeStart(int v) {
+        return mappedOffsets.get(v);
+    }
+
+    @Override
+    int edgeEnd(int v) {
+        return mappedOffsets.get(v + 1);
+    }
+
+    @Override
+    int edgeTarget(int e) {
+        return mappedTargets.get(e);
+    }
+
+    @Override
+    double edgeWeight(int e) {
+        return mappedWeights.get(e);
+    }
+
+    @Override
+    double edgeSpeed(int e) {
+        return mappedSpeeds.get(e);
+    }
+
+    @Override
+    int edgeWay(int e) {
+        return mappedEdgeWays.get(e);
+    }
+
+    @Override
+    int wayIndexOf(long wayID) {
+        return binarySearch(mappedWayIds, wayID);
+    }
+
+    /** Same contract as Arrays.binarySearch, over an absolute-indexed LongBuffer. */
+    private static int binarySearch(LongBuffer buffer, long key) {
+        int lo = 0;
+        int hi = buffer.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long x = buffer.get(mid);
+            if (x < key) {
+                lo = mid + 1;
+            } else if (x > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+}
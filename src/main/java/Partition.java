@@ -0,0 +1,104 @@
+/**
+ * Balanced partitions of the vertices of a GraphDB by position, for the speedup techniques
+ * that need regions or cells: recursive median bisection, each part split across its wider
+ * side, with longitudes scaled by the cosine of the mean latitude so both sides are
+ * measured in comparable units. After depth rounds every part has n / 2^depth vertices,
+ * give or take one, and the parts of one round are unions of parts of the next.
+ */
+class Partition {
+    private final int[] order;
+    private final double[] xs;
+    private final double[] ys;
+
+    private Partition(GraphDB g) {
+        int n = g.size();
+        order = new int[n];
+        xs = new double[n];
+        ys = new double[n];
+        double xScale = 0;
+        for (int v = 0; v < n; v++) {
+            xScale += Math.cos(Math.toRadians(g.latAt(v))) / n;
+        }
+        for (int v = 0; v < n; v++) {
+            order[v] = v;
+            xs[v] = g.lonAt(v) * xScale;
+            ys[v] = g.latAt(v);
+        }
+    }
+
+    /**
+     * Bisects the vertices of g depth times.
+     * @param g The graph.
+     * @param depth The number of rounds, at most 30.
+     * @return A depth-bit code for each vertex, its path down the bisection tree; the part
+     *         of v after r rounds is code[v] >>> (depth - r).
+     */
+    static int[] bisect(GraphDB g, int depth) {
+        Partition partition = new Partition(g);
+        int[] code = new int[g.size()];
+        partition.bisect(0, g.size(), depth, 0, code);
+        return code;
+    }
+
+    private void bisect(int lo, int hi, int depth, int prefix, int[] code) {
+        if (depth == 0) {
+            for (int i = lo; i < hi; i++) {
+                code[order[i]] = prefix;
+            }
+            return;
+        }
+        double[] keys = wider(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        if (hi - lo > 1) {
+            select(keys, lo, hi - 1, mid);
+        }
+        bisect(lo, mid, depth - 1, prefix << 1, code);
+        bisect(mid, hi, depth - 1, prefix << 1 | 1, code);
+    }
+
+    /** Returns the coordinates along which the vertices in [lo, hi) are most spread. */
+    private double[] wider(int lo, int hi) {
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = lo; i < hi; i++) {
+            minX = Math.min(minX, xs[order[i]]);
+            maxX = Math.max(maxX, xs[order[i]]);
+            minY = Math.min(minY, ys[order[i]]);
+            maxY = Math.max(maxY, ys[order[i]]);
+        }
+        return maxX - minX >= maxY - minY ? xs : ys;
+    }
+
+    /** Quickselect: rearranges positions [lo, hi] so that position k holds its median. */
+    private void select(double[] keys, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = keys[order[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int v = order[i];
+                    order[i] = order[j];
+                    order[j] = v;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe least-recently-used cache of routes in front of Router.shortestPath.
+ * Popular origin/destination pairs then cost one snap of each end and a table lookup.
+ *
+ * A route is keyed on what the search actually depends on: the vertices each end was attached
+ * to with their costs (for a road-segment snap these encode the segment and the position
+ * along it), the routing mode, and the traffic snapshot routed with, so that the routes
+ * found before a traffic update are never returned after it and just age out. Two requests
+ * with the same key get the same route, so the cache never changes an answer. Routes are
+ * stored as long[] node ids rather than lists of boxed Longs. A miss costs the one search
+ * Router would have run anyway.
+ *
+ * How often that key repeats depends on how ends are attached. Ends attached to their
+ * closest vertex share an entry whenever the vertices match, so nearby clicks do too. Ends
+ * snapped part-way along a road segment share one only when they snap to the same point,
+ * such as a client asking for the same route again or routes between fixed places, so with
+ * snapping most clicked routes miss. hitRate() reports the rate actually seen.
+ *
+ * The entries are split over STRIPES access-ordered LinkedHashMaps, each with its own lock
+ * and its share of the capacity, so concurrent requests rarely wait for each other; eviction
+ * is LRU within a stripe. The cache remembers the graph its routes were found on and
+ * empties itself when asked about a different one, so a reloaded graph never gets stale
+ * routes.
+ */
+class RouteCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile GraphDB graph;
+
+    /**
+     * Creates an empty cache.
+     * @param capacity The most routes kept, at least one per stripe.
+     */
+    RouteCache(int capacity) {
+        int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * Same contract as Router.shortestPath(g, stlon, stlat, destlon, destlat, options), but
+     * answered from the cache when the same route was asked for recently.
+     * @return A new list of the node ids on the route, which the caller may modify.
+     */
+    List<Long> shortestPath(GraphDB g, double stlon, double stlat, double destlon,
+                            double destlat, Router.RouteOptions options) {
+        return findRoute(g, stlon, stlat, destlon, destlat, options).route;
+    }
+
+    /**
+     * Same contract as Router.findRoute(g, stlon, stlat, destlon, destlat, options). Only
+     * complete answers are kept: a query that ran out of its budget is tried again next time.
+     */
+    Router.RouteResult findRoute(GraphDB g, double stlon, double stlat, double destlon,
+                                 double destlat, Router.RouteOptions options) {
+        useGraph(g);
+        Router.Endpoint start = Router.endpoint(g, stlon, stlat, options);
+        Router.Endpoint dest = Router.endpoint(g, destlon, destlat, options);
+        Key key = new Key(start, dest, options);
+        Stripe stripe = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+
+        long[] cached;
+        synchronized (stripe) {
+            cached = stripe.get(key);
+        }
+        if (cached != null) {
+            hits.increment();
+            return new Router.RouteResult(toList(cached),
+                    cached.length == 0 ? Router.Status.NO_ROUTE : Router.Status.FOUND);
+        }
+        misses.increment();
+        Router.RouteResult result = Router.findRoute(g, start, dest, options);
+        if (result.status != Router.Status.FOUND && result.status != Router.Status.NO_ROUTE) {
+            return result;
+        }
+        long[] ids = new long[result.route.size()];
+        int i = 0;
+        for (long id : result.route) {
+            ids[i++] = id;
+        }
+        synchronized (stripe) {
+            /* unless the graph was replaced while the route was being found */
+            if (graph == g) {
+                stripe.put(key, ids);
+            }
+        }
+        return result;
+    }
+
+    /** Empties the cache if it holds routes found on a graph other than g. */
+    private synchronized void useGraph(GraphDB g) {
+        if (graph != g) {
+            clear();
+            graph = g;
+        }
+    }
+
+    /** Removes every route. The hit and miss counts are kept. */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /** Returns the number of routes in the cache. */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /** Returns the fraction of requests answered from the cache, or 0 before any request. */
+    double hitRate() {
+        long h = hits();
+        long total = h + misses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static List<Long> toList(long[] ids) {
+        List<Long> route = new LinkedList<>();
+        for (long id : ids) {
+            route.add(id);
+        }
+        return route;
+    }
+
+    /** One lock's share of the cache, evicting its least recently used route when full. */
+    private static class Stripe extends LinkedHashMap<Key, long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, long[]> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * The attached ends of a route and the routing mode, packed into one long[]: the mode,
+     * the epoch of the traffic snapshot or -1, then for each end its vertex count, its
+     * vertices and the bits of its costs.
+     */
+    private static class Key {
+        private final long[] values;
+        private final int hash;
+
+        Key(Router.Endpoint start, Router.Endpoint dest, Router.RouteOptions options) {
+            values = new long[4 + 2 * start.vertices.length + 2 * dest.vertices.length];
+            values[0] = ((options.algorithm.ordinal() * 2L + options.metric.ordinal()) * 2
+                    + (options.useArcFlags ? 1 : 0)) * 2 + (options.snapToSegment ? 1 : 0);
+            values[1] = options.traffic == null ? -1 : options.traffic.epoch;
+            int i = pack(start, 2);
+            pack(dest, i);
+            hash = Arrays.hashCode(values);
+        }
+
+        private int pack(Router.Endpoint end, int i) {
+            values[i++] = end.vertices.length;
+            for (int k = 0; k < end.vertices.length; k++) {
+                values[i++] = end.vertices[k];
+                values[i++] = Double.doubleToLongBits(end.costs[k]);
+            }
+            return i;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * This class provides a shortestPath method for finding routes between two points
@@ -34,85 +33,369 @@ public class Router {
 
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        /* find the closest node of the start and the destination */
-        long startID = g.closest(stlon, stlat);
-        long destID = g.closest(destlon, destlat);
+        return shortestPath(g, stlon, stlat, destlon, destlat, new RouteOptions());
+    }
+
+    /**
+     * Like shortestPath(g, stlon, stlat, destlon, destlat), with options that choose how the
+     * locations are snapped to the graph, the search used and what the route minimizes.
+     * @param options The routing options.
+     * @return A list of node id's in the order visited on the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          RouteOptions options) {
+        return findRoute(g, stlon, stlat, destlon, destlat, options).route;
+    }
+
+    /**
+     * Like shortestPath(g, stlon, stlat, destlon, destlat, options), also telling whether a
+     * route was found, there is none, or the search ran out of options.budget first.
+     * @return The route, empty unless the status is FOUND, and the status.
+     */
+    public static RouteResult findRoute(GraphDB g, double stlon, double stlat,
+                                        double destlon, double destlat, RouteOptions options) {
+        return findRoute(g, endpoint(g, stlon, stlat, options),
+                endpoint(g, destlon, destlat, options), options);
+    }
 
-        /* create distTo information "list" */
-        HashMap<Long, Double> distTo = new HashMap<>();
-        for (long v : g.vertices()) {
-            distTo.put(v, Double.MAX_VALUE);
+    /** Like shortestPath(), between locations already attached to the graph by endpoint(). */
+    static List<Long> shortestPath(GraphDB g, Endpoint start, Endpoint dest,
+                                   RouteOptions options) {
+        return findRoute(g, start, dest, options).route;
+    }
+
+    /** Like findRoute(), between locations already attached to the graph by endpoint(). */
+    static RouteResult findRoute(GraphDB g, Endpoint start, Endpoint dest,
+                                 RouteOptions options) {
+        if (options.budget.isCancelled()) {
+            return new RouteResult(new LinkedList<>(), Status.CANCELLED);
+        }
+        List<Long> route;
+        try {
+            route = route(g, options, start.vertices, start.costs,
+                    dest.vertices, dest.costs, start.lon, start.lat, dest.lon, dest.lat);
+        } catch (SearchBudget.Exhausted e) {
+            return new RouteResult(new LinkedList<>(), e.status);
         }
 
-        /* set the distTo of the start to 0 */
-        distTo.put(startID, (double) 0);
+        /* both points on one segment: driving straight along it may beat any detour */
+        double direct = directCost(start, dest);
+        if (direct != Double.POSITIVE_INFINITY
+                && direct <= routeCost(g, options.metric, options.traffic, route, start,
+                dest)) {
+            List<Long> along = new LinkedList<>();
+            boolean forward = start.snap.fraction <= dest.snap.fraction;
+            along.add(g.idAt(forward ? start.snap.from : start.snap.to));
+            along.add(g.idAt(forward ? start.snap.to : start.snap.from));
+            return new RouteResult(along, Status.FOUND);
+        }
+        return new RouteResult(route, route.isEmpty() ? Status.NO_ROUTE : Status.FOUND);
+    }
 
-        /* create edgeTo information "list" */
-        HashMap<Long, Long> edgeTo = new HashMap<>();
+    /**
+     * Returns the cost of the best route between two locations without finding the route,
+     * from the graph's hub labels: two label lookups instead of a search, for callers that
+     * need many distances and no paths. The locations are attached as options say; the
+     * algorithm option is not used.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param options The routing options; the metric gives the unit of the cost.
+     * @return The cost in miles or hours, or Double.POSITIVE_INFINITY if there is no route.
+     */
+    public static double distance(GraphDB g, double stlon, double stlat, double destlon,
+                                  double destlat, RouteOptions options) {
+        Endpoint start = endpoint(g, stlon, stlat, options);
+        Endpoint dest = endpoint(g, destlon, destlat, options);
+        double cost = g.hubLabels(options.metric).distance(start.vertices, start.costs,
+                dest.vertices, dest.costs);
+        return Math.min(cost, directCost(start, dest));
+    }
 
-        /* set the edgeTo of the start to itself */
-        edgeTo.put(startID, startID);
+    /**
+     * Returns the cost of the best route from every origin to every destination, computing
+     * the whole matrix at once: a one-to-many search from each origin that stops when every
+     * destination is settled or, with CONTRACTION_HIERARCHY, a bucket search over the
+     * hierarchy. Origins are processed in parallel.
+     * @param g The graph to use.
+     * @param originLons The longitudes of the origins.
+     * @param originLats The latitudes of the origins.
+     * @param destLons The longitudes of the destinations.
+     * @param destLats The latitudes of the destinations.
+     * @param options The routing options; the metric gives the unit of the costs.
+     * @return The cost from origin i to destination j at [i][j], in miles or hours, or
+     *         Double.POSITIVE_INFINITY if there is no route.
+     * @throws SearchBudget.Exhausted If a search runs out of options.budget, which bounds
+     *                                each search of the matrix as it does a route search.
+     */
+    public static double[][] distanceMatrix(GraphDB g, double[] originLons,
+                                            double[] originLats, double[] destLons,
+                                            double[] destLats, RouteOptions options) {
+        Endpoint[] origins = new Endpoint[originLons.length];
+        for (int i = 0; i < origins.length; i++) {
+            origins[i] = endpoint(g, originLons[i], originLats[i], options);
+        }
+        Endpoint[] dests = new Endpoint[destLons.length];
+        for (int j = 0; j < dests.length; j++) {
+            dests[j] = endpoint(g, destLons[j], destLats[j], options);
+        }
+        return DistanceMatrix.compute(g, origins, dests, options);
+    }
+
+    /**
+     * Attaches a location to the graph as options say: to the closest vertex, or to the
+     * closest point on the closest road, from which a route can reach either end of it.
+     */
+    static Endpoint endpoint(GraphDB g, double lon, double lat, RouteOptions options) {
+        int component = options.largestComponentOnly ? g.largestComponent() : -1;
+        if (!options.snapToSegment) {
+            int v = g.closestIndex(lon, lat, component);
+            return new Endpoint(new int[] {v}, new double[] {0}, g.lonAt(v), g.latAt(v),
+                    null, 0);
+        }
+        SegmentIndex.Snap snap = g.snap(lon, lat, component);
+        double segmentCost = edgeCost(g, options.traffic, g.edgeBetween(snap.from, snap.to),
+                options.metric);
+        return new Endpoint(snapEnds(snap), snapCosts(snap, segmentCost), snap.lon, snap.lat,
+                snap, segmentCost);
+    }
 
-        /* create marked information "list" */
-        HashMap<Long, Boolean> marked = new HashMap<>();
-        for (long v : g.vertices()) {
-            marked.put(v, false);
+    /**
+     * Returns the cost of driving straight along the road segment both endpoints were snapped
+     * to, which no search finds, or infinity if they are not on the same segment.
+     */
+    static double directCost(Endpoint start, Endpoint dest) {
+        if (start.snap == null || dest.snap == null || start.snap.from != dest.snap.from
+                || start.snap.to != dest.snap.to) {
+            return Double.POSITIVE_INFINITY;
         }
+        return Math.abs(start.snap.fraction - dest.snap.fraction) * start.segmentCost;
+    }
 
-        /* create a PQ in order of distTo + heuristic and insert all the vertices into the PQ */
-        PriorityQueue<EntryFringe> fringe = new PriorityQueue<>();
-        EntryFringe start = new EntryFringe(startID, distTo.get(startID), g.distance(stlon, stlat, destlon, destlat));
-        fringe.add(start);
+    /**
+     * Runs the search selected by options from the sources, seeded with their costs, to the
+     * targets, finished with theirs. (sLon, sLat) and (tLon, tLat) are the start and end points
+     * the sources and targets were chosen for, which the heuristics aim at. When no source
+     * shares a connected component with any target there is no route, and the search, which
+     * would otherwise exhaust the sources' whole component, is skipped. The search throws
+     * SearchBudget.Exhausted if it runs out of options.budget.
+     */
+    private static List<Long> route(GraphDB g, RouteOptions options,
+                                    int[] sources, double[] sourceCosts,
+                                    int[] targets, double[] targetCosts,
+                                    double sLon, double sLat, double tLon, double tLat) {
+        if (!connected(g, sources, targets)) {
+            return new LinkedList<>();
+        }
+        switch (options.algorithm) {
+            case BIDIRECTIONAL_ASTAR:
+                return BidirectionalAStar.search(g, options.metric, options.traffic, sources,
+                        sourceCosts, targets, targetCosts, sLon, sLat, tLon, tLat,
+                        options.budget);
+            case CONTRACTION_HIERARCHY:
+                return g.hierarchy(options.metric).search(sources, sourceCosts, targets,
+                        targetCosts, options.budget);
+            case ALT:
+                return search(g, options.metric, options.traffic, sources, sourceCosts,
+                        targets, targetCosts, tLon, tLat, g.landmarks(), arcFlags(g, options),
+                        options.budget);
+            case CRP:
+                return g.routePlanner().customization(options.metric, options.traffic)
+                        .search(sources, sourceCosts, targets, targetCosts, options.budget);
+            default:
+                return search(g, options.metric, options.traffic, sources, sourceCosts,
+                        targets, targetCosts, tLon, tLat, null, arcFlags(g, options),
+                        options.budget);
+        }
+    }
 
-        while (!fringe.isEmpty()) {
-            EntryFringe curr = fringe.poll();
-            if (marked.get(curr.id)) {
-                continue;
-            }
-            if (curr.id == destID) {
-                break;
-            }
-            marked.put(curr.id, true);
-            for (long v : g.adjacent(curr.id)) {
-                if (distTo.get(v) > distTo.get(curr.id) + g.distance(curr.id, v)) {
-                    double newDistToV = distTo.get(curr.id) + g.distance(curr.id, v);
-                    EntryFringe entry = new EntryFringe(v, newDistToV, g.distance(v, destID));
+    /**
+     * Returns the arc flags the A* search prunes with, or null if options do not ask for them
+     * or route with traffic, which the flags, found at the speed limits, do not account for.
+     */
+    private static ArcFlags arcFlags(GraphDB g, RouteOptions options) {
+        return options.useArcFlags && options.traffic == null ? g.arcFlags(options.metric)
+                : null;
+    }
 
-                    distTo.put(v, newDistToV);
+    /** Returns the cost of edge e under metric, at the speeds of traffic if it is not null. */
+    static double edgeCost(GraphDB g, TrafficOverlay.Snapshot traffic, int e, Metric metric) {
+        return traffic == null ? g.edgeCost(e, metric) : traffic.edgeCost(e, metric);
+    }
 
-                    fringe.add(entry);
-                    edgeTo.put(v, curr.id);
+    /** Returns whether some source is in the same connected component as some target. */
+    private static boolean connected(GraphDB g, int[] sources, int[] targets) {
+        for (int s : sources) {
+            for (int t : targets) {
+                if (g.componentAt(s) == g.componentAt(t)) {
+                    return true;
                 }
             }
         }
+        return false;
+    }
 
-        /* create the list for return */
-        LinkedList<Long> route = new LinkedList<>();
-        long v = destID;
-        while (v != startID) {
-            if (edgeTo.get(v) == null) {
-                return new LinkedList<>();
-            }
-            route.addFirst(v);
-            v = edgeTo.get(v);
+    /**
+     * Returns the segment ends a snapped point can be left or reached through. A point that
+     * lies exactly on an end is that vertex, so the other end is not offered; otherwise an
+     * equal-cost detour through it could replace the vertex itself in the route.
+     */
+    private static int[] snapEnds(SegmentIndex.Snap snap) {
+        if (snap.fraction == 0) {
+            return new int[] {snap.from};
+        } else if (snap.fraction == 1) {
+            return new int[] {snap.to};
         }
-        route.addFirst(startID);
+        return new int[] {snap.from, snap.to};
+    }
 
-        return route;
+    /** Returns the cost from a snapped point to each of snapEnds(snap). */
+    private static double[] snapCosts(SegmentIndex.Snap snap, double segmentCost) {
+        if (snap.fraction == 0 || snap.fraction == 1) {
+            return new double[] {0};
+        }
+        return new double[] {snap.fraction * segmentCost, (1 - snap.fraction) * segmentCost};
     }
 
-    private static class EntryFringe implements Comparable<EntryFringe> {
-        private long id;
-        private double value;
-        public EntryFringe(long id, double distTo, double heuristic) {
-            this.id = id;
-            this.value = distTo + heuristic;
+    /**
+     * Returns the cost under metric of a route found between two endpoints snapped to road
+     * segments, including the partial segments from the start point to the route's first
+     * node and from its last node to the end point.
+     */
+    private static double routeCost(GraphDB g, Metric metric,
+                                    TrafficOverlay.Snapshot traffic, List<Long> route,
+                                    Endpoint start, Endpoint dest) {
+        if (route.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
         }
+        int first = g.indexOf(route.get(0));
+        int last = g.indexOf(route.get(route.size() - 1));
+        SegmentIndex.Snap s = start.snap;
+        SegmentIndex.Snap d = dest.snap;
+        double cost = (first == s.from ? s.fraction : 1 - s.fraction) * start.segmentCost;
+        cost += (last == d.from ? d.fraction : 1 - d.fraction) * dest.segmentCost;
+        Iterator<Long> nodes = route.iterator();
+        int prev = g.indexOf(nodes.next());
+        while (nodes.hasNext()) {
+            int next = g.indexOf(nodes.next());
+            cost += edgeCost(g, traffic, g.edgeBetween(prev, next), metric);
+            prev = next;
+        }
+        return cost;
+    }
 
-        @Override
-        public int compareTo(EntryFringe o) {
-            return Double.compare(this.value, o.value);
+    /**
+     * Returns the factor that turns a lower bound on road distance into a lower bound on cost
+     * under metric: 1 for distance, and for time the reciprocal of the highest speed limit,
+     * since no road can be driven faster than that.
+     */
+    static double costPerMile(GraphDB g, Metric metric) {
+        return metric == Metric.TIME ? 1 / g.maxSpeed() : 1;
+    }
+
+    /**
+     * Lower bound on the cost from vertex v to the end of the route: the larger of the
+     * great-circle distance to (hLon, hLat) and, if landmarks is not null, the landmark bound
+     * to the best target, with distances scaled by perMile. Both are consistent, so their
+     * maximum is too. The value is cached in state the first time v is reached.
+     */
+    private static double heuristic(GraphDB g, SearchState state, int v, double hLon,
+                                    double hLat, double perMile, Landmarks landmarks,
+                                    int[] targets, double[] targetCosts) {
+        if (state.cached(v)) {
+            return state.cache(v);
+        }
+        double h = GraphDB.distance(g.lonAt(v), g.latAt(v), hLon, hLat) * perMile;
+        if (landmarks != null) {
+            h = Math.max(h, landmarks.lowerBound(v, targets, targetCosts, perMile));
         }
+        state.setCache(v, h);
+        return h;
+    }
+
+    /**
+     * A* from a set of sources to a set of targets. Each source starts with the given cost
+     * and reaching a target completes the route at that target's extra cost, which lets a
+     * route begin and end part-way along a road. Edge costs are lengths or travel times,
+     * as metric says, at the speeds of traffic when it is not null. The heuristic is the
+     * great-circle distance to (hLon, hLat), raised to the landmark bound when landmarks are
+     * given, and for travel time divided by the highest speed limit. When arcFlags are
+     * given, edges not flagged for the regions of the targets are skipped. The search stops
+     * once no fringe entry can beat the best route found, or throws SearchBudget.Exhausted
+     * when budget runs out first.
+     * @return The node ids of the best route, or an empty list if no target is reachable.
+     */
+    private static List<Long> search(GraphDB g, Metric metric,
+                                     TrafficOverlay.Snapshot traffic, int[] sources,
+                                     double[] sourceCosts, int[] targets, double[] targetCosts,
+                                     double hLon, double hLat, Landmarks landmarks,
+                                     ArcFlags arcFlags, SearchBudget budget) {
+        /* distTo, edgeTo, marked and the cached heuristic live in this thread's workspace */
+        SearchState state = SearchState.get(0, g.size());
+        double perMile = costPerMile(g, metric);
+
+        /* create a PQ in order of distTo + heuristic and insert the sources */
+        IndexedMinHeap fringe = state.fringe;
+        long[] mask = arcFlags == null ? null : arcFlags.targetMask(targets);
+        for (int i = 0; i < sources.length; i++) {
+            int s = sources[i];
+            if (sourceCosts[i] < state.distTo(s)) {
+                state.reach(s, sourceCosts[i], s, -1);
+                fringe.push(s, sourceCosts[i] + heuristic(g, state, s, hLon, hLat, perMile,
+                        landmarks, targets, targetCosts));
+            }
+        }
+
+        int best = -1;
+        double bestCost = Double.MAX_VALUE;
+        int settledCount = 0;
+        while (!fringe.isEmpty()) {
+            if (fringe.peekKey() >= bestCost) {
+                break;
+            }
+            int curr = fringe.poll();
+            if (state.settled(curr)) {
+                continue;
+            }
+            state.settle(curr);
+            budget.check(++settledCount);
+            double distToCurr = state.distTo(curr);
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == curr && distToCurr + targetCosts[i] < bestCost) {
+                    bestCost = distToCurr + targetCosts[i];
+                    best = curr;
+                }
+            }
+            for (int e = g.edgeStart(curr); e < g.edgeEnd(curr); e++) {
+                if (mask != null && !arcFlags.allows(e, mask)) {
+                    continue;
+                }
+                int v = g.edgeTarget(e);
+                double newDistToV = distToCurr + edgeCost(g, traffic, e, metric);
+                if (state.distTo(v) > newDistToV) {
+                    state.reach(v, newDistToV, curr, e);
+                    fringe.push(v, newDistToV + heuristic(g, state, v, hLon, hLat, perMile,
+                            landmarks, targets, targetCosts));
+                }
+            }
+        }
+
+        /* create the list for return, translating vertex numbers back to OSM ids */
+        LinkedList<Long> route = new LinkedList<>();
+        if (best == -1) {
+            return route;
+        }
+        int v = best;
+        while (state.edgeTo(v) != v) {
+            route.addFirst(g.idAt(v));
+            v = state.edgeTo(v);
+        }
+        route.addFirst(g.idAt(v));
+
+        return route;
     }
 
     /**
@@ -129,26 +412,37 @@ public class Router {
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
         List<NavigationDirection> res = new ArrayList<>();
+        if (route.size() < 2) {
+            return res;
+        }
 
-        NavigationDirection cur = new NavigationDirection();
-        cur.direction = NavigationDirection.START;
-        cur.way = getWayName(g, route.get(0), route.get(1));
-        cur.distance += g.distance(route.get(0), route.get(1));
-
-        for (int i = 1, j = 2; j < route.size(); i++, j++) {
-            if (!getWayName(g, route.get(i), route.get(j)).equals(cur.way)) {
+        /* walk the route once with an iterator, since it is usually a LinkedList */
+        Iterator<Long> nodes = route.iterator();
+        int prev = -1;
+        int curr = g.indexOf(nodes.next());
+        NavigationDirection cur = null;
+        while (nodes.hasNext()) {
+            int next = g.indexOf(nodes.next());
+            int e = g.edgeBetween(curr, next);
+            String way = e < 0 ? "" : g.edgeWayName(e);
+            double length = e < 0 ? g.distanceAt(curr, next) : g.edgeWeight(e);
+
+            if (cur == null) {
+                cur = new NavigationDirection();
+                cur.direction = NavigationDirection.START;
+                cur.way = way;
+            } else if (!way.equals(cur.way)) {
                 res.add(cur);
                 cur = new NavigationDirection();
-                cur.way = getWayName(g, route.get(i), route.get(j));
+                cur.way = way;
 
-                double prevBearing = g.bearing(route.get(i - 1), route.get(i));
-                double curBearing = g.bearing(route.get(i), route.get(j));
+                double prevBearing = g.bearingAt(prev, curr);
+                double curBearing = g.bearingAt(curr, next);
                 cur.direction = convertBearingToDirection(prevBearing, curBearing);
-
-                cur.distance += g.distance(route.get(i), route.get(j));
-                continue;
             }
-            cur.distance += g.distance(route.get(i), route.get(j));
+            cur.distance += length;
+            prev = curr;
+            curr = next;
         }
         res.add(cur);
         return res;
@@ -204,25 +498,6 @@ public class Router {
         }
     }
 
-    private static String getWayName(GraphDB g, long node1, long node2) {
-        String noName = "";
-        HashSet<Long> nodeWay1 = g.getNodeWay(node1);
-        HashSet<Long> nodeWay2 = g.getNodeWay(node2);
-        List<Long> intersection =
-                nodeWay1.stream().filter(nodeWay2::contains).collect(Collectors.toList());
-
-        if (!intersection.isEmpty()) {
-            if (g.getWayName(intersection.get(0)) == null) {
-                return noName;
-            } else {
-                return g.getWayName(intersection.get(0));
-            }
-        }
-
-        return noName;
-    }
-
-
 //    private static int getDirection(GraphDB g, long startID, long nodeID, boolean isStart) {
 //        if (isStart) {
 //            return 0;
@@ -253,6 +528,124 @@ public class Router {
 //        }
 //    }
 
+    /**
+     * Options for shortestPath. The defaults reproduce the original behavior: the route runs
+     * between the graph vertices closest to the two locations.
+     */
+    public static class RouteOptions {
+        /**
+         * Snap each location to the closest point on the closest road segment instead of
+         * the closest vertex, and let the route start and end part-way along those roads.
+         */
+        boolean snapToSegment = false;
+        /** The search used to find the route. */
+        Algorithm algorithm = Algorithm.ASTAR;
+        /**
+         * Snap both locations into the largest connected component of the graph, so that a
+         * location next to a small disconnected piece of road (a parking lot, a private
+         * driveway) still gets a route to the rest of the map instead of none.
+         */
+        boolean largestComponentOnly = false;
+        /** What the route minimizes. */
+        Metric metric = Metric.DISTANCE;
+        /**
+         * The limits on the work the search may do before giving up. Each options object
+         * starts with an unlimited budget of its own, which can still be cancelled.
+         */
+        SearchBudget budget = SearchBudget.unlimited();
+        /**
+         * The live traffic speeds to route with, taken once per query so that the whole
+         * search sees the same ones, or null for the speed limits. ASTAR, ALT,
+         * BIDIRECTIONAL_ASTAR and CRP honor them; CONTRACTION_HIERARCHY and hub label
+         * distances are precomputed at the speed limits and only use them for the part-way
+         * road segments at either end.
+         */
+        TrafficOverlay.Snapshot traffic = null;
+        /**
+         * Prune the ASTAR and ALT searches with the graph's arc flags for the metric, so that
+         * they only follow edges that start a shortest route toward the destination's region.
+         * Other algorithms, and routing with traffic, ignore this.
+         */
+        boolean useArcFlags = false;
+    }
+
+    /** How a route query ended. */
+    public enum Status {
+        /** A route was found. */
+        FOUND,
+        /** The two locations are not connected. */
+        NO_ROUTE,
+        /** The search settled more vertices than its budget allows. */
+        SETTLE_LIMIT,
+        /** The search ran past its budget's deadline. */
+        DEADLINE,
+        /** The budget was cancelled. */
+        CANCELLED
+    }
+
+    /** A route and how its query ended. */
+    public static class RouteResult {
+        /** The node ids of the route; empty unless status is FOUND. */
+        final List<Long> route;
+        final Status status;
+
+        RouteResult(List<Long> route, Status status) {
+            this.route = route;
+            this.status = status;
+        }
+    }
+
+    /**
+     * A location attached to the graph: the vertices a route from or to it can end at, with
+     * the cost between the location and each of them.
+     */
+    static class Endpoint {
+        final int[] vertices;
+        final double[] costs;
+        /** The point of the graph the location was attached to. */
+        final double lon;
+        final double lat;
+        /** The road segment the location was snapped to, or null if it was a vertex. */
+        final SegmentIndex.Snap snap;
+        /** The cost of the whole of that segment. */
+        final double segmentCost;
+
+        Endpoint(int[] vertices, double[] costs, double lon, double lat,
+                 SegmentIndex.Snap snap, double segmentCost) {
+            this.vertices = vertices;
+            this.costs = costs;
+            this.lon = lon;
+            this.lat = lat;
+            this.snap = snap;
+            this.segmentCost = segmentCost;
+        }
+    }
+
+    /** The quantities a route can minimize. */
+    public enum Metric {
+        /** Total length: the shortest route. */
+        DISTANCE,
+        /** Total time driving every road at its speed limit: the fastest route. */
+        TIME
+    }
+
+    /** The search algorithms shortestPath can use. All of them find a shortest route. */
+    public enum Algorithm {
+        /** A* from the start toward the destination. */
+        ASTAR,
+        /** A* from both ends at once, meeting in the middle; settles fewer vertices. */
+        BIDIRECTIONAL_ASTAR,
+        /** Upward searches in the graph's contraction hierarchy; fastest once it is built. */
+        CONTRACTION_HIERARCHY,
+        /** A* whose heuristic also uses the graph's landmark distance tables. */
+        ALT,
+        /**
+         * Multi-level Dijkstra over the graph's customizable overlay of cell cliques, whose
+         * costs can be recomputed quickly when edge costs change.
+         */
+        CRP
+    }
+
     /**
      * Class to represent a navigation direction, which consists of 3 attributes:
      * a direction to go, a way, and the distance to travel for.
@@ -0,0 +1,90 @@
+/**
+ * Limits on the work one route query may do: the number of vertices its search may settle, a
+ * deadline, and a flag another thread can set to cancel it. A query with no route, or one
+ * pathological enough to drain most of the graph, then gives up cleanly instead of holding a
+ * server thread for as long as the search takes.
+ *
+ * Searches call check() each time they settle a vertex, which throws Exhausted once a limit
+ * is passed; Router.findRoute turns that into the matching Router.Status. The settled count
+ * is the search's own, so one budget can be shared by many queries, such as the routes of a
+ * batch, which then share its deadline and can all be cancelled at once. The clock and the
+ * flag are only read every CHECK_INTERVAL vertices, which keeps check() cheap.
+ */
+class SearchBudget {
+    private static final int CHECK_INTERVAL = 256;
+
+    private final int maxSettled;
+    /** The System.nanoTime() after which searches stop, or Long.MAX_VALUE for none. */
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    private SearchBudget(int maxSettled, long deadline) {
+        this.maxSettled = maxSettled;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns a budget starting now.
+     * @param maxSettled The most vertices one search may settle.
+     * @param timeoutMillis How long the searches may run, from now.
+     */
+    static SearchBudget of(int maxSettled, long timeoutMillis) {
+        return new SearchBudget(maxSettled, System.nanoTime() + timeoutMillis * 1000000);
+    }
+
+    /**
+     * Returns a budget with no deadline.
+     * @param maxSettled The most vertices one search may settle.
+     */
+    static SearchBudget of(int maxSettled) {
+        return new SearchBudget(maxSettled, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a budget that only runs out if it is cancelled. Each call returns a new one,
+     * so cancelling it stops only the queries it was given to.
+     */
+    static SearchBudget unlimited() {
+        return new SearchBudget(Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /** Makes every search using this budget stop at its next check. */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws Exhausted if a search that has settled the given number of vertices must stop.
+     * @param settled The number of vertices the search has settled so far.
+     */
+    void check(int settled) {
+        if (settled > maxSettled) {
+            throw new Exhausted(Router.Status.SETTLE_LIMIT);
+        }
+        if (settled % CHECK_INTERVAL == 0) {
+            if (cancelled) {
+                throw new Exhausted(Router.Status.CANCELLED);
+            }
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+                throw new Exhausted(Router.Status.DEADLINE);
+            }
+        }
+    }
+
+    /** Thrown by check() to abandon a search, with the reason. */
+    static class Exhausted extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Router.Status status;
+
+        Exhausted(Router.Status status) {
+            /* thrown to unwind a search, not to be debugged, so skip the stack trace */
+            super(status.toString(), null, false, false);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Reusable workspace for one graph search: tentative distances, parents and settled flags per
+ * vertex, a per-vertex cache for heuristic values, and the fringe. Instead of clearing its
+ * arrays before every search, the workspace stamps each entry with the generation that wrote
+ * it; reset() just starts a new generation, and an entry with an older stamp reads as unset.
+ * A search therefore costs time in proportion to the vertices it touches, however large the
+ * graph.
+ *
+ * Workspaces are confined to the thread that uses them: get() hands out the calling thread's
+ * workspace for a slot, growing it when a bigger graph comes along. A search that needs two
+ * workspaces at once, such as a bidirectional one, uses two slots.
+ */
+class SearchState {
+    /** Number of workspaces each thread keeps. */
+    static final int SLOTS = 2;
+
+    private static final ThreadLocal<SearchState[]> POOL =
+            ThreadLocal.withInitial(() -> new SearchState[SLOTS]);
+
+    private final int capacity;
+    private int generation;
+
+    /** Generation in which each vertex was last reached, settled and cached. */
+    private final int[] reachedIn;
+    private final int[] settledIn;
+    private final int[] cachedIn;
+    private final double[] distTo;
+    private final int[] edgeTo;
+    private final int[] parentEdge;
+    private final double[] cache;
+    /** The search fringe, emptied by reset(). */
+    final IndexedMinHeap fringe;
+
+    private SearchState(int capacity) {
+        this.capacity = capacity;
+        reachedIn = new int[capacity];
+        settledIn = new int[capacity];
+        cachedIn = new int[capacity];
+        distTo = new double[capacity];
+        edgeTo = new int[capacity];
+        parentEdge = new int[capacity];
+        cache = new double[capacity];
+        fringe = new IndexedMinHeap(capacity);
+    }
+
+    /**
+     * Returns the calling thread's workspace in the given slot, reset and large enough for a
+     * graph of n vertices.
+     * @param slot The slot, in [0, SLOTS).
+     * @param n The number of vertices in the graph to be searched.
+     * @return The workspace.
+     */
+    static SearchState get(int slot, int n) {
+        SearchState[] states = POOL.get();
+        SearchState state = states[slot];
+        if (state == null || state.capacity < n) {
+            state = new SearchState(n);
+            states[slot] = state;
+        }
+        state.reset();
+        return state;
+    }
+
+    /** Forgets every distance, parent, settled flag and cached value, in constant time. */
+    void reset() {
+        fringe.clear();
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            /* stamps would wrap around to look current again, so clear them once */
+            Arrays.fill(reachedIn, 0);
+            Arrays.fill(settledIn, 0);
+            Arrays.fill(cachedIn, 0);
+            generation = 1;
+        }
+    }
+
+    /** Returns whether v has a tentative distance in this search. */
+    boolean reached(int v) {
+        return reachedIn[v] == generation;
+    }
+
+    /** Returns the tentative distance of v, or Double.MAX_VALUE if it has not been reached. */
+    double distTo(int v) {
+        return reachedIn[v] == generation ? distTo[v] : Double.MAX_VALUE;
+    }
+
+    /**
+     * Records a new tentative distance for v.
+     * @param v The vertex reached.
+     * @param dist Its distance.
+     * @param parent The vertex it was reached from, or v itself for a source.
+     * @param edge The edge it was reached through, or -1; only some searches need it.
+     */
+    void reach(int v, double dist, int parent, int edge) {
+        reachedIn[v] = generation;
+        distTo[v] = dist;
+        edgeTo[v] = parent;
+        parentEdge[v] = edge;
+    }
+
+    /** Returns the vertex v was last reached from. Only valid if v has been reached. */
+    int edgeTo(int v) {
+        return edgeTo[v];
+    }
+
+    /** Returns the edge v was last reached through. Only valid if v has been reached. */
+    int parentEdge(int v) {
+        return parentEdge[v];
+    }
+
+    boolean settled(int v) {
+        return settledIn[v] == generation;
+    }
+
+    void settle(int v) {
+        settledIn[v] = generation;
+    }
+
+    /** Returns whether a value has been cached for v in this search. */
+    boolean cached(int v) {
+        return cachedIn[v] == generation;
+    }
+
+    /** Returns the value cached for v. Only valid if cached(v). */
+    double cache(int v) {
+        return cache[v];
+    }
+
+    void setCache(int v, double value) {
+        cachedIn[v] = generation;
+        cache[v] = value;
+    }
+}
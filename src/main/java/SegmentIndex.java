@@ -0,0 +1,431 @@
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Static R-tree over the road segments of a GraphDB, bulk-loaded with Sort-Tile-Recursive
+ * (STR) packing, for snapping a point to the closest spot on the closest road. A segment is
+ * one undirected edge of the graph, which is the same as one pair of consecutive nodes in a
+ * way's node list.
+ *
+ * Geometry uses an equirectangular projection in miles around the graph's mean latitude,
+ * which is accurate to well under a percent across a city-sized extract. The tree is packed
+ * into flat arrays: nodes are stored level by level with the leaves first and the root last,
+ * and the children of every node (segments for a leaf, nodes otherwise) are contiguous.
+ * Like KdTree, the arrays are buffers so that GraphSnapshot can map them from a snapshot.
+ */
+class SegmentIndex {
+    /** Maximum number of children per tree node. */
+    private static final int FANOUT = 16;
+    private static final double MILES_PER_DEGREE = 3963 * Math.PI / 180;
+
+    private final GraphDB g;
+    /**
+     * Cosine of the mean latitude, which scales longitude to east-west distance. This and
+     * the fields below are package-private so that GraphSnapshot can save and restore them.
+     */
+    final double xScale;
+
+    /** Endpoints (vertex indices) of each segment, in leaf order. */
+    final IntBuffer segFrom;
+    final IntBuffer segTo;
+
+    /** Bounding box, first child and child count of each tree node. */
+    final DoubleBuffer minX;
+    final DoubleBuffer minY;
+    final DoubleBuffer maxX;
+    final DoubleBuffer maxY;
+    final IntBuffer firstChild;
+    final IntBuffer childCount;
+    final int leafCount;
+
+    /** The closest point on the road network to some query point. */
+    static class Snap {
+        /** Endpoints of the segment, as vertex indices. */
+        final int from;
+        final int to;
+        /** Position of the snapped point along the segment, 0 at from and 1 at to. */
+        final double fraction;
+        final double lon;
+        final double lat;
+        /** Great-circle distance in miles from the query point to the snapped point. */
+        final double distance;
+
+        Snap(int from, int to, double fraction, double lon, double lat, double distance) {
+            this.from = from;
+            this.to = to;
+            this.fraction = fraction;
+            this.lon = lon;
+            this.lat = lat;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Builds the index over every edge of g.
+     * @param g The graph to index.
+     */
+    SegmentIndex(GraphDB g) {
+        this.g = g;
+        int n = g.size();
+        double latSum = 0;
+        int segments = 0;
+        for (int v = 0; v < n; v++) {
+            latSum += g.latAt(v);
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                if (v < g.edgeTarget(e)) {
+                    segments++;
+                }
+            }
+        }
+        xScale = n == 0 ? 1 : Math.cos(Math.toRadians(latSum / n));
+
+        int[] from = new int[segments];
+        int[] to = new int[segments];
+        int s = 0;
+        for (int v = 0; v < n; v++) {
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                if (v < g.edgeTarget(e)) {
+                    from[s] = v;
+                    to[s] = g.edgeTarget(e);
+                    s++;
+                }
+            }
+        }
+
+        /* Sort-Tile-Recursive packing of the segments into leaves. */
+        double[] centerX = new double[segments];
+        double[] centerY = new double[segments];
+        for (int i = 0; i < segments; i++) {
+            centerX[i] = (x(from[i]) + x(to[i])) / 2;
+            centerY[i] = (y(from[i]) + y(to[i])) / 2;
+        }
+        int[] perm = strOrder(centerX, centerY, segments);
+        segFrom = IntBuffer.allocate(segments);
+        segTo = IntBuffer.allocate(segments);
+        for (int i = 0; i < segments; i++) {
+            segFrom.put(i, from[perm[i]]);
+            segTo.put(i, to[perm[i]]);
+        }
+
+        int totalNodes = 0;
+        for (int count = segments; ; count = (count + FANOUT - 1) / FANOUT) {
+            int nodes = Math.max(1, (count + FANOUT - 1) / FANOUT);
+            totalNodes += nodes;
+            if (nodes == 1) {
+                break;
+            }
+        }
+        minX = DoubleBuffer.allocate(totalNodes);
+        minY = DoubleBuffer.allocate(totalNodes);
+        maxX = DoubleBuffer.allocate(totalNodes);
+        maxY = DoubleBuffer.allocate(totalNodes);
+        firstChild = IntBuffer.allocate(totalNodes);
+        childCount = IntBuffer.allocate(totalNodes);
+
+        leafCount = Math.max(1, (segments + FANOUT - 1) / FANOUT);
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            int first = leaf * FANOUT;
+            int last = Math.min(segments, first + FANOUT);
+            firstChild.put(leaf, first);
+            childCount.put(leaf, last - first);
+            resetBox(leaf);
+            for (int i = first; i < last; i++) {
+                include(leaf, x(segFrom.get(i)), y(segFrom.get(i)));
+                include(leaf, x(segTo.get(i)), y(segTo.get(i)));
+            }
+        }
+
+        /* Pack each level's nodes into parents the same way, until one root is left. */
+        int levelStart = 0;
+        int levelCount = leafCount;
+        while (levelCount > 1) {
+            double[] cx = new double[levelCount];
+            double[] cy = new double[levelCount];
+            for (int i = 0; i < levelCount; i++) {
+                cx[i] = (minX.get(levelStart + i) + maxX.get(levelStart + i)) / 2;
+                cy[i] = (minY.get(levelStart + i) + maxY.get(levelStart + i)) / 2;
+            }
+            int[] order = strOrder(cx, cy, levelCount);
+            permuteLevel(levelStart, levelCount, order);
+
+            int parentStart = levelStart + levelCount;
+            int parents = (levelCount + FANOUT - 1) / FANOUT;
+            for (int p = 0; p < parents; p++) {
+                int node = parentStart + p;
+                int first = levelStart + p * FANOUT;
+                int last = Math.min(levelStart + levelCount, first + FANOUT);
+                firstChild.put(node, first);
+                childCount.put(node, last - first);
+                resetBox(node);
+                for (int c = first; c < last; c++) {
+                    include(node, minX.get(c), minY.get(c));
+                    include(node, maxX.get(c), maxY.get(c));
+                }
+            }
+            levelStart = parentStart;
+            levelCount = parents;
+        }
+    }
+
+    /**
+     * Wraps an index that was built earlier and saved, typically sections of a snapshot.
+     * @param g The graph the index covers.
+     * @param xScale The longitude scale it was built with.
+     * @param leafCount The number of leaf nodes.
+     * @param segFrom First endpoint of each segment, in leaf order.
+     * @param segTo Second endpoint of each segment, in leaf order.
+     * @param minX Bounding box of each node: smallest x.
+     * @param minY Smallest y.
+     * @param maxX Largest x.
+     * @param maxY Largest y.
+     * @param firstChild First child of each node.
+     * @param childCount Number of children of each node.
+     */
+    SegmentIndex(GraphDB g, double xScale, int leafCount, IntBuffer segFrom, IntBuffer segTo,
+                 DoubleBuffer minX, DoubleBuffer minY, DoubleBuffer maxX, DoubleBuffer maxY,
+                 IntBuffer firstChild, IntBuffer childCount) {
+        this.g = g;
+        this.xScale = xScale;
+        this.leafCount = leafCount;
+        this.segFrom = segFrom;
+        this.segTo = segTo;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+    }
+
+    /**
+     * Returns the closest point on any road segment to the given location.
+     * @param lon The query longitude.
+     * @param lat The query latitude.
+     * @return The snap, or null if the graph has no edges.
+     */
+    Snap nearest(double lon, double lat) {
+        return nearest(lon, lat, -1);
+    }
+
+    /**
+     * Returns the closest point to the given location on a road segment of one connected
+     * component. Both ends of a segment are always in the same component.
+     * @param lon The query longitude.
+     * @param lat The query latitude.
+     * @param component The component, as numbered by GraphDB.componentAt(), or -1 for any.
+     * @return The snap, or null if no segment qualifies.
+     */
+    Snap nearest(double lon, double lat, int component) {
+        if (segFrom.limit() == 0) {
+            return null;
+        }
+        double qx = lon * xScale * MILES_PER_DEGREE;
+        double qy = lat * MILES_PER_DEGREE;
+
+        /* Best-first search over nodes, ordered by distance to their bounding boxes. */
+        int[] heap = new int[64];
+        double[] keys = new double[64];
+        int size = 0;
+        int root = minX.limit() - 1;
+        heap[size] = root;
+        keys[size++] = boxDistance2(root, qx, qy);
+
+        int bestSegment = -1;
+        double bestDistance2 = Double.POSITIVE_INFINITY;
+        double bestFraction = 0;
+        while (size > 0 && keys[0] < bestDistance2) {
+            int node = heap[0];
+            size--;
+            heap[0] = heap[size];
+            keys[0] = keys[size];
+            siftDown(heap, keys, size);
+
+            int first = firstChild.get(node);
+            int last = first + childCount.get(node);
+            if (node < leafCount) {
+                for (int i = first; i < last; i++) {
+                    int a = segFrom.get(i);
+                    int b = segTo.get(i);
+                    if (component >= 0 && g.componentAt(a) != component) {
+                        continue;
+                    }
+                    double ax = x(a);
+                    double ay = y(a);
+                    double dx = x(b) - ax;
+                    double dy = y(b) - ay;
+                    double length2 = dx * dx + dy * dy;
+                    double t = length2 == 0 ? 0 : ((qx - ax) * dx + (qy - ay) * dy) / length2;
+                    t = Math.max(0, Math.min(1, t));
+                    double px = ax + t * dx - qx;
+                    double py = ay + t * dy - qy;
+                    double d2 = px * px + py * py;
+                    if (d2 < bestDistance2) {
+                        bestDistance2 = d2;
+                        bestSegment = i;
+                        bestFraction = t;
+                    }
+                }
+            } else {
+                for (int child = first; child < last; child++) {
+                    double key = boxDistance2(child, qx, qy);
+                    if (key >= bestDistance2) {
+                        continue;
+                    }
+                    if (size == heap.length) {
+                        heap = Arrays.copyOf(heap, size * 2);
+                        keys = Arrays.copyOf(keys, size * 2);
+                    }
+                    heap[size] = child;
+                    keys[size] = key;
+                    siftUp(heap, keys, size++);
+                }
+            }
+        }
+
+        if (bestSegment < 0) {
+            return null;
+        }
+        int from = segFrom.get(bestSegment);
+        int to = segTo.get(bestSegment);
+        double snapLon = g.lonAt(from) + bestFraction * (g.lonAt(to) - g.lonAt(from));
+        double snapLat = g.latAt(from) + bestFraction * (g.latAt(to) - g.latAt(from));
+        return new Snap(from, to, bestFraction, snapLon, snapLat,
+                GraphDB.distance(lon, lat, snapLon, snapLat));
+    }
+
+    private double x(int v) {
+        return g.lonAt(v) * xScale * MILES_PER_DEGREE;
+    }
+
+    private double y(int v) {
+        return g.latAt(v) * MILES_PER_DEGREE;
+    }
+
+    private double boxDistance2(int node, double qx, double qy) {
+        double dx = Math.max(0, Math.max(minX.get(node) - qx, qx - maxX.get(node)));
+        double dy = Math.max(0, Math.max(minY.get(node) - qy, qy - maxY.get(node)));
+        return dx * dx + dy * dy;
+    }
+
+    private void resetBox(int node) {
+        minX.put(node, Double.POSITIVE_INFINITY);
+        minY.put(node, Double.POSITIVE_INFINITY);
+        maxX.put(node, Double.NEGATIVE_INFINITY);
+        maxY.put(node, Double.NEGATIVE_INFINITY);
+    }
+
+    private void include(int node, double px, double py) {
+        minX.put(node, Math.min(minX.get(node), px));
+        minY.put(node, Math.min(minY.get(node), py));
+        maxX.put(node, Math.max(maxX.get(node), px));
+        maxY.put(node, Math.max(maxY.get(node), py));
+    }
+
+    /** Reorders the nodes of one level (and their child ranges) into the given order. */
+    private void permuteLevel(int start, int count, int[] order) {
+        double[][] boxes = {new double[count], new double[count], new double[count],
+            new double[count]};
+        int[] first = new int[count];
+        int[] children = new int[count];
+        for (int i = 0; i < count; i++) {
+            int src = start + order[i];
+            boxes[0][i] = minX.get(src);
+            boxes[1][i] = minY.get(src);
+            boxes[2][i] = maxX.get(src);
+            boxes[3][i] = maxY.get(src);
+            first[i] = firstChild.get(src);
+            children[i] = childCount.get(src);
+        }
+        for (int i = 0; i < count; i++) {
+            minX.put(start + i, boxes[0][i]);
+            minY.put(start + i, boxes[1][i]);
+            maxX.put(start + i, boxes[2][i]);
+            maxY.put(start + i, boxes[3][i]);
+            firstChild.put(start + i, first[i]);
+            childCount.put(start + i, children[i]);
+        }
+    }
+
+    /**
+     * Returns the STR order of n items with the given centers: sort by x, cut into
+     * sqrt(n / FANOUT) vertical slices, and sort each slice by y.
+     */
+    private static int[] strOrder(double[] cx, double[] cy, int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        sortBy(order, 0, n, cx);
+        int pages = (n + FANOUT - 1) / FANOUT;
+        int slices = Math.max(1, (int) Math.ceil(Math.sqrt(pages)));
+        int sliceSize = slices * FANOUT;
+        for (int start = 0; start < n; start += sliceSize) {
+            sortBy(order, start, Math.min(n, start + sliceSize), cy);
+        }
+        return order;
+    }
+
+    /** Sorts order[lo, hi) by key[order[i]], using a merge sort to avoid boxing. */
+    private static void sortBy(int[] order, int lo, int hi, double[] key) {
+        int[] tmp = new int[hi - lo];
+        for (int width = 1; width < hi - lo; width *= 2) {
+            for (int left = lo; left < hi - width; left += 2 * width) {
+                int mid = left + width;
+                int right = Math.min(left + 2 * width, hi);
+                int i = left;
+                int j = mid;
+                for (int k = 0; k < right - left; k++) {
+                    if (j >= right || (i < mid && key[order[i]] <= key[order[j]])) {
+                        tmp[k] = order[i++];
+                    } else {
+                        tmp[k] = order[j++];
+                    }
+                }
+                System.arraycopy(tmp, 0, order, left, right - left);
+            }
+        }
+    }
+
+    private static void siftUp(int[] heap, double[] keys, int i) {
+        int node = heap[i];
+        double key = keys[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (keys[parent] <= key) {
+                break;
+            }
+            heap[i] = heap[parent];
+            keys[i] = keys[parent];
+            i = parent;
+        }
+        heap[i] = node;
+        keys[i] = key;
+    }
+
+    private static void siftDown(int[] heap, double[] keys, int size) {
+        if (size == 0) {
+            return;
+        }
+        int node = heap[0];
+        double key = keys[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            heap[i] = heap[child];
+            keys[i] = keys[child];
+            i = child;
+        }
+        heap[i] = node;
+        keys[i] = key;
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns the maxspeed and highway tags of a way into a speed in miles per hour. See
+ * <a href="https://wiki.openstreetmap.org/wiki/Key:maxspeed">the maxspeed tag</a>: a bare
+ * number is in km/h, "mph" and "knots" suffixes change the unit, and "walk" means walking
+ * pace. Anything that cannot be read as a speed (a zone code like "US:urban", "signals",
+ * "none", or a missing tag) falls back to a typical speed for the highway class.
+ */
+class SpeedLimits {
+    private static final double MPH_PER_KMH = 0.621371;
+    private static final double MPH_PER_KNOT = 1.150779;
+    private static final double WALKING_SPEED = 4;
+    /** Used when neither the maxspeed nor the highway tag gives a speed. */
+    static final double DEFAULT_SPEED = 25;
+
+    /** Typical speed in mph for each highway class of GraphBuildingHandler. */
+    private static final Map<String, Double> HIGHWAY_SPEEDS = new HashMap<>();
+
+    static {
+        HIGHWAY_SPEEDS.put("motorway", 65.0);
+        HIGHWAY_SPEEDS.put("motorway_link", 45.0);
+        HIGHWAY_SPEEDS.put("trunk", 55.0);
+        HIGHWAY_SPEEDS.put("trunk_link", 40.0);
+        HIGHWAY_SPEEDS.put("primary", 45.0);
+        HIGHWAY_SPEEDS.put("primary_link", 35.0);
+        HIGHWAY_SPEEDS.put("secondary", 35.0);
+        HIGHWAY_SPEEDS.put("secondary_link", 30.0);
+        HIGHWAY_SPEEDS.put("tertiary", 30.0);
+        HIGHWAY_SPEEDS.put("tertiary_link", 25.0);
+        HIGHWAY_SPEEDS.put("unclassified", 25.0);
+        HIGHWAY_SPEEDS.put("residential", 25.0);
+        HIGHWAY_SPEEDS.put("living_street", 10.0);
+    }
+
+    private SpeedLimits() {
+    }
+
+    /**
+     * Returns the speed to assume on a way.
+     * @param maxSpeed The value of its maxspeed tag, or null.
+     * @param highway The value of its highway tag, or null.
+     * @return A positive speed in mph.
+     */
+    static double speed(String maxSpeed, String highway) {
+        double speed = parse(maxSpeed);
+        if (speed > 0) {
+            return speed;
+        }
+        Double typical = highway == null ? null : HIGHWAY_SPEEDS.get(highway);
+        return typical == null ? DEFAULT_SPEED : typical;
+    }
+
+    /**
+     * Parses a maxspeed tag such as "25 mph", "40", "40 km/h", "10 knots" or "walk". Of
+     * several values separated by semicolons, the first is used.
+     * @return The speed in mph, or NaN if the tag is missing or not a speed.
+     */
+    static double parse(String maxSpeed) {
+        if (maxSpeed == null) {
+            return Double.NaN;
+        }
+        String s = maxSpeed.trim().toLowerCase(Locale.ROOT);
+        int semicolon = s.indexOf(';');
+        if (semicolon >= 0) {
+            s = s.substring(0, semicolon).trim();
+        }
+        if (s.equals("walk")) {
+            return WALKING_SPEED;
+        }
+
+        int end = 0;
+        while (end < s.length() && (Character.isDigit(s.charAt(end)) || s.charAt(end) == '.')) {
+            end++;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(s.substring(0, end));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+        String unit = s.substring(end).trim();
+        if (unit.isEmpty() || unit.equals("km/h") || unit.equals("kmh") || unit.equals("kph")) {
+            value *= MPH_PER_KMH;
+        } else if (unit.equals("knots")) {
+            value *= MPH_PER_KNOT;
+        } else if (!unit.equals("mph")) {
+            return Double.NaN;
+        }
+        return value > 0 ? value : Double.NaN;
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads traffic speeds from a local file into a TrafficOverlay, so live routing can be run
+ * and tested without a traffic service. The file holds the whole current feed, one road
+ * segment per line:
+ * <pre>
+ *   # from node id, to node id, speed in miles per hour
+ *   53085215,53085217,12.5
+ *   53085217,53085219,0
+ * </pre>
+ * Blank lines and lines starting with # are skipped, as are lines that are malformed or name
+ * a segment the graph does not have. Each speed applies to both directions of its segment.
+ *
+ * The file is polled every period, and whenever its length or modification time has changed
+ * it is read again and replaces the overlay's speeds: segments no longer in the file go back
+ * to their speed limits. Polling runs on one daemon thread, and queries keep routing on the
+ * previous snapshot while a new one is read.
+ */
+class TrafficFeed implements AutoCloseable {
+    private final GraphDB graph;
+    private final TrafficOverlay overlay;
+    private final File file;
+    private final ScheduledExecutorService poller;
+    private long lastLength = -1;
+    private long lastModified = -1;
+
+    /**
+     * Reads the file into the overlay, and then polls it for changes.
+     * @param graph The graph the overlay is for.
+     * @param overlay The overlay to update.
+     * @param file The feed file. It need not exist yet.
+     * @param periodMillis How often to look for changes, or 0 to only read the file when
+     *                     poll() is called.
+     */
+    TrafficFeed(GraphDB graph, TrafficOverlay overlay, File file, long periodMillis) {
+        this.graph = graph;
+        this.overlay = overlay;
+        this.file = file;
+        poll();
+        if (periodMillis > 0) {
+            poller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "traffic-feed");
+                thread.setDaemon(true);
+                return thread;
+            });
+            poller.scheduleWithFixedDelay(this::poll, periodMillis, periodMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            poller = null;
+        }
+    }
+
+    /**
+     * Reads the file into the overlay if it has changed since it was last read.
+     * @return Whether the overlay was updated.
+     */
+    synchronized boolean poll() {
+        long length = file.length();
+        long modified = file.lastModified();
+        if (!file.isFile() || length == lastLength && modified == lastModified) {
+            return false;
+        }
+        try {
+            Speeds speeds = read(graph, file);
+            overlay.replace(speeds.edges, speeds.speeds);
+            lastLength = length;
+            lastModified = modified;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Parses a feed file.
+     * @param g The graph whose node ids the file uses.
+     * @param file The file.
+     * @return The edges the file gives speeds for, both directions of each segment, with
+     *         their speeds.
+     * @throws IOException If the file cannot be read.
+     */
+    static Speeds read(GraphDB g, File file) throws IOException {
+        int[] edges = new int[16];
+        double[] speeds = new double[16];
+        int count = 0;
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(),
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    continue;
+                }
+                int from;
+                int to;
+                double speed;
+                try {
+                    from = g.indexOf(Long.parseLong(fields[0].trim()));
+                    to = g.indexOf(Long.parseLong(fields[1].trim()));
+                    speed = Double.parseDouble(fields[2].trim());
+                } catch (NumberFormatException | NoSuchElementException e) {
+                    continue;
+                }
+                int forward = g.edgeBetween(from, to);
+                int backward = g.edgeBetween(to, from);
+                if (forward < 0 || backward < 0 || !(speed >= 0)) {
+                    continue;
+                }
+                if (count + 2 > edges.length) {
+                    edges = Arrays.copyOf(edges, edges.length * 2);
+                    speeds = Arrays.copyOf(speeds, speeds.length * 2);
+                }
+                edges[count] = forward;
+                speeds[count++] = speed;
+                edges[count] = backward;
+                speeds[count++] = speed;
+            }
+        }
+        return new Speeds(Arrays.copyOf(edges, count), Arrays.copyOf(speeds, count));
+    }
+
+    /** Stops polling. */
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+
+    /** Edges and their speeds in miles per hour, as read from a feed file. */
+    static class Speeds {
+        final int[] edges;
+        final double[] speeds;
+
+        Speeds(int[] edges, double[] speeds) {
+            this.edges = edges;
+            this.speeds = speeds;
+        }
+    }
+}
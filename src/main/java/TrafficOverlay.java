@@ -0,0 +1,145 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Live traffic speeds on top of a GraphDB's speed limits, which the TIME metric routes with.
+ *
+ * The speeds are held in immutable snapshots, each a full per-edge speed array with an epoch
+ * number. An update copies the current array, changes its copy, and publishes the copy as
+ * the next epoch with a compare-and-set, retrying if another update got there first. Readers
+ * never lock: a route query takes the current snapshot once, through
+ * RouteOptions.traffic, and uses it for every edge it looks at, so it sees one consistent set
+ * of speeds however many updates land while it runs. A snapshot costs 4 bytes per edge, and
+ * is garbage once the last query using it is done.
+ *
+ * Traffic can only slow a road: a speed above the edge's speed limit is capped at the limit.
+ * That keeps the great-circle and landmark lower bounds, which assume speed limits, valid for
+ * A* and ALT. A speed of 0 closes the edge. The graph is undirected and its searches assume
+ * both directions of a road cost the same, so callers should update both edges of a segment
+ * together, as TrafficFeed does.
+ */
+class TrafficOverlay {
+    private final GraphDB graph;
+    private final AtomicReference<Snapshot> current;
+
+    /** Creates an overlay in which every edge is at its speed limit. */
+    TrafficOverlay(GraphDB graph) {
+        this.graph = graph;
+        this.current = new AtomicReference<>(new Snapshot(graph, 0, limits(graph),
+                new int[0]));
+    }
+
+    /** Returns the speeds as of now, for a query to route with. */
+    Snapshot current() {
+        return current.get();
+    }
+
+    /**
+     * Sets the speeds of some edges, leaving the others as they are.
+     * @param edges The edges.
+     * @param speeds The speed of each edge in miles per hour.
+     * @return The snapshot the update was published in.
+     */
+    Snapshot update(int[] edges, double[] speeds) {
+        while (true) {
+            Snapshot prev = current.get();
+            float[] next = prev.speeds.clone();
+            apply(next, edges, speeds);
+            Snapshot snapshot = new Snapshot(graph, prev.epoch + 1, next, changed(next));
+            if (current.compareAndSet(prev, snapshot)) {
+                return snapshot;
+            }
+        }
+    }
+
+    /**
+     * Sets the speeds of some edges and puts every other edge back at its speed limit, for a
+     * feed that reports the whole network each time.
+     * @param edges The edges.
+     * @param speeds The speed of each edge in miles per hour.
+     * @return The snapshot the update was published in.
+     */
+    Snapshot replace(int[] edges, double[] speeds) {
+        float[] next = limits(graph);
+        apply(next, edges, speeds);
+        while (true) {
+            Snapshot prev = current.get();
+            Snapshot snapshot = new Snapshot(graph, prev.epoch + 1, next, changed(next));
+            if (current.compareAndSet(prev, snapshot)) {
+                return snapshot;
+            }
+        }
+    }
+
+    private void apply(float[] next, int[] edges, double[] speeds) {
+        for (int i = 0; i < edges.length; i++) {
+            if (!(speeds[i] >= 0)) {
+                throw new IllegalArgumentException("Speed " + speeds[i] + " for edge "
+                        + edges[i]);
+            }
+            next[edges[i]] = (float) Math.min(speeds[i], graph.edgeSpeed(edges[i]));
+        }
+    }
+
+    /** Returns the edges whose speed in speeds differs from their speed limit, in order. */
+    private int[] changed(float[] speeds) {
+        int[] changed = new int[16];
+        int count = 0;
+        for (int e = 0; e < speeds.length; e++) {
+            if (speeds[e] != graph.edgeSpeed(e)) {
+                if (count == changed.length) {
+                    changed = Arrays.copyOf(changed, count * 2);
+                }
+                changed[count++] = e;
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    private static float[] limits(GraphDB g) {
+        int m = g.edgeCount();
+        float[] speeds = new float[m];
+        for (int e = 0; e < m; e++) {
+            speeds[e] = (float) g.edgeSpeed(e);
+        }
+        return speeds;
+    }
+
+    /** The speeds of every edge at one epoch. Never modified once published. */
+    static class Snapshot {
+        /** The graph the speeds are for. */
+        final GraphDB graph;
+        /** Number of updates before this one; 0 for the speed limits alone. */
+        final long epoch;
+        private final float[] speeds;
+        private final int[] changed;
+
+        private Snapshot(GraphDB graph, long epoch, float[] speeds, int[] changed) {
+            this.graph = graph;
+            this.epoch = epoch;
+            this.speeds = speeds;
+            this.changed = changed;
+        }
+
+        /** Returns the speed of edge e in miles per hour. */
+        double edgeSpeed(int e) {
+            return speeds[e];
+        }
+
+        /**
+         * Returns the cost of edge e under a metric: its length, or the time to drive it at
+         * its current speed, which is infinite for a closed edge.
+         */
+        double edgeCost(int e, Router.Metric metric) {
+            if (metric != Router.Metric.TIME) {
+                return graph.edgeWeight(e);
+            }
+            return speeds[e] == 0 ? Double.POSITIVE_INFINITY : graph.edgeWeight(e) / speeds[e];
+        }
+
+        /** Returns the edges not at their speed limit, in increasing order. */
+        int[] changed() {
+            return changed.clone();
+        }
+    }
+}
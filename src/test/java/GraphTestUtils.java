@@ -0,0 +1,166 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds random road graphs for tests that need more than the tiny graph, without depending
+ * on the Berkeley extract. The graph is a jittered grid of streets broken into ways of random
+ * length, with some ways missing (so there are detours and dead ends), random names and
+ * maxspeed tags, some non-road ways that clean() must drop, and one small island that is not
+ * connected to the rest.
+ */
+public class GraphTestUtils {
+
+    /**
+     * Writes a random OSM XML file and parses it into a GraphDB.
+     * @param seed Seed for the random layout.
+     * @param rows Number of east-west streets.
+     * @param cols Number of north-south streets.
+     * @return The parsed graph.
+     */
+    static GraphDB randomGraph(long seed, int rows, int cols) throws IOException {
+        File file = File.createTempFile("random", ".osm.xml");
+        file.deleteOnExit();
+        writeRandomOsm(file, seed, rows, cols);
+        return new GraphDB(file.getPath());
+    }
+
+    /**
+     * Brute-force Dijkstra from one vertex, for checking the routing algorithms against.
+     * @param g The graph.
+     * @param s The source vertex index.
+     * @param cost The cost of each edge.
+     * @return The cost of the cheapest route to each vertex, infinite where none exists.
+     */
+    static double[] dijkstra(GraphDB g, int s, IntToDoubleFunction cost) {
+        double[] distTo = new double[g.size()];
+        Arrays.fill(distTo, Double.POSITIVE_INFINITY);
+        distTo[s] = 0;
+        IndexedMinHeap fringe = new IndexedMinHeap(g.size());
+        fringe.push(s, 0);
+        while (!fringe.isEmpty()) {
+            int u = fringe.poll();
+            for (int e = g.edgeStart(u); e < g.edgeEnd(u); e++) {
+                int v = g.edgeTarget(e);
+                if (distTo[u] + cost.applyAsDouble(e) < distTo[v]) {
+                    distTo[v] = distTo[u] + cost.applyAsDouble(e);
+                    fringe.push(v, distTo[v]);
+                }
+            }
+        }
+        return distTo;
+    }
+
+    /**
+     * Returns the cost of a route, for checking routes against dijkstra().
+     * @param g The graph.
+     * @param route The node ids of the route, each joined to the next by an edge.
+     * @param cost The cost of each edge.
+     * @return The total cost of its edges, or infinity for an empty route, meaning no route.
+     */
+    static double routeCost(GraphDB g, List<Long> route, IntToDoubleFunction cost) {
+        if (route.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double total = 0;
+        Iterator<Long> nodes = route.iterator();
+        int prev = g.indexOf(nodes.next());
+        while (nodes.hasNext()) {
+            int next = g.indexOf(nodes.next());
+            int e = g.edgeBetween(prev, next);
+            assertTrue(e >= 0);
+            total += cost.applyAsDouble(e);
+            prev = next;
+        }
+        return total;
+    }
+
+    static void writeRandomOsm(File file, long seed, int rows, int cols) throws IOException {
+        Random random = new Random(seed);
+        String[] highways = {"residential", "primary", "secondary", "tertiary", "motorway"};
+        String[] speeds = {null, "25 mph", "30", "40 km/h", "35 mph", "walk"};
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<osm version=\"0.6\">");
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    double lat = 37.82 + r * 0.0012 + (random.nextDouble() - 0.5) * 0.0006;
+                    double lon = -122.30 + c * 0.0015 + (random.nextDouble() - 0.5) * 0.0006;
+                    out.printf("  <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>%n",
+                            nodeId(r, c, cols), lat, lon);
+                }
+            }
+            long island = nodeId(rows, 0, cols);
+            for (int i = 0; i < 3; i++) {
+                out.printf("  <node id=\"%d\" lat=\"%.7f\" lon=\"-122.31\"/>%n",
+                        island + i, 37.80 + i * 0.001);
+            }
+
+            long wayId = 1;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols - 1;) {
+                    int end = Math.min(cols - 1, c + 1 + random.nextInt(8));
+                    if (random.nextInt(10) != 0) {
+                        out.printf("  <way id=\"%d\">%n", wayId++);
+                        for (int k = c; k <= end; k++) {
+                            out.printf("    <nd ref=\"%d\"/>%n", nodeId(r, k, cols));
+                        }
+                        writeTags(out, random, "Row " + r + " Street", highways, speeds);
+                    }
+                    c = end;
+                }
+            }
+            for (int c = 0; c < cols; c++) {
+                for (int r = 0; r < rows - 1;) {
+                    int end = Math.min(rows - 1, r + 1 + random.nextInt(8));
+                    if (random.nextInt(8) != 0) {
+                        out.printf("  <way id=\"%d\">%n", wayId++);
+                        for (int k = r; k <= end; k++) {
+                            out.printf("    <nd ref=\"%d\"/>%n", nodeId(k, c, cols));
+                        }
+                        writeTags(out, random, "Col " + c + " Avenue", highways, speeds);
+                    }
+                    r = end;
+                }
+            }
+            out.printf("  <way id=\"%d\">%n", wayId++);
+            out.printf("    <nd ref=\"%d\"/>%n", nodeId(0, 0, cols));
+            out.printf("    <nd ref=\"%d\"/>%n", nodeId(rows - 1, cols - 1, cols));
+            out.println("    <tag k=\"highway\" v=\"footway\"/>");
+            out.println("  </way>");
+            out.printf("  <way id=\"%d\">%n", wayId);
+            for (int i = 0; i < 3; i++) {
+                out.printf("    <nd ref=\"%d\"/>%n", island + i);
+            }
+            out.println("    <tag k=\"highway\" v=\"residential\"/>");
+            out.println("    <tag k=\"name\" v=\"Island Road\"/>");
+            out.println("  </way>");
+            out.println("</osm>");
+        }
+    }
+
+    private static void writeTags(PrintWriter out, Random random, String name,
+                                  String[] highways, String[] speeds) {
+        out.printf("    <tag k=\"highway\" v=\"%s\"/>%n",
+                highways[random.nextInt(highways.length)]);
+        if (random.nextInt(10) != 0) {
+            out.printf("    <tag k=\"name\" v=\"%s\"/>%n", name);
+        }
+        String speed = speeds[random.nextInt(speeds.length)];
+        if (speed != null) {
+            out.printf("    <tag k=\"maxspeed\" v=\"%s\"/>%n", speed);
+        }
+        out.println("  </way>");
+    }
+
+    private static long nodeId(int r, int c, int cols) {
+        return 1000L + (long) r * cols + c;
+    }
+}
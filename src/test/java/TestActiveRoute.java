@@ -0,0 +1,235 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that re-routing trims a route while the driver is on it and rejoins it by the
+ * shortest way to its nearest vertex ahead once they leave it, and the store of active
+ * routes.
+ */
+public class TestActiveRoute {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(41, 40, 40);
+        initialized = true;
+    }
+
+    @Test
+    public void testOnRoute() {
+        Random random = new Random(24);
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.metric = Router.Metric.TIME;
+        IntToDoubleFunction time = e -> graph.edgeCost(e, Router.Metric.TIME);
+        for (int i = 0; i < 30; i++) {
+            List<Long> route = new ArrayList<>();
+            ActiveRoute active = randomRoute(random, options, route);
+            int k = random.nextInt(route.size() - 1);
+            int v = graph.indexOf(route.get(k));
+            int w = graph.indexOf(route.get(k + 1));
+
+            /* part-way along the segment from v to w */
+            ActiveRoute along = active.reroute((graph.lonAt(v) + graph.lonAt(w)) / 2,
+                    (graph.latAt(v) + graph.latAt(w)) / 2, options);
+            assertEquals(Router.Status.FOUND, along.status);
+            assertEquals(route.subList(k, route.size()), along.result().route);
+            assertEquals(GraphTestUtils.routeCost(graph, route.subList(k, route.size()), time)
+                    + active.cost() - GraphTestUtils.routeCost(graph, route, time),
+                    along.cost(), 1e-9);
+
+            /* moving on from there only trims it further */
+            ActiveRoute further = along.reroute(graph.lonAt(w), graph.latAt(w), options);
+            List<Long> rest = further.result().route;
+            assertTrue(rest.equals(route.subList(k, route.size()))
+                    || rest.equals(route.subList(k + 1, route.size())));
+        }
+    }
+
+    @Test
+    public void testOffRoute() {
+        Random random = new Random(25);
+        for (Router.Metric metric : Router.Metric.values()) {
+            Router.RouteOptions options = new Router.RouteOptions();
+            options.metric = metric;
+            IntToDoubleFunction cost = e -> graph.edgeCost(e, metric);
+            for (int i = 0; i < 30; i++) {
+                List<Long> route = new ArrayList<>();
+                ActiveRoute active = randomRoute(random, options, route);
+                int off = offRoute(random, route);
+                if (off < 0) {
+                    continue;
+                }
+                ActiveRoute rerouted = active.reroute(graph.lonAt(off), graph.latAt(off),
+                        options);
+                assertEquals(Router.Status.FOUND, rerouted.status);
+                List<Long> updated = rerouted.result().route;
+                assertEquals(graph.idAt(off), (long) updated.get(0));
+
+                /* the way back is a shortest one, to the nearest route vertex */
+                double[] distTo = GraphTestUtils.dijkstra(graph, off, cost);
+                double nearest = Double.POSITIVE_INFINITY;
+                for (long id : route) {
+                    nearest = Math.min(nearest, distTo[graph.indexOf(id)]);
+                }
+                int rejoin = 0;
+                while (!route.contains(updated.get(rejoin))) {
+                    rejoin++;
+                }
+                long rejoined = updated.get(rejoin);
+                assertEquals(nearest, distTo[graph.indexOf(rejoined)], 1e-9);
+                assertEquals(nearest,
+                        GraphTestUtils.routeCost(graph, updated.subList(0, rejoin + 1), cost),
+                        1e-9);
+                List<Long> tail = route.subList(route.indexOf(rejoined), route.size());
+                assertEquals(tail, updated.subList(rejoin, updated.size()));
+                assertEquals(GraphTestUtils.routeCost(graph, updated, cost), rerouted.cost(),
+                        1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testOffRouteAfterMoving() {
+        Random random = new Random(28);
+        Router.RouteOptions options = new Router.RouteOptions();
+        int checked = 0;
+        for (int i = 0; i < 60; i++) {
+            List<Long> route = new ArrayList<>();
+            ActiveRoute active = randomRoute(random, options, route);
+            int k = 1 + random.nextInt(route.size() - 2);
+            int v = graph.indexOf(route.get(k));
+            int w = graph.indexOf(route.get(k + 1));
+            ActiveRoute along = active.reroute((graph.lonAt(v) + graph.lonAt(w)) / 2,
+                    (graph.latAt(v) + graph.latAt(w)) / 2, options);
+            int off = -1;
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v) && off < 0; e++) {
+                if (!route.contains(graph.idAt(graph.edgeTarget(e)))) {
+                    off = graph.edgeTarget(e);
+                }
+            }
+            if (off < 0) {
+                continue;
+            }
+
+            /* the driver is sent on to the route ahead, never back to where they have been */
+            ActiveRoute rerouted = along.reroute(graph.lonAt(off), graph.latAt(off), options);
+            assertEquals(Router.Status.FOUND, rerouted.status);
+            List<Long> updated = rerouted.result().route;
+            List<Long> ahead = route.subList(k + 1, route.size());
+            double[] distTo = GraphTestUtils.dijkstra(graph, off,
+                    e -> graph.edgeCost(e, Router.Metric.DISTANCE));
+            double nearest = Double.POSITIVE_INFINITY;
+            for (long id : ahead) {
+                nearest = Math.min(nearest, distTo[graph.indexOf(id)]);
+            }
+            int rejoin = 0;
+            while (!ahead.contains(updated.get(rejoin))) {
+                rejoin++;
+            }
+            long rejoined = updated.get(rejoin);
+            assertEquals(nearest, distTo[graph.indexOf(rejoined)], 1e-9);
+            assertEquals(ahead.subList(ahead.indexOf(rejoined), ahead.size()),
+                    updated.subList(rejoin, updated.size()));
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void testBudget() {
+        Random random = new Random(26);
+        Router.RouteOptions options = new Router.RouteOptions();
+        List<Long> route = new ArrayList<>();
+        ActiveRoute active = randomRoute(random, options, route);
+        int off = offRoute(random, route);
+        while (off < 0) {
+            route.clear();
+            active = randomRoute(random, options, route);
+            off = offRoute(random, route);
+        }
+        options.budget = SearchBudget.of(0);
+        ActiveRoute exhausted = active.reroute(graph.lonAt(off), graph.latAt(off), options);
+        assertEquals(Router.Status.SETTLE_LIMIT, exhausted.status);
+        assertTrue(exhausted.result().route.isEmpty());
+
+        /* the route is kept for the next position */
+        options.budget = SearchBudget.unlimited();
+        int last = graph.indexOf(route.get(route.size() - 1));
+        ActiveRoute arrived = exhausted.reroute(graph.lonAt(last), graph.latAt(last), options);
+        assertEquals(Router.Status.FOUND, arrived.status);
+        assertEquals(route.get(route.size() - 1),
+                arrived.result().route.get(arrived.result().route.size() - 1));
+    }
+
+    @Test
+    public void testActiveRoutes() throws Exception {
+        Random random = new Random(27);
+        Router.RouteOptions options = new Router.RouteOptions();
+        ActiveRoutes routes = new ActiveRoutes(3);
+        ActiveRoute first = randomRoute(random, options, new ArrayList<>());
+        long handle = routes.add(first);
+        assertTrue(handle >= 0 && handle < 1L << 53);
+        assertEquals(first, routes.get(handle, graph));
+        assertNull(routes.get(handle + 1, graph));
+        assertNull(routes.get(handle, GraphTestUtils.randomGraph(41, 5, 5)));
+
+        ActiveRoute second = randomRoute(random, options, new ArrayList<>());
+        routes.update(handle, second);
+        assertEquals(second, routes.get(handle, graph));
+
+        /* the route used longest ago goes first */
+        long[] handles = new long[3];
+        for (int i = 0; i < 3; i++) {
+            handles[i] = routes.add(first);
+        }
+        assertEquals(3, routes.size());
+        assertNull(routes.get(handle, graph));
+        assertNotNull(routes.get(handles[0], graph));
+        routes.update(handle, first);
+        assertNull(routes.get(handle, graph));
+
+        routes.clear();
+        assertEquals(0, routes.size());
+    }
+
+    /** Finds a route of a few vertices between random vertices and returns it as active. */
+    private ActiveRoute randomRoute(Random random, Router.RouteOptions options,
+                                    List<Long> route) {
+        while (true) {
+            int s = random.nextInt(graph.size());
+            int t = random.nextInt(graph.size());
+            Router.RouteResult result = Router.findRoute(graph, graph.lonAt(s), graph.latAt(s),
+                    graph.lonAt(t), graph.latAt(t), options);
+            if (result.route.size() >= 5) {
+                route.addAll(result.route);
+                return ActiveRoute.of(graph, result, graph.lonAt(t), graph.latAt(t), options);
+            }
+        }
+    }
+
+    /** Returns a neighbor of an inner vertex of route that is off it, or -1 if none is. */
+    private int offRoute(Random random, List<Long> route) {
+        int v = graph.indexOf(route.get(1 + random.nextInt(route.size() - 2)));
+        for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+            int w = graph.edgeTarget(e);
+            if (!route.contains(graph.idAt(w))) {
+                return w;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,140 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that routes found with arc flags cost the same as routes found without them while
+ * settling fewer vertices, and saving and reloading the flags.
+ */
+public class TestArcFlags {
+    private static final int ROWS = 60;
+    private static final int COLS = 60;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(37, ROWS, COLS);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        Random random = new Random(21);
+        for (Router.Algorithm algorithm : new Router.Algorithm[] {Router.Algorithm.ASTAR,
+                Router.Algorithm.ALT}) {
+            for (Router.Metric metric : Router.Metric.values()) {
+                IntToDoubleFunction cost = e -> graph.edgeCost(e, metric);
+                for (boolean snapToSegment : new boolean[] {false, true}) {
+                    Router.RouteOptions plain = new Router.RouteOptions();
+                    plain.algorithm = algorithm;
+                    plain.metric = metric;
+                    plain.snapToSegment = snapToSegment;
+                    Router.RouteOptions flagged = new Router.RouteOptions();
+                    flagged.algorithm = algorithm;
+                    flagged.metric = metric;
+                    flagged.snapToSegment = snapToSegment;
+                    flagged.useArcFlags = true;
+                    for (int i = 0; i < 30; i++) {
+                        double stlon = -122.30 + random.nextDouble() * COLS * 0.0015;
+                        double stlat = 37.82 + random.nextDouble() * ROWS * 0.0012;
+                        double destlon = -122.30 + random.nextDouble() * COLS * 0.0015;
+                        double destlat = 37.82 + random.nextDouble() * ROWS * 0.0012;
+                        List<Long> expected = Router.shortestPath(graph, stlon, stlat,
+                                destlon, destlat, plain);
+                        List<Long> actual = Router.shortestPath(graph, stlon, stlat,
+                                destlon, destlat, flagged);
+                        assertEquals(expected.isEmpty(), actual.isEmpty());
+                        assertEquals(GraphTestUtils.routeCost(graph, expected, cost),
+                                GraphTestUtils.routeCost(graph, actual, cost), 1e-9);
+                        if (!expected.isEmpty()) {
+                            assertEquals(expected.get(0), actual.get(0));
+                            assertEquals(expected.get(expected.size() - 1),
+                                    actual.get(actual.size() - 1));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSettlesFewer() {
+        Random random = new Random(22);
+        Router.RouteOptions plain = new Router.RouteOptions();
+        plain.metric = Router.Metric.TIME;
+        Router.RouteOptions flagged = new Router.RouteOptions();
+        flagged.metric = Router.Metric.TIME;
+        flagged.useArcFlags = true;
+        long plainSettled = 0;
+        long flaggedSettled = 0;
+        for (int i = 0; i < 20; i++) {
+            int s = random.nextInt(graph.size());
+            int t = random.nextInt(graph.size());
+            int plainCount = settled(s, t, plain);
+            int flaggedCount = settled(s, t, flagged);
+            assertTrue(flaggedCount <= plainCount);
+            plainSettled += plainCount;
+            flaggedSettled += flaggedCount;
+        }
+        assertTrue(flaggedSettled < plainSettled);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("random", ArcFlags.SUFFIX);
+        file.deleteOnExit();
+        File source = File.createTempFile("random", ".osm.xml");
+        source.deleteOnExit();
+        ArcFlags built = graph.arcFlags(Router.Metric.TIME);
+        ArcFlags.write(built, file, source);
+        ArcFlags loaded = ArcFlags.read(graph, file, source);
+        assertNotNull(loaded);
+        assertEquals(Router.Metric.TIME, loaded.metric);
+        Random random = new Random(23);
+        int edges = graph.edgeCount();
+        for (int i = 0; i < 1000; i++) {
+            int v = random.nextInt(graph.size());
+            assertEquals(built.regionAt(v), loaded.regionAt(v));
+            long[] mask = built.targetMask(new int[] {v});
+            int e = random.nextInt(edges);
+            assertEquals(built.allows(e, mask), loaded.allows(e, mask));
+        }
+
+        source.setLastModified(source.lastModified() - 60000);
+        assertNull(ArcFlags.read(graph, file, source));
+    }
+
+    /**
+     * Returns the number of vertices a search between two vertices settles, as the smallest
+     * settle limit it finishes within.
+     */
+    private int settled(int s, int t, Router.RouteOptions options) {
+        int lo = 0;
+        int hi = graph.size();
+        while (lo < hi) {
+            int mid = (lo + hi) / 2;
+            options.budget = SearchBudget.of(mid);
+            Router.RouteResult result = Router.findRoute(graph, graph.lonAt(s), graph.latAt(s),
+                    graph.lonAt(t), graph.latAt(t), options);
+            if (result.status == Router.Status.SETTLE_LIMIT) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
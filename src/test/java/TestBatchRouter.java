@@ -0,0 +1,89 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that batches of routes match routes found one at a time, in order.
+ */
+public class TestBatchRouter {
+    private static final int ROUTES = 300;
+    private static GraphDB graph;
+    private static double[][] pairs;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(25, 20, 20);
+        Random random = new Random(14);
+        pairs = new double[4][ROUTES];
+        for (int i = 0; i < ROUTES; i++) {
+            pairs[0][i] = -122.30 + random.nextDouble() * 20 * 0.0015;
+            pairs[1][i] = 37.82 + random.nextDouble() * 20 * 0.0012;
+            pairs[2][i] = -122.30 + random.nextDouble() * 20 * 0.0015;
+            pairs[3][i] = 37.82 + random.nextDouble() * 20 * 0.0012;
+        }
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesSingleRoutes() {
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            Router.RouteOptions options = new Router.RouteOptions();
+            options.algorithm = algorithm;
+            options.snapToSegment = algorithm.ordinal() % 2 == 0;
+            try (BatchRouter router = new BatchRouter(4)) {
+                List<Router.RouteResult> routes = router.route(graph, pairs[0], pairs[1],
+                        pairs[2], pairs[3], options);
+                assertEquals(ROUTES, routes.size());
+                for (int i = 0; i < ROUTES; i++) {
+                    assertEquals(Router.shortestPath(graph, pairs[0][i], pairs[1][i],
+                            pairs[2][i], pairs[3][i], options), routes.get(i).route);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStreamsInOrderOnCallingThread() {
+        Thread caller = Thread.currentThread();
+        List<Router.RouteResult> routes = new ArrayList<>();
+        try (BatchRouter router = new BatchRouter(3)) {
+            router.route(graph, pairs[0], pairs[1], pairs[2], pairs[3],
+                    new Router.RouteOptions(), r -> {
+                    assertTrue(Thread.currentThread() == caller);
+                    routes.add(r);
+                });
+        }
+        assertEquals(ROUTES, routes.size());
+        for (int i = 0; i < ROUTES; i += 37) {
+            assertEquals(Router.shortestPath(graph, pairs[0][i], pairs[1][i], pairs[2][i],
+                    pairs[3][i]), routes.get(i).route);
+        }
+    }
+
+    @Test
+    public void testStopsOnFailure() {
+        int[] handed = new int[1];
+        try (BatchRouter router = new BatchRouter(2)) {
+            router.route(graph, pairs[0], pairs[1], pairs[2], pairs[3],
+                    new Router.RouteOptions(), r -> {
+                    if (++handed[0] == 10) {
+                        throw new IllegalStateException("stop");
+                    }
+                });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(10, handed[0]);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that bidirectional A* finds routes as short as unidirectional A*, between vertices
+ * and between points snapped to road segments.
+ */
+public class TestBidirectionalAStar {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(13, 30, 30);
+        initialized = true;
+    }
+
+    @Test
+    public void testSameLengthAsAStar() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.algorithm = Router.Algorithm.BIDIRECTIONAL_ASTAR;
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            double stlon = -122.31 + random.nextDouble() * 0.06;
+            double stlat = 37.81 + random.nextDouble() * 0.05;
+            double destlon = -122.31 + random.nextDouble() * 0.06;
+            double destlat = 37.81 + random.nextDouble() * 0.05;
+            List<Long> expected = Router.shortestPath(graph, stlon, stlat, destlon, destlat);
+            List<Long> actual = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    options);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            assertEquals(GraphTestUtils.routeCost(graph, expected, graph::edgeWeight),
+                    GraphTestUtils.routeCost(graph, actual, graph::edgeWeight), 1e-9);
+            if (!actual.isEmpty()) {
+                assertEquals(expected.get(0), actual.get(0));
+                assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testSnappedSameLengthAsAStar() {
+        Router.RouteOptions unidirectional = new Router.RouteOptions();
+        unidirectional.snapToSegment = true;
+        Router.RouteOptions bidirectional = new Router.RouteOptions();
+        bidirectional.snapToSegment = true;
+        bidirectional.algorithm = Router.Algorithm.BIDIRECTIONAL_ASTAR;
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            double stlon = -122.31 + random.nextDouble() * 0.06;
+            double stlat = 37.81 + random.nextDouble() * 0.05;
+            double destlon = -122.31 + random.nextDouble() * 0.06;
+            double destlat = 37.81 + random.nextDouble() * 0.05;
+            SegmentIndex.Snap start = graph.snap(stlon, stlat);
+            SegmentIndex.Snap dest = graph.snap(destlon, destlat);
+            if (start.from == dest.from && start.to == dest.to) {
+                continue;
+            }
+            List<Long> expected = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    unidirectional);
+            List<Long> actual = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    bidirectional);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            if (!actual.isEmpty()) {
+                assertEquals(snappedLength(expected, start, dest),
+                        snappedLength(actual, start, dest), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testUnreachableAndTrivialRoutes() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.algorithm = Router.Algorithm.BIDIRECTIONAL_ASTAR;
+        long island = 1000L + 30 * 30;
+        long mainland = 1000L + 31;
+        assertTrue(Router.shortestPath(graph, graph.lon(mainland), graph.lat(mainland),
+                graph.lon(island), graph.lat(island), options).isEmpty());
+        List<Long> trivial = Router.shortestPath(graph, graph.lon(mainland),
+                graph.lat(mainland), graph.lon(mainland), graph.lat(mainland), options);
+        assertEquals(1, trivial.size());
+        assertEquals(mainland, (long) trivial.get(0));
+    }
+
+    /** Length of a snapped route, including the partial segments at either end. */
+    private static double snappedLength(List<Long> route, SegmentIndex.Snap start,
+                                        SegmentIndex.Snap dest) {
+        int first = graph.indexOf(route.get(0));
+        int last = graph.indexOf(route.get(route.size() - 1));
+        double startLength = graph.distanceAt(start.from, start.to);
+        double destLength = graph.distanceAt(dest.from, dest.to);
+        return GraphTestUtils.routeCost(graph, route, graph::edgeWeight)
+                + (first == start.from ? start.fraction : 1 - start.fraction) * startLength
+                + (last == dest.from ? dest.fraction : 1 - dest.fraction) * destLength;
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the connected component labels, the instant rejection of routes between
+ * components, and snapping into the largest component.
+ */
+public class TestComponents {
+    private static final int ROWS = 25;
+    private static final int COLS = 25;
+    private static final long ISLAND = 1000L + ROWS * COLS;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(31, ROWS, COLS);
+        initialized = true;
+    }
+
+    @Test
+    public void testLabelsMatchReachability() {
+        int n = graph.size();
+        int[] sizes = new int[n];
+        for (int v = 0; v < n; v++) {
+            sizes[graph.componentAt(v)]++;
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                assertEquals(graph.componentAt(v), graph.componentAt(graph.edgeTarget(e)));
+            }
+        }
+        for (int c = 0; c < n; c++) {
+            assertTrue(sizes[c] <= sizes[graph.largestComponent()]);
+        }
+        int island = graph.indexOf(ISLAND);
+        assertEquals(graph.componentAt(island), graph.componentAt(graph.indexOf(ISLAND + 2)));
+        assertNotEquals(graph.largestComponent(), graph.componentAt(island));
+    }
+
+    @Test
+    public void testUnreachableRoutesAreEmpty() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            options.algorithm = algorithm;
+            for (boolean snap : new boolean[] {false, true}) {
+                options.snapToSegment = snap;
+                List<Long> route = Router.shortestPath(graph, graph.lon(1000L),
+                        graph.lat(1000L), graph.lon(ISLAND + 1), graph.lat(ISLAND + 1), options);
+                assertTrue(algorithm + " " + snap, route.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testLargestComponentOnly() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.largestComponentOnly = true;
+        for (boolean snap : new boolean[] {false, true}) {
+            options.snapToSegment = snap;
+            List<Long> route = Router.shortestPath(graph, graph.lon(1000L), graph.lat(1000L),
+                    graph.lon(ISLAND + 1), graph.lat(ISLAND + 1), options);
+            assertFalse(route.isEmpty());
+            for (long id : route) {
+                assertEquals(graph.largestComponent(), graph.componentAt(graph.indexOf(id)));
+            }
+        }
+    }
+
+    @Test
+    public void testClosestInComponentMatchesScan() {
+        Random random = new Random(8);
+        int component = graph.largestComponent();
+        for (int i = 0; i < 200; i++) {
+            double lon = -122.32 + random.nextDouble() * 0.06;
+            double lat = 37.79 + random.nextDouble() * 0.05;
+            int best = -1;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int v = 0; v < graph.size(); v++) {
+                double d = GraphDB.distance(lon, lat, graph.lonAt(v), graph.latAt(v));
+                if (graph.componentAt(v) == component && d < bestDistance) {
+                    best = v;
+                    bestDistance = d;
+                }
+            }
+            assertEquals(best, graph.closestIndex(lon, lat, component));
+            SegmentIndex.Snap snap = graph.snap(lon, lat, component);
+            assertEquals(component, graph.componentAt(snap.from));
+            assertTrue(snap.distance <= bestDistance + 1e-9);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks contraction hierarchy routes against A*, and saving and reloading the hierarchy.
+ */
+public class TestContractionHierarchy {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(17, 30, 30);
+        initialized = true;
+    }
+
+    @Test
+    public void testSameLengthAsAStar() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.algorithm = Router.Algorithm.CONTRACTION_HIERARCHY;
+        Random random = new Random(6);
+        for (int i = 0; i < 300; i++) {
+            double stlon = -122.31 + random.nextDouble() * 0.06;
+            double stlat = 37.81 + random.nextDouble() * 0.05;
+            double destlon = -122.31 + random.nextDouble() * 0.06;
+            double destlat = 37.81 + random.nextDouble() * 0.05;
+            List<Long> expected = Router.shortestPath(graph, stlon, stlat, destlon, destlat);
+            List<Long> actual = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    options);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            assertEquals(GraphTestUtils.routeCost(graph, expected, graph::edgeWeight),
+                    GraphTestUtils.routeCost(graph, actual, graph::edgeWeight), 1e-9);
+            if (!actual.isEmpty()) {
+                assertEquals(expected.get(0), actual.get(0));
+                assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testRoutesAreUnpacked() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.algorithm = Router.Algorithm.CONTRACTION_HIERARCHY;
+        Random random = new Random(8);
+        for (int i = 0; i < 100; i++) {
+            int v = random.nextInt(graph.size());
+            int w = random.nextInt(graph.size());
+            List<Long> route = Router.shortestPath(graph, graph.lonAt(v), graph.latAt(v),
+                    graph.lonAt(w), graph.latAt(w), options);
+            for (int k = 1; k < route.size(); k++) {
+                int a = graph.indexOf(route.get(k - 1));
+                int b = graph.indexOf(route.get(k));
+                assertTrue(graph.edgeBetween(a, b) >= 0);
+            }
+            Router.routeDirections(graph, route);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("random", ContractionHierarchy.SUFFIX);
+        file.deleteOnExit();
+        File source = File.createTempFile("random", ".osm.xml");
+        source.deleteOnExit();
+        ContractionHierarchy built = graph.hierarchy(Router.Metric.DISTANCE);
+        ContractionHierarchy.write(built, file, source);
+        ContractionHierarchy loaded = ContractionHierarchy.read(graph, file, source);
+        assertNotNull(loaded);
+        assertArrayEquals(built.rank, loaded.rank);
+        assertArrayEquals(built.upOffsets, loaded.upOffsets);
+        assertArrayEquals(built.upTargets, loaded.upTargets);
+        assertArrayEquals(built.upWeights, loaded.upWeights, 0.0);
+        assertArrayEquals(built.upMiddles, loaded.upMiddles);
+
+        source.setLastModified(source.lastModified() - 60000);
+        assertNull(ContractionHierarchy.read(graph, file, source));
+    }
+}
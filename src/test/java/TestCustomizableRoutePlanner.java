@@ -0,0 +1,117 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks CRP routes against A* and Dijkstra, on a graph large enough for several overlay
+ * levels, before and after edges are closed.
+ */
+public class TestCustomizableRoutePlanner {
+    private static GraphDB graph;
+    private static CustomizableRoutePlanner planner;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(29, 100, 100);
+        planner = graph.routePlanner();
+        initialized = true;
+    }
+
+    @Test
+    public void testLevels() {
+        assertEquals(3, planner.levels);
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        Random random = new Random(15);
+        for (Router.Metric metric : Router.Metric.values()) {
+            for (boolean snapToSegment : new boolean[] {false, true}) {
+                Router.RouteOptions astar = new Router.RouteOptions();
+                astar.metric = metric;
+                astar.snapToSegment = snapToSegment;
+                Router.RouteOptions crp = new Router.RouteOptions();
+                crp.metric = metric;
+                crp.snapToSegment = snapToSegment;
+                crp.algorithm = Router.Algorithm.CRP;
+                for (int i = 0; i < 40; i++) {
+                    double stlon = -122.30 + random.nextDouble() * 0.15;
+                    double stlat = 37.82 + random.nextDouble() * 0.12;
+                    double destlon = -122.30 + random.nextDouble() * 0.15;
+                    double destlat = 37.82 + random.nextDouble() * 0.12;
+                    List<Long> expected = Router.shortestPath(graph, stlon, stlat, destlon,
+                            destlat, astar);
+                    List<Long> actual = Router.shortestPath(graph, stlon, stlat, destlon,
+                            destlat, crp);
+                    assertEquals(expected.isEmpty(), actual.isEmpty());
+                    IntToDoubleFunction cost = e -> graph.edgeCost(e, metric);
+                    assertEquals(GraphTestUtils.routeCost(graph, expected, cost),
+                            GraphTestUtils.routeCost(graph, actual, cost), 1e-9);
+                    if (!expected.isEmpty()) {
+                        assertEquals(expected.get(0), actual.get(0));
+                        assertEquals(expected.get(expected.size() - 1),
+                                actual.get(actual.size() - 1));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClosedEdges() {
+        Random random = new Random(16);
+        Set<Integer> closed = new HashSet<>();
+        while (closed.size() < 400) {
+            int v = random.nextInt(graph.size());
+            if (graph.edgeStart(v) == graph.edgeEnd(v)) {
+                continue;
+            }
+            int e = graph.edgeStart(v) + random.nextInt(graph.edgeEnd(v) - graph.edgeStart(v));
+            closed.add(e);
+            closed.add(graph.edgeBetween(graph.edgeTarget(e), v));
+        }
+        IntToDoubleFunction cost = e -> closed.contains(e) ? Double.POSITIVE_INFINITY
+                : graph.edgeCost(e, Router.Metric.DISTANCE);
+        int[] changed = closed.stream().mapToInt(Integer::intValue).toArray();
+
+        CustomizableRoutePlanner.Customization base =
+                planner.customization(Router.Metric.DISTANCE);
+        CustomizableRoutePlanner.Customization updated = planner.update(base, cost, changed);
+        CustomizableRoutePlanner.Customization fresh = planner.customize(cost);
+        for (int i = 0; i < 40; i++) {
+            int s = random.nextInt(graph.size());
+            int t = random.nextInt(graph.size());
+            double expected = GraphTestUtils.dijkstra(graph, s, cost)[t];
+            for (CustomizableRoutePlanner.Customization customization
+                    : new CustomizableRoutePlanner.Customization[] {updated, fresh}) {
+                List<Long> route = customization.search(new int[] {s}, new double[] {0},
+                        new int[] {t}, new double[] {0}, SearchBudget.unlimited());
+                assertEquals(expected, GraphTestUtils.routeCost(graph, route, cost), 1e-9);
+                if (!route.isEmpty()) {
+                    assertEquals(graph.idAt(s), (long) route.get(0));
+                    assertEquals(graph.idAt(t), (long) route.get(route.size() - 1));
+                }
+            }
+        }
+
+        /* the customization updated from was left alone */
+        int s = random.nextInt(graph.size());
+        int t = random.nextInt(graph.size());
+        IntToDoubleFunction distance = e -> graph.edgeCost(e, Router.Metric.DISTANCE);
+        List<Long> route = base.search(new int[] {s}, new double[] {0}, new int[] {t},
+                new double[] {0}, SearchBudget.unlimited());
+        assertEquals(GraphTestUtils.dijkstra(graph, s, distance)[t],
+                GraphTestUtils.routeCost(graph, route, distance), 1e-9);
+    }
+}
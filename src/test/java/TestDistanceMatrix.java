@@ -0,0 +1,111 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks distance matrices against single routes, the one-to-many searches against the
+ * contraction hierarchy bucket search, and that both stop when their budget runs out.
+ */
+public class TestDistanceMatrix {
+    private static final int ROWS = 25;
+    private static final int COLS = 25;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(19, ROWS, COLS);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesSingleRoutes() {
+        Random random = new Random(6);
+        double[][] origins = randomPoints(random, 12);
+        double[][] dests = randomPoints(random, 9);
+        for (Router.Metric metric : Router.Metric.values()) {
+            for (Router.Algorithm algorithm : new Router.Algorithm[] {
+                Router.Algorithm.ASTAR, Router.Algorithm.CONTRACTION_HIERARCHY}) {
+                Router.RouteOptions options = new Router.RouteOptions();
+                options.metric = metric;
+                options.algorithm = algorithm;
+                double[][] matrix = Router.distanceMatrix(graph, origins[0], origins[1],
+                        dests[0], dests[1], options);
+                for (int i = 0; i < origins[0].length; i++) {
+                    for (int j = 0; j < dests[0].length; j++) {
+                        List<Long> route = Router.shortestPath(graph, origins[0][i],
+                                origins[1][i], dests[0][j], dests[1][j], options);
+                        assertEquals(GraphTestUtils.routeCost(graph, route,
+                                e -> graph.edgeCost(e, metric)), matrix[i][j], 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnappedBucketsMatchOneToMany() {
+        Random random = new Random(7);
+        double[][] origins = randomPoints(random, 15);
+        double[][] dests = randomPoints(random, 15);
+        for (Router.Metric metric : Router.Metric.values()) {
+            Router.RouteOptions oneToMany = new Router.RouteOptions();
+            oneToMany.snapToSegment = true;
+            oneToMany.metric = metric;
+            Router.RouteOptions buckets = new Router.RouteOptions();
+            buckets.snapToSegment = true;
+            buckets.metric = metric;
+            buckets.algorithm = Router.Algorithm.CONTRACTION_HIERARCHY;
+            double[][] expected = Router.distanceMatrix(graph, origins[0], origins[1],
+                    dests[0], dests[1], oneToMany);
+            double[][] actual = Router.distanceMatrix(graph, origins[0], origins[1],
+                    dests[0], dests[1], buckets);
+            for (int i = 0; i < expected.length; i++) {
+                for (int j = 0; j < expected[i].length; j++) {
+                    assertEquals(expected[i][j], actual[i][j], 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        Random random = new Random(8);
+        double[][] origins = randomPoints(random, 5);
+        double[][] dests = randomPoints(random, 5);
+        for (Router.Algorithm algorithm : new Router.Algorithm[] {
+            Router.Algorithm.ASTAR, Router.Algorithm.CONTRACTION_HIERARCHY}) {
+            Router.RouteOptions options = new Router.RouteOptions();
+            options.algorithm = algorithm;
+            options.budget = SearchBudget.of(3);
+            try {
+                Router.distanceMatrix(graph, origins[0], origins[1], dests[0], dests[1],
+                        options);
+                fail();
+            } catch (SearchBudget.Exhausted e) {
+                assertEquals(Router.Status.SETTLE_LIMIT, e.status);
+            }
+        }
+    }
+
+    /** Random points over the grid, the first of them on the island. */
+    private double[][] randomPoints(Random random, int count) {
+        double[][] points = new double[2][count];
+        long island = 1000L + ROWS * COLS;
+        points[0][0] = graph.lon(island);
+        points[1][0] = graph.lat(island);
+        for (int i = 1; i < count; i++) {
+            points[0][i] = -122.30 + random.nextDouble() * COLS * 0.0015;
+            points[1][i] = 37.82 + random.nextDouble() * ROWS * 0.0012;
+        }
+        return points;
+    }
+}
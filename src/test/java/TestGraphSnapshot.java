@@ -0,0 +1,157 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round-trips the tiny graph through a binary snapshot, checks that the saved spatial indexes
+ * and component labels answer like freshly built ones, and that stale or corrupt snapshots
+ * are rejected.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static GraphDB graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new GraphDB(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File snapshot = File.createTempFile("tiny", GraphSnapshot.SUFFIX);
+        snapshot.deleteOnExit();
+        File source = new File(OSM_DB_PATH_TINY);
+        GraphSnapshot.write(graphTiny, snapshot, source);
+        GraphDB loaded = GraphSnapshot.read(snapshot, source);
+        assertNotNull(loaded);
+
+        assertEquals(toList(graphTiny.vertices()), toList(loaded.vertices()));
+        for (long v : graphTiny.vertices()) {
+            assertEquals(toList(graphTiny.adjacent(v)), toList(loaded.adjacent(v)));
+            assertEquals(graphTiny.lon(v), loaded.lon(v), 0.0);
+            assertEquals(graphTiny.lat(v), loaded.lat(v), 0.0);
+            for (long w : graphTiny.adjacent(v)) {
+                assertEquals(graphTiny.sharedWayName(v, w), loaded.sharedWayName(v, w));
+            }
+        }
+        for (int e = 0; e < graphTiny.edgeEnd(graphTiny.size() - 1); e++) {
+            assertEquals(graphTiny.edgeSpeed(e), loaded.edgeSpeed(e), 0.0);
+        }
+        assertEquals(graphTiny.maxSpeed(), loaded.maxSpeed(), 0.0);
+        assertEquals(55L, loaded.closest(0.4, 38.51));
+    }
+
+    @Test
+    public void testMappedGraphMatchesHeapGraph() throws Exception {
+        File snapshot = File.createTempFile("tiny", GraphSnapshot.SUFFIX);
+        snapshot.deleteOnExit();
+        File source = new File(OSM_DB_PATH_TINY);
+        GraphSnapshot.write(graphTiny, snapshot, source);
+        GraphDB mapped = GraphSnapshot.map(snapshot, source);
+        assertNotNull(mapped);
+
+        assertEquals(toList(graphTiny.vertices()), toList(mapped.vertices()));
+        for (long v : graphTiny.vertices()) {
+            assertEquals(toList(graphTiny.adjacent(v)), toList(mapped.adjacent(v)));
+            assertEquals(graphTiny.lon(v), mapped.lon(v), 0.0);
+            assertEquals(graphTiny.lat(v), mapped.lat(v), 0.0);
+            for (long w : graphTiny.adjacent(v)) {
+                assertEquals(graphTiny.sharedWayName(v, w), mapped.sharedWayName(v, w));
+            }
+        }
+        for (int e = 0; e < graphTiny.edgeEnd(graphTiny.size() - 1); e++) {
+            assertEquals(graphTiny.edgeSpeed(e), mapped.edgeSpeed(e), 0.0);
+        }
+        assertEquals(graphTiny.maxSpeed(), mapped.maxSpeed(), 0.0);
+        assertEquals(55L, mapped.closest(0.4, 38.51));
+        assertEquals(graphTiny.getWayName(1L), mapped.getWayName(1L));
+    }
+
+    @Test
+    public void testSavedIndexesMatchBuiltOnes() throws Exception {
+        File source = File.createTempFile("random", ".osm.xml");
+        source.deleteOnExit();
+        GraphTestUtils.writeRandomOsm(source, 44, 30, 30);
+        GraphDB built = new GraphDB(source.getPath());
+        File snapshot = File.createTempFile("random", GraphSnapshot.SUFFIX);
+        snapshot.deleteOnExit();
+        GraphSnapshot.write(built, snapshot, source);
+        GraphDB mapped = GraphSnapshot.map(snapshot, source);
+        assertNotNull(mapped);
+        /* the mapped graph serves its indexes from the file, not from heap copies */
+        assertTrue(mapped.kdTree.order.isDirect());
+        assertTrue(mapped.segmentIndex.minX.isDirect());
+
+        for (GraphDB g : new GraphDB[] {GraphSnapshot.read(snapshot, source), mapped}) {
+            assertEquals(built.largestComponent(), g.largestComponent());
+            for (int v = 0; v < built.size(); v++) {
+                assertEquals(built.componentAt(v), g.componentAt(v));
+            }
+            Random random = new Random(7);
+            for (int i = 0; i < 200; i++) {
+                double lon = -122.31 + random.nextDouble() * 0.05;
+                double lat = 37.80 + random.nextDouble() * 0.04;
+                assertEquals(built.closest(lon, lat), g.closest(lon, lat));
+                assertEquals(built.closest(lon, lat, 5), g.closest(lon, lat, 5));
+                assertEquals(built.withinDistance(lon, lat, 0.2),
+                        g.withinDistance(lon, lat, 0.2));
+                SegmentIndex.Snap expected = built.snap(lon, lat);
+                SegmentIndex.Snap actual = g.snap(lon, lat);
+                assertEquals(expected.from, actual.from);
+                assertEquals(expected.to, actual.to);
+                assertEquals(expected.fraction, actual.fraction, 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testStaleSnapshotIsIgnored() throws Exception {
+        File snapshot = File.createTempFile("tiny", GraphSnapshot.SUFFIX);
+        snapshot.deleteOnExit();
+        File source = File.createTempFile("tiny", ".osm.xml");
+        source.deleteOnExit();
+        GraphSnapshot.write(graphTiny, snapshot, source);
+        assertNotNull(GraphSnapshot.read(snapshot, source));
+
+        source.setLastModified(source.lastModified() - 60000);
+        assertNull(GraphSnapshot.read(snapshot, source));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        File snapshot = File.createTempFile("tiny", GraphSnapshot.SUFFIX);
+        snapshot.deleteOnExit();
+        File source = new File(OSM_DB_PATH_TINY);
+        GraphSnapshot.write(graphTiny, snapshot, source);
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.seek(64);
+            int b = file.read();
+            file.seek(64);
+            file.write(b ^ 0xFF);
+        }
+        assertNull(GraphSnapshot.read(snapshot, source));
+    }
+
+    private static List<Long> toList(Iterable<Long> it) {
+        List<Long> list = new ArrayList<>();
+        for (long x : it) {
+            list.add(x);
+        }
+        return list;
+    }
+}
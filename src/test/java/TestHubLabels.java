@@ -0,0 +1,96 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks hub label distances against Dijkstra and the distance matrix, and saving and
+ * reloading the labels.
+ */
+public class TestHubLabels {
+    private static final int ROWS = 30;
+    private static final int COLS = 30;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(31, ROWS, COLS);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        Random random = new Random(17);
+        for (Router.Metric metric : Router.Metric.values()) {
+            HubLabels labels = graph.hubLabels(metric);
+            assertTrue(labels.entries() < (long) graph.size() * graph.size() / 4);
+            for (int i = 0; i < 30; i++) {
+                int s = random.nextInt(graph.size());
+                double[] distTo = GraphTestUtils.dijkstra(graph, s, e -> graph.edgeCost(e, metric));
+                for (int t = 0; t < graph.size(); t++) {
+                    assertEquals(distTo[t], labels.distance(s, t), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRouterDistance() {
+        Random random = new Random(18);
+        for (Router.Metric metric : Router.Metric.values()) {
+            for (boolean snapToSegment : new boolean[] {false, true}) {
+                Router.RouteOptions options = new Router.RouteOptions();
+                options.metric = metric;
+                options.snapToSegment = snapToSegment;
+                for (int i = 0; i < 50; i++) {
+                    double[] lons = {-122.30 + random.nextDouble() * COLS * 0.0015};
+                    double[] lats = {37.82 + random.nextDouble() * ROWS * 0.0012};
+                    double[] destLons = {-122.30 + random.nextDouble() * COLS * 0.0015};
+                    double[] destLats = {37.82 + random.nextDouble() * ROWS * 0.0012};
+                    double expected = Router.distanceMatrix(graph, lons, lats, destLons,
+                            destLats, options)[0][0];
+                    assertEquals(expected, Router.distance(graph, lons[0], lats[0],
+                            destLons[0], destLats[0], options), 1e-9);
+                }
+            }
+        }
+
+        long island = 1000L + ROWS * COLS;
+        assertEquals(Double.POSITIVE_INFINITY, Router.distance(graph, graph.lon(1000L),
+                graph.lat(1000L), graph.lon(island), graph.lat(island),
+                new Router.RouteOptions()), 0);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("random", HubLabels.SUFFIX);
+        file.deleteOnExit();
+        File source = File.createTempFile("random", ".osm.xml");
+        source.deleteOnExit();
+        HubLabels built = graph.hubLabels(Router.Metric.TIME);
+        HubLabels.write(built, file, source);
+        HubLabels loaded = HubLabels.read(graph, file, source);
+        assertNotNull(loaded);
+        assertEquals(Router.Metric.TIME, loaded.metric);
+        assertEquals(built.entries(), loaded.entries());
+        Random random = new Random(19);
+        for (int i = 0; i < 1000; i++) {
+            int s = random.nextInt(graph.size());
+            int t = random.nextInt(graph.size());
+            assertEquals(built.distance(s, t), loaded.distance(s, t), 0);
+        }
+
+        source.setLastModified(source.lastModified() - 60000);
+        assertNull(HubLabels.read(graph, file, source));
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the indexed heap against a brute-force minimum over an array of keys.
+ */
+public class TestIndexedMinHeap {
+
+    @Test
+    public void testRandomOperations() {
+        int n = 200;
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+        double[] keys = new double[n];
+        boolean[] present = new boolean[n];
+        Random random = new Random(11);
+        for (int step = 0; step < 20000; step++) {
+            int op = random.nextInt(3);
+            if (op < 2) {
+                int v = random.nextInt(n);
+                double key = random.nextInt(1000);
+                heap.push(v, key);
+                keys[v] = key;
+                present[v] = true;
+            } else if (!heap.isEmpty()) {
+                double expected = Double.POSITIVE_INFINITY;
+                for (int v = 0; v < n; v++) {
+                    if (present[v]) {
+                        expected = Math.min(expected, keys[v]);
+                    }
+                }
+                assertEquals(expected, heap.peekKey(), 0.0);
+                int v = heap.poll();
+                assertTrue(present[v]);
+                assertEquals(expected, keys[v], 0.0);
+                present[v] = false;
+            }
+            int size = 0;
+            for (boolean p : present) {
+                size += p ? 1 : 0;
+            }
+            assertEquals(size, heap.size());
+        }
+    }
+
+    @Test
+    public void testDecreaseKeyAndClear() {
+        IndexedMinHeap heap = new IndexedMinHeap(10);
+        heap.push(3, 5.0);
+        heap.push(7, 4.0);
+        heap.push(3, 1.0);
+        assertEquals(2, heap.size());
+        assertEquals(3, heap.peek());
+        assertEquals(1.0, heap.peekKey(), 0.0);
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(3));
+        assertEquals(Double.POSITIVE_INFINITY, heap.peekKey(), 0.0);
+        heap.push(7, 2.0);
+        assertEquals(7, heap.poll());
+        assertTrue(heap.isEmpty());
+    }
+}
@@ -0,0 +1,112 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks isochrones against a complete Dijkstra search, with and without traffic, and that
+ * their boundaries stay within reach of the start.
+ */
+public class TestIsochrone {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(21, 25, 25);
+        initialized = true;
+    }
+
+    @Test
+    public void testReachableVertices() {
+        Random random = new Random(9);
+        for (Router.Metric metric : Router.Metric.values()) {
+            Router.RouteOptions options = new Router.RouteOptions();
+            options.metric = metric;
+            for (int i = 0; i < 20; i++) {
+                int s = random.nextInt(graph.size());
+                double budget = (metric == Router.Metric.TIME ? 0.01 : 0.4)
+                        * random.nextDouble();
+                Isochrone isochrone = graph.isochrone(graph.lonAt(s), graph.latAt(s), budget,
+                        options);
+
+                double[] distTo = GraphTestUtils.dijkstra(graph, s, e -> graph.edgeCost(e, metric));
+                int expected = 0;
+                for (double d : distTo) {
+                    expected += d <= budget ? 1 : 0;
+                }
+                assertEquals(expected, isochrone.ids.length);
+                for (int k = 0; k < isochrone.ids.length; k++) {
+                    int v = graph.indexOf(isochrone.ids[k]);
+                    assertEquals(distTo[v], isochrone.costs[k], 1e-9);
+                    assertTrue(k == 0 || isochrone.costs[k - 1] <= isochrone.costs[k]);
+                }
+
+                Isochrone again = graph.isochrone(graph.lonAt(s), graph.latAt(s), budget,
+                        options);
+                assertArrayEquals(isochrone.ids, again.ids);
+            }
+        }
+    }
+
+    @Test
+    public void testTraffic() {
+        Random random = new Random(11);
+        TrafficOverlay overlay = new TrafficOverlay(graph);
+        int[] edges = new int[200];
+        double[] speeds = new double[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = random.nextInt(graph.edgeCount());
+            /* some roads slowed, some closed */
+            speeds[i] = i % 4 == 0 ? 0 : graph.edgeSpeed(edges[i]) * random.nextDouble();
+        }
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.metric = Router.Metric.TIME;
+        options.traffic = overlay.update(edges, speeds);
+        for (int i = 0; i < 20; i++) {
+            int s = random.nextInt(graph.size());
+            double budget = 0.01 * random.nextDouble();
+            Isochrone isochrone = graph.isochrone(graph.lonAt(s), graph.latAt(s), budget,
+                    options);
+
+            double[] distTo = GraphTestUtils.dijkstra(graph, s,
+                    e -> options.traffic.edgeCost(e, Router.Metric.TIME));
+            int expected = 0;
+            for (double d : distTo) {
+                expected += d <= budget ? 1 : 0;
+            }
+            assertEquals(expected, isochrone.ids.length);
+            for (int k = 0; k < isochrone.ids.length; k++) {
+                assertEquals(distTo[graph.indexOf(isochrone.ids[k])], isochrone.costs[k], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testBoundaryWithinBudget() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.snapToSegment = true;
+        Random random = new Random(10);
+        for (int i = 0; i < 20; i++) {
+            double lon = -122.30 + random.nextDouble() * 0.035;
+            double lat = 37.82 + random.nextDouble() * 0.028;
+            double budget = 0.1 + 0.4 * random.nextDouble();
+            Isochrone isochrone = graph.isochrone(lon, lat, budget, options);
+            Router.Endpoint start = Router.endpoint(graph, lon, lat, options);
+            int corners = isochrone.boundaryLons.length;
+            assertTrue(corners > 2 && corners <= Isochrone.SECTORS);
+            for (int k = 0; k < corners; k++) {
+                double d = GraphDB.distance(start.lon, start.lat, isochrone.boundaryLons[k],
+                        isochrone.boundaryLats[k]);
+                assertTrue(d <= budget * (1 + 1e-6));
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the k-d tree behind GraphDB.closest against a linear scan over every vertex.
+ */
+public class TestKdTree {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(7, 40, 40);
+        initialized = true;
+    }
+
+    @Test
+    public void testClosestMatchesLinearScan() {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            double lon = -122.31 + random.nextDouble() * 0.08;
+            double lat = 37.79 + random.nextDouble() * 0.07;
+            assertEquals(linearClosest(lon, lat, 1), graph.closest(lon, lat, 1));
+            assertEquals((long) linearClosest(lon, lat, 1).get(0), graph.closest(lon, lat));
+        }
+    }
+
+    @Test
+    public void testClosestOnVertexAndFarAway() {
+        for (long v : graph.vertices()) {
+            assertEquals(v, graph.closest(graph.lon(v), graph.lat(v)));
+        }
+        assertEquals(linearClosest(10.0, -40.0, 1), graph.closest(10.0, -40.0, 1));
+    }
+
+    @Test
+    public void testKNearest() {
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            double lon = -122.31 + random.nextDouble() * 0.08;
+            double lat = 37.79 + random.nextDouble() * 0.07;
+            int k = 1 + random.nextInt(20);
+            assertEquals(linearClosest(lon, lat, k), graph.closest(lon, lat, k));
+        }
+    }
+
+    @Test
+    public void testWithinDistance() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            double lon = -122.31 + random.nextDouble() * 0.08;
+            double lat = 37.79 + random.nextDouble() * 0.07;
+            double radius = random.nextDouble() * 0.5;
+            List<Long> expected = new ArrayList<>();
+            for (long v : linearClosest(lon, lat, Integer.MAX_VALUE)) {
+                if (GraphDB.distance(lon, lat, graph.lon(v), graph.lat(v)) <= radius) {
+                    expected.add(v);
+                }
+            }
+            assertEquals(expected, graph.withinDistance(lon, lat, radius));
+        }
+    }
+
+    /** The k closest vertices by a full scan, ties broken by id like the vertex order. */
+    private static List<Long> linearClosest(double lon, double lat, int k) {
+        List<Long> all = new ArrayList<>();
+        for (long v : graph.vertices()) {
+            all.add(v);
+        }
+        all.sort((v, w) -> {
+            int c = Double.compare(GraphDB.distance(lon, lat, graph.lon(v), graph.lat(v)),
+                    GraphDB.distance(lon, lat, graph.lon(w), graph.lat(w)));
+            return c != 0 ? c : Long.compare(v, w);
+        });
+        return new ArrayList<>(all.subList(0, Math.min(k, all.size())));
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the landmark bounds and ALT routes against A*, and saving and reloading the tables.
+ */
+public class TestLandmarks {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(19, 30, 30);
+        initialized = true;
+    }
+
+    @Test
+    public void testLowerBoundIsAdmissible() {
+        Landmarks landmarks = Landmarks.build(graph, 8);
+        assertEquals(8, landmarks.landmarks.length);
+        Random random = new Random(9);
+        for (int i = 0; i < 200; i++) {
+            int v = random.nextInt(graph.size());
+            int t = random.nextInt(graph.size());
+            List<Long> route = Router.shortestPath(graph, graph.lonAt(v), graph.latAt(v),
+                    graph.lonAt(t), graph.latAt(t));
+            if (route.isEmpty()) {
+                assertEquals(Double.POSITIVE_INFINITY, landmarks.lowerBound(v, t), 0.0);
+            } else {
+                assertTrue(landmarks.lowerBound(v, t)
+                        <= GraphTestUtils.routeCost(graph, route, graph::edgeWeight) + 1e-9);
+            }
+        }
+        assertEquals(0, landmarks.lowerBound(5, 5), 0.0);
+    }
+
+    @Test
+    public void testSameLengthAsAStar() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.algorithm = Router.Algorithm.ALT;
+        Random random = new Random(10);
+        for (int i = 0; i < 200; i++) {
+            double stlon = -122.31 + random.nextDouble() * 0.06;
+            double stlat = 37.81 + random.nextDouble() * 0.05;
+            double destlon = -122.31 + random.nextDouble() * 0.06;
+            double destlat = 37.81 + random.nextDouble() * 0.05;
+            List<Long> expected = Router.shortestPath(graph, stlon, stlat, destlon, destlat);
+            List<Long> actual = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    options);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            assertEquals(GraphTestUtils.routeCost(graph, expected, graph::edgeWeight),
+                    GraphTestUtils.routeCost(graph, actual, graph::edgeWeight), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("random", Landmarks.SUFFIX);
+        file.deleteOnExit();
+        File source = File.createTempFile("random", ".osm.xml");
+        source.deleteOnExit();
+        Landmarks built = Landmarks.build(graph, 4);
+        Landmarks.write(built, graph, file, source);
+        Landmarks loaded = Landmarks.read(graph, file, source);
+        assertNotNull(loaded);
+        assertArrayEquals(built.landmarks, loaded.landmarks);
+        assertArrayEquals(built.distances, loaded.distances, 0.0);
+
+        source.setLastModified(source.lastModified() - 60000);
+        assertNull(Landmarks.read(graph, file, source));
+    }
+}
@@ -0,0 +1,49 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the primitive OSM id to vertex index table against a boxed HashMap.
+ */
+public class TestLongIntHashMap {
+
+    @Test
+    public void testMissingKey() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        assertEquals(-1, map.get(53042711L));
+        assertFalse(map.containsKey(53042711L));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testPutOverwrites() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        map.put(3347105714L, 1);
+        map.put(3347105714L, 2);
+        assertEquals(2, map.get(3347105714L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testAgreesWithHashMapPastResize() {
+        LongIntHashMap map = new LongIntHashMap(2, -1);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(61);
+        for (int i = 0; i < 10000; i++) {
+            long key = random.nextInt(5000) * 1000003L;
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertTrue(map.containsKey(entry.getKey()));
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that cached routes are the routes Router would find, and the cache's counts, bound
+ * and invalidation.
+ */
+public class TestRouteCache {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(23, 20, 20);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesRouter() {
+        Random random = new Random(11);
+        for (boolean snapToSegment : new boolean[] {false, true}) {
+            Router.RouteOptions options = new Router.RouteOptions();
+            options.snapToSegment = snapToSegment;
+            RouteCache cache = new RouteCache(100);
+            for (int i = 0; i < 30; i++) {
+                double[] p = randomPoints(random);
+                List<Long> expected = Router.shortestPath(graph, p[0], p[1], p[2], p[3], options);
+                assertEquals(expected, cache.shortestPath(graph, p[0], p[1], p[2], p[3], options));
+                List<Long> cached = cache.shortestPath(graph, p[0], p[1], p[2], p[3], options);
+                assertEquals(expected, cached);
+                /* the caller's copy is its own */
+                cached.clear();
+                assertEquals(expected, cache.shortestPath(graph, p[0], p[1], p[2], p[3], options));
+            }
+            assertEquals(30, cache.misses());
+            assertEquals(60, cache.hits());
+            assertEquals(2.0 / 3, cache.hitRate(), 1e-12);
+        }
+    }
+
+    @Test
+    public void testSnappedPointsKeyedExactly() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.snapToSegment = true;
+        RouteCache cache = new RouteCache(100);
+        Random random = new Random(14);
+        int[] start = randomEdge(random);
+        int[] dest = randomEdge(random);
+        /* different points along the same two segments are separate entries */
+        for (double f : new double[] {0.3, 0.6, 0.3}) {
+            double[] p = {along(start, f, true), along(start, f, false),
+                along(dest, 1 - f, true), along(dest, 1 - f, false)};
+            List<Long> expected = Router.shortestPath(graph, p[0], p[1], p[2], p[3], options);
+            assertEquals(expected, cache.shortestPath(graph, p[0], p[1], p[2], p[3], options));
+        }
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void testModesAreCachedSeparately() {
+        RouteCache cache = new RouteCache(100);
+        double[] p = randomPoints(new Random(12));
+        for (Router.Metric metric : Router.Metric.values()) {
+            Router.RouteOptions options = new Router.RouteOptions();
+            options.metric = metric;
+            List<Long> expected = Router.shortestPath(graph, p[0], p[1], p[2], p[3], options);
+            assertEquals(expected, cache.shortestPath(graph, p[0], p[1], p[2], p[3], options));
+        }
+        assertEquals(0, cache.hits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testBoundedAndInvalidated() throws Exception {
+        Router.RouteOptions options = new Router.RouteOptions();
+        RouteCache cache = new RouteCache(32);
+        Random random = new Random(13);
+        for (int i = 0; i < 500; i++) {
+            double[] p = randomPoints(random);
+            cache.shortestPath(graph, p[0], p[1], p[2], p[3], options);
+            assertTrue(cache.size() <= 32);
+        }
+        assertTrue(cache.size() > 0);
+
+        GraphDB other = GraphTestUtils.randomGraph(24, 20, 20);
+        double[] p = randomPoints(random);
+        List<Long> expected = Router.shortestPath(other, p[0], p[1], p[2], p[3], options);
+        assertEquals(expected, cache.shortestPath(other, p[0], p[1], p[2], p[3], options));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    /** A random edge of the largest component, as its two vertices. */
+    private int[] randomEdge(Random random) {
+        while (true) {
+            int v = random.nextInt(graph.size());
+            if (graph.componentAt(v) != graph.largestComponent()
+                    || graph.edgeStart(v) == graph.edgeEnd(v)) {
+                continue;
+            }
+            int e = graph.edgeStart(v) + random.nextInt(graph.edgeEnd(v) - graph.edgeStart(v));
+            return new int[] {v, graph.edgeTarget(e)};
+        }
+    }
+
+    /** The longitude, or else the latitude, of the point fraction f along an edge. */
+    private double along(int[] edge, double f, boolean lon) {
+        return lon ? graph.lonAt(edge[0]) + f * (graph.lonAt(edge[1]) - graph.lonAt(edge[0]))
+                : graph.latAt(edge[0]) + f * (graph.latAt(edge[1]) - graph.latAt(edge[0]));
+    }
+
+    /** A random start and end over the grid, as start lon, start lat, end lon, end lat. */
+    private double[] randomPoints(Random random) {
+        double[] p = new double[4];
+        for (int i = 0; i < 4; i += 2) {
+            p[i] = -122.30 + random.nextDouble() * 20 * 0.0015;
+            p[i + 1] = 37.82 + random.nextDouble() * 20 * 0.0012;
+        }
+        return p;
+    }
+}
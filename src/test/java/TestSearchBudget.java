@@ -0,0 +1,102 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that route searches stop with the right status when their budget runs out, and
+ * are unchanged when it does not.
+ */
+public class TestSearchBudget {
+    private static final int ROWS = 30;
+    private static final int COLS = 30;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(27, ROWS, COLS);
+        initialized = true;
+    }
+
+    @Test
+    public void testSettleLimit() {
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            Router.RouteOptions options = new Router.RouteOptions();
+            options.algorithm = algorithm;
+            List<Long> expected = acrossTheGrid(options).route;
+            assertTrue(expected.size() > 10);
+
+            options.budget = SearchBudget.of(3);
+            Router.RouteResult result = acrossTheGrid(options);
+            assertEquals(Router.Status.SETTLE_LIMIT, result.status);
+            assertTrue(result.route.isEmpty());
+
+            options.budget = SearchBudget.of(graph.size() * 2);
+            result = acrossTheGrid(options);
+            assertEquals(Router.Status.FOUND, result.status);
+            assertEquals(expected, result.route);
+        }
+    }
+
+    @Test
+    public void testDeadlineAndCancellation() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.budget = SearchBudget.of(Integer.MAX_VALUE, 0);
+        assertEquals(Router.Status.DEADLINE, acrossTheGrid(options).status);
+
+        options.budget = SearchBudget.of(Integer.MAX_VALUE, 60000);
+        assertEquals(Router.Status.FOUND, acrossTheGrid(options).status);
+        options.budget.cancel();
+        assertEquals(Router.Status.CANCELLED, acrossTheGrid(options).status);
+
+        /* a default budget belongs to its options alone, so cancelling it stops no other query */
+        Router.RouteOptions defaults = new Router.RouteOptions();
+        defaults.budget.cancel();
+        assertEquals(Router.Status.CANCELLED, acrossTheGrid(defaults).status);
+        assertEquals(Router.Status.FOUND, acrossTheGrid(new Router.RouteOptions()).status);
+    }
+
+    @Test
+    public void testNoRoute() {
+        long island = 1000L + ROWS * COLS;
+        Router.RouteResult result = Router.findRoute(graph, graph.lon(1000L),
+                graph.lat(1000L), graph.lon(island), graph.lat(island),
+                new Router.RouteOptions());
+        assertEquals(Router.Status.NO_ROUTE, result.status);
+        assertTrue(result.route.isEmpty());
+    }
+
+    @Test
+    public void testExhaustedRoutesAreNotCached() {
+        RouteCache cache = new RouteCache(100);
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.budget = SearchBudget.of(3);
+        assertEquals(Router.Status.SETTLE_LIMIT, cacheAcrossTheGrid(cache, options).status);
+        assertEquals(0, cache.size());
+
+        options.budget = SearchBudget.unlimited();
+        assertEquals(Router.Status.FOUND, cacheAcrossTheGrid(cache, options).status);
+        assertEquals(Router.Status.FOUND, cacheAcrossTheGrid(cache, options).status);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.hits());
+    }
+
+    /** Routes from one corner of the grid to the opposite one. */
+    private Router.RouteResult acrossTheGrid(Router.RouteOptions options) {
+        return Router.findRoute(graph, -122.30, 37.82, -122.30 + (COLS - 1) * 0.0015,
+                37.82 + (ROWS - 1) * 0.0012, options);
+    }
+
+    private Router.RouteResult cacheAcrossTheGrid(RouteCache cache,
+                                                  Router.RouteOptions options) {
+        return cache.findRoute(graph, -122.30, 37.82, -122.30 + (COLS - 1) * 0.0015,
+                37.82 + (ROWS - 1) * 0.0012, options);
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that pooled search workspaces forget everything between searches, and that routes
+ * do not depend on what an earlier search left behind.
+ */
+public class TestSearchState {
+
+    @Test
+    public void testResetForgetsEverything() {
+        SearchState state = SearchState.get(0, 10);
+        state.reach(3, 1.5, 2, 7);
+        state.settle(3);
+        state.setCache(4, 2.5);
+        state.fringe.push(3, 1.5);
+        assertTrue(state.reached(3));
+        assertEquals(1.5, state.distTo(3), 0.0);
+        assertEquals(2, state.edgeTo(3));
+        assertEquals(7, state.parentEdge(3));
+        assertTrue(state.settled(3));
+        assertTrue(state.cached(4));
+
+        assertSame(state, SearchState.get(0, 10));
+        assertFalse(state.reached(3));
+        assertEquals(Double.MAX_VALUE, state.distTo(3), 0.0);
+        assertFalse(state.settled(3));
+        assertFalse(state.cached(4));
+        assertTrue(state.fringe.isEmpty());
+    }
+
+    @Test
+    public void testSlotsAndGrowth() throws Exception {
+        /* a fresh thread, so that earlier tests have not already grown its workspaces */
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(() -> {
+            try {
+                SearchState small = SearchState.get(1, 5);
+                assertNotSame(small, SearchState.get(0, 5));
+                assertSame(small, SearchState.get(1, 3));
+                SearchState big = SearchState.get(1, 50);
+                assertNotSame(small, big);
+                big.reach(49, 1, 49, -1);
+                assertTrue(big.reached(49));
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+
+    @Test
+    public void testRepeatedRoutesAgree() throws Exception {
+        GraphDB graph = GraphTestUtils.randomGraph(23, 20, 20);
+        long from = 1000L + 21;
+        long to = 1000L + 378;
+        List<Long> first = Router.shortestPath(graph, graph.lon(from), graph.lat(from),
+                graph.lon(to), graph.lat(to));
+        Router.shortestPath(graph, graph.lon(to), graph.lat(to), graph.lon(from),
+                graph.lat(from));
+        assertEquals(first, Router.shortestPath(graph, graph.lon(from), graph.lat(from),
+                graph.lon(to), graph.lat(to)));
+    }
+}
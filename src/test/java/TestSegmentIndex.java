@@ -0,0 +1,89 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks snapping to the closest road segment against a scan of every edge, and routing
+ * between snapped points.
+ */
+public class TestSegmentIndex {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(11, 30, 30);
+        initialized = true;
+    }
+
+    @Test
+    public void testSnapMatchesScan() {
+        Random random = new Random(4);
+        for (int i = 0; i < 300; i++) {
+            double lon = -122.31 + random.nextDouble() * 0.06;
+            double lat = 37.81 + random.nextDouble() * 0.05;
+            SegmentIndex.Snap snap = graph.snap(lon, lat);
+            assertEquals(scanDistance(lon, lat), snap.distance, 1e-3 * snap.distance + 1e-9);
+            assertTrue(graph.edgeBetween(snap.from, snap.to) >= 0);
+            assertTrue(snap.fraction >= 0 && snap.fraction <= 1);
+        }
+    }
+
+    @Test
+    public void testSnapOnVertex() {
+        int v = graph.indexOf(1000L + 31);
+        SegmentIndex.Snap snap = graph.snap(graph.lonAt(v), graph.latAt(v));
+        assertEquals(0, snap.distance, 1e-9);
+        assertTrue(snap.from == v && snap.fraction == 0 || snap.to == v && snap.fraction == 1);
+    }
+
+    @Test
+    public void testSnappedRouteBetweenVerticesMatchesNodeRoute() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.snapToSegment = true;
+        Random random = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            int v = random.nextInt(graph.size());
+            int w = random.nextInt(graph.size());
+            double stlon = graph.lonAt(v);
+            double stlat = graph.latAt(v);
+            double destlon = graph.lonAt(w);
+            double destlat = graph.latAt(w);
+            List<Long> nodeRoute = Router.shortestPath(graph, stlon, stlat, destlon, destlat);
+            List<Long> snapRoute = Router.shortestPath(graph, stlon, stlat, destlon, destlat,
+                    options);
+            if (v != w && nodeRoute.size() > 1) {
+                assertEquals(GraphTestUtils.routeCost(graph, nodeRoute, graph::edgeWeight),
+                        GraphTestUtils.routeCost(graph, snapRoute, graph::edgeWeight), 1e-9);
+            }
+        }
+    }
+
+    private static double scanDistance(double lon, double lat) {
+        double xScale = Math.cos(Math.toRadians(37.84));
+        double best = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < graph.size(); v++) {
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                int w = graph.edgeTarget(e);
+                double ax = graph.lonAt(v) * xScale;
+                double ay = graph.latAt(v);
+                double dx = graph.lonAt(w) * xScale - ax;
+                double dy = graph.latAt(w) - ay;
+                double t = ((lon * xScale - ax) * dx + (lat - ay) * dy) / (dx * dx + dy * dy);
+                t = Math.max(0, Math.min(1, t));
+                double px = graph.lonAt(v) + t * (graph.lonAt(w) - graph.lonAt(v));
+                double py = graph.latAt(v) + t * (graph.latAt(w) - graph.latAt(v));
+                best = Math.min(best, GraphDB.distance(lon, lat, px, py));
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,197 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks traffic snapshots, routing on them against Dijkstra at the same speeds, concurrent
+ * updates, and reading speeds from a feed file.
+ */
+public class TestTrafficOverlay {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(43, 40, 40);
+        initialized = true;
+    }
+
+    @Test
+    public void testSnapshots() {
+        TrafficOverlay overlay = new TrafficOverlay(graph);
+        TrafficOverlay.Snapshot limits = overlay.current();
+        assertEquals(0, limits.epoch);
+        assertEquals(0, limits.changed().length);
+
+        int e = graph.edgeStart(0);
+        double limit = graph.edgeSpeed(e);
+        TrafficOverlay.Snapshot slow = overlay.update(new int[] {e}, new double[] {limit / 2});
+        assertSame(slow, overlay.current());
+        assertEquals(1, slow.epoch);
+        assertEquals(limit / 2, slow.edgeSpeed(e), 1e-6);
+        assertEquals(graph.edgeWeight(e) / slow.edgeSpeed(e),
+                slow.edgeCost(e, Router.Metric.TIME), 1e-12);
+        assertEquals(graph.edgeWeight(e), slow.edgeCost(e, Router.Metric.DISTANCE), 0);
+        assertEquals(1, slow.changed().length);
+        /* the earlier snapshot still has the speed limit */
+        assertEquals(limit, limits.edgeSpeed(e), 0);
+        assertEquals(graph.edgeCost(e, Router.Metric.TIME),
+                limits.edgeCost(e, Router.Metric.TIME), 0);
+
+        /* traffic never speeds a road past its limit, and 0 closes it */
+        int f = e + 1;
+        TrafficOverlay.Snapshot closed = overlay.update(new int[] {e, f},
+                new double[] {limit * 2, 0});
+        assertEquals(limit, closed.edgeSpeed(e), 0);
+        assertEquals(Double.POSITIVE_INFINITY, closed.edgeCost(f, Router.Metric.TIME), 0);
+        assertTrue(Arrays.equals(new int[] {f}, closed.changed()));
+
+        TrafficOverlay.Snapshot replaced = overlay.replace(new int[0], new double[0]);
+        assertEquals(3, replaced.epoch);
+        assertEquals(0, replaced.changed().length);
+        try {
+            overlay.update(new int[] {e}, new double[] {-1});
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertSame(replaced, overlay.current());
+        }
+    }
+
+    @Test
+    public void testRoutesWithTraffic() {
+        Random random = new Random(28);
+        TrafficOverlay overlay = new TrafficOverlay(graph);
+        for (Router.Algorithm algorithm : new Router.Algorithm[] {Router.Algorithm.ASTAR,
+                Router.Algorithm.ALT, Router.Algorithm.BIDIRECTIONAL_ASTAR,
+                Router.Algorithm.CRP}) {
+            for (int i = 0; i < 10; i++) {
+                /* jam a random tenth of the roads in both directions, closing some */
+                int count = graph.size() / 10;
+                int[] edges = new int[2 * count];
+                double[] speeds = new double[2 * count];
+                Set<Integer> jammed = new HashSet<>();
+                for (int k = 0; k < count; ) {
+                    int v = random.nextInt(graph.size());
+                    int e = graph.edgeStart(v)
+                            + random.nextInt(graph.edgeEnd(v) - graph.edgeStart(v));
+                    int reverse = graph.edgeBetween(graph.edgeTarget(e), v);
+                    if (!jammed.add(e) || !jammed.add(reverse)) {
+                        continue;
+                    }
+                    edges[2 * k] = e;
+                    edges[2 * k + 1] = reverse;
+                    speeds[2 * k] = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(10);
+                    speeds[2 * k + 1] = speeds[2 * k];
+                    k++;
+                }
+                TrafficOverlay.Snapshot traffic = overlay.replace(edges, speeds);
+                IntToDoubleFunction time = e -> traffic.edgeCost(e, Router.Metric.TIME);
+
+                Router.RouteOptions options = new Router.RouteOptions();
+                options.algorithm = algorithm;
+                options.metric = Router.Metric.TIME;
+                options.traffic = traffic;
+                for (int j = 0; j < 10; j++) {
+                    int s = random.nextInt(graph.size());
+                    int t = random.nextInt(graph.size());
+                    List<Long> route = Router.shortestPath(graph, graph.lonAt(s),
+                            graph.latAt(s), graph.lonAt(t), graph.latAt(t), options);
+                    assertEquals(GraphTestUtils.dijkstra(graph, s, time)[t],
+                            GraphTestUtils.routeCost(graph, route, time), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        TrafficOverlay overlay = new TrafficOverlay(graph);
+        int threads = 4;
+        int perThread = 200;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int first = i * perThread;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int e = first; e < first + perThread; e++) {
+                    overlay.update(new int[] {e}, new double[] {0});
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        /* no update was lost to another landing at the same time */
+        TrafficOverlay.Snapshot last = overlay.current();
+        assertEquals(threads * perThread, last.epoch);
+        assertEquals(threads * perThread, last.changed().length);
+        for (int e = 0; e < threads * perThread; e++) {
+            assertEquals(0, last.edgeSpeed(e), 0);
+        }
+    }
+
+    @Test
+    public void testFeed() throws Exception {
+        File file = File.createTempFile("traffic", ".csv");
+        file.deleteOnExit();
+        int v = graph.size() / 2;
+        int w = graph.edgeTarget(graph.edgeStart(v));
+        int x = graph.edgeTarget(graph.edgeEnd(v) - 1);
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("# from, to, mph");
+            out.println(graph.idAt(v) + "," + graph.idAt(w) + ",3.5");
+            out.println();
+            out.println("not,a,line");
+            out.println(graph.idAt(v) + ",-7,10");
+        }
+        TrafficOverlay overlay = new TrafficOverlay(graph);
+        try (TrafficFeed feed = new TrafficFeed(graph, overlay, file, 0)) {
+            TrafficOverlay.Snapshot first = overlay.current();
+            assertEquals(1, first.epoch);
+            assertEquals(3.5, first.edgeSpeed(graph.edgeBetween(v, w)), 0);
+            assertEquals(3.5, first.edgeSpeed(graph.edgeBetween(w, v)), 0);
+            assertEquals(2, first.changed().length);
+            assertFalse(feed.poll());
+            assertSame(first, overlay.current());
+
+            /* a new file replaces the old speeds */
+            try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+                out.println(graph.idAt(x) + "," + graph.idAt(v) + ",0");
+            }
+            file.setLastModified(file.lastModified() + 5000);
+            assertTrue(feed.poll());
+            TrafficOverlay.Snapshot second = overlay.current();
+            assertNotSame(first, second);
+            assertEquals(graph.edgeSpeed(graph.edgeBetween(v, w)),
+                    second.edgeSpeed(graph.edgeBetween(v, w)), 0);
+            assertEquals(0, second.edgeSpeed(graph.edgeBetween(v, x)), 0);
+        }
+    }
+}
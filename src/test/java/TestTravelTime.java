@@ -0,0 +1,97 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks speed parsing, and that every algorithm finds fastest routes as fast as Dijkstra's
+ * algorithm over travel times.
+ */
+public class TestTravelTime {
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = GraphTestUtils.randomGraph(17, 25, 25);
+        initialized = true;
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(25, SpeedLimits.parse("25 mph"), 1e-9);
+        assertEquals(40 * 0.621371, SpeedLimits.parse("40"), 1e-9);
+        assertEquals(40 * 0.621371, SpeedLimits.parse("40 km/h"), 1e-9);
+        assertEquals(30 * 0.621371, SpeedLimits.parse("30;50"), 1e-9);
+        assertEquals(4, SpeedLimits.parse("walk"), 1e-9);
+        assertTrue(Double.isNaN(SpeedLimits.parse("signals")));
+        assertTrue(Double.isNaN(SpeedLimits.parse("US:urban")));
+        assertTrue(Double.isNaN(SpeedLimits.parse(null)));
+        assertEquals(65, SpeedLimits.speed("none", "motorway"), 1e-9);
+        assertEquals(35, SpeedLimits.speed("35 mph", "motorway"), 1e-9);
+        assertEquals(SpeedLimits.DEFAULT_SPEED, SpeedLimits.speed(null, "track"), 1e-9);
+    }
+
+    @Test
+    public void testSpeedsFromTags() {
+        double max = 0;
+        for (int e = 0; e < graph.edgeEnd(graph.size() - 1); e++) {
+            String maxSpeed = graph.wayMaxSpeeds[graph.edgeWay(e)];
+            if (maxSpeed != null && !Double.isNaN(SpeedLimits.parse(maxSpeed))) {
+                assertEquals(SpeedLimits.parse(maxSpeed), graph.edgeSpeed(e), 1e-4);
+            }
+            assertEquals(graph.edgeWeight(e) / graph.edgeSpeed(e), graph.edgeTime(e), 0.0);
+            max = Math.max(max, graph.edgeSpeed(e));
+        }
+        assertEquals(max, graph.maxSpeed(), 0.0);
+    }
+
+    @Test
+    public void testFastestRoutes() {
+        Router.RouteOptions options = new Router.RouteOptions();
+        options.metric = Router.Metric.TIME;
+        Random random = new Random(5);
+        for (int i = 0; i < 100; i++) {
+            int s = random.nextInt(graph.size());
+            int t = random.nextInt(graph.size());
+            double expected = dijkstraTime(s, t);
+            for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+                options.algorithm = algorithm;
+                List<Long> route = Router.shortestPath(graph, graph.lonAt(s), graph.latAt(s),
+                        graph.lonAt(t), graph.latAt(t), options);
+                assertEquals(algorithm.toString(), expected, time(route), 1e-9);
+            }
+            List<Long> shortest = Router.shortestPath(graph, graph.lonAt(s), graph.latAt(s),
+                    graph.lonAt(t), graph.latAt(t));
+            assertTrue(time(shortest) >= expected - 1e-9);
+        }
+    }
+
+    private double dijkstraTime(int s, int t) {
+        double time = GraphTestUtils.dijkstra(graph, s, graph::edgeTime)[t];
+        return time == Double.POSITIVE_INFINITY ? 0 : time;
+    }
+
+    private double time(List<Long> route) {
+        double time = 0;
+        Iterator<Long> nodes = route.iterator();
+        if (!nodes.hasNext()) {
+            return 0;
+        }
+        int prev = graph.indexOf(nodes.next());
+        while (nodes.hasNext()) {
+            int next = graph.indexOf(nodes.next());
+            time += graph.edgeTime(graph.edgeBetween(prev, next));
+            prev = next;
+        }
+        return time;
+    }
+}